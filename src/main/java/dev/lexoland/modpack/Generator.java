@@ -9,17 +9,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
 
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import dev.lexoland.updating.updater.ModrinthApi;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.OkHttpClient;
@@ -31,19 +41,18 @@ public class Generator {
 
 	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
 
-	private static final String MODRINTH_API = "https://api.modrinth.com/v2/version/";
+	private static final String PACK_DIR = "./modpackgen/modpack/";
 	private static final String PACK_FILE = "./modpackgen/modpack/modrinth.index.json";
 	private static final String OVERRIDE_MODS_DIR = "./modpackgen/modpack/overrides/mods/";
+	private static final String VERSION_CACHE_FILE = "./modpackgen/version-cache.json";
 
-	private static final ModrinthCallbackHandler MODRINTH_CALLBACK_HANDLER = new ModrinthCallbackHandler();
+	// keeps the lookup URLs well below common length limits
+	private static final int VERSIONS_PER_LOOKUP = 100;
+	private static final int MAX_CONCURRENT_LOOKUPS = 4;
 
 	private static final JsonObject MODPACK_JSON = new JsonObject();
 
-	private static final List<JsonObject> MODS = new ArrayList<>();
-	private static final Map<Request, String> REQUEST_NAME_MAP = new HashMap<>();
-
-	private static int requestCount;
-	private static AtomicInteger callbackCount = new AtomicInteger();
+	private static final PackBuilder PACK_BUILDER = new PackBuilder(Paths.get(PACK_DIR));
 
 	public static void main(String[] args) throws IOException, URISyntaxException {
 		File file = new File("./modpackgen/modlist.txt");
@@ -58,26 +67,146 @@ public class Generator {
 		MODPACK_JSON.addProperty("name", "CreateWithWorldgen");
 		MODPACK_JSON.addProperty("summary", "A modpack for Create and Worldgen");
 
-		List<Request> requests = createModrinthRequests(file);
-		requestCount = requests.size() + REQUEST_NAME_MAP.size();
-		System.out.println("Found " + requestCount + " mods");
+		List<String> versionIds = new ArrayList<>();
+		Map<String, String> curseforgeDownloads = new LinkedHashMap<>();
+		readModList(file, versionIds, curseforgeDownloads);
+		System.out.println("Found " + (versionIds.size() + curseforgeDownloads.size()) + " mods");
 
-		OkHttpClient client = new OkHttpClient();
+		ModrinthApi api = new ModrinthApi(null);
+		OkHttpClient client = api.client();
 
-		for (Request request : requests)
-			client.newCall(request).enqueue(MODRINTH_CALLBACK_HANDLER);
+		List<CompletableFuture<Void>> downloads = new ArrayList<>();
+		for (Map.Entry<String, String> entry : curseforgeDownloads.entrySet())
+			downloads.add(download(client, entry.getKey(), entry.getValue()));
 
-		for (Map.Entry<Request, String> entry : REQUEST_NAME_MAP.entrySet()) {
-			Request request = entry.getKey();
-			String name = entry.getValue();
-			client.newCall(request).enqueue(new CurseforgeCallbackHandler(name));
+		System.out.println("Getting mod info...");
+		Map<String, JsonObject> files = resolveVersions(api, versionIds);
+
+		CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).join();
+
+		// a pack without some of its mods must not be built, it would remove them from every instance
+		List<String> unresolved = versionIds.stream()
+				.distinct()
+				.filter(versionId -> !files.containsKey(versionId))
+				.collect(Collectors.toList());
+		if (!unresolved.isEmpty()) {
+			System.out.println("Failed to get mod info for " + unresolved + ", not building the pack");
+			System.exit(1);
 		}
 
-		System.out.println("Getting mod info...");
+		// in the order of the mod list, so the index only changes where the list did
+		List<JsonObject> mods = new ArrayList<>();
+		for (String versionId : new LinkedHashSet<>(versionIds))
+			mods.add(files.get(versionId));
+
+		finish(mods);
+		buildPack();
+		System.exit(0);
+	}
+
+	/**
+	 * Looks up the pack files of the given versions, in batches through the bulk endpoint. Versions never change
+	 * once they are published, so every resolved version is kept in a cache and never looked up again.
+	 *
+	 * @return the pack file entry of every version that could be resolved
+	 */
+	private static Map<String, JsonObject> resolveVersions(ModrinthApi api, List<String> versionIds) throws IOException {
+		Map<String, JsonObject> files = new ConcurrentHashMap<>(loadVersionCache());
+
+		List<String> missing = versionIds.stream()
+				.distinct()
+				.filter(versionId -> !files.containsKey(versionId))
+				.collect(Collectors.toList());
+		System.out.println((versionIds.size() - missing.size()) + " versions cached, looking up " + missing.size());
+
+		Semaphore lookups = new Semaphore(MAX_CONCURRENT_LOOKUPS);
+		List<CompletableFuture<?>> pending = new ArrayList<>();
+
+		for (int i = 0; i < missing.size(); i += VERSIONS_PER_LOOKUP) {
+			List<String> batch = missing.subList(i, Math.min(i + VERSIONS_PER_LOOKUP, missing.size()));
+
+			lookups.acquireUninterruptibly();
+			pending.add(api.get("/versions?ids=[\"" + String.join("\",\"", batch) + "\"]")
+					.whenComplete((versions, e) -> {
+						lookups.release();
+
+						if (e != null) {
+							System.out.println("Failed to get mod info for " + batch + ": " + e.getMessage());
+							return;
+						}
+
+						for (JsonElement version : versions.getAsJsonArray()) {
+							JsonObject versionObject = version.getAsJsonObject();
+							files.put(versionObject.get("id").getAsString(), toPackFile(versionObject));
+						}
+					})
+					.exceptionally(e -> null));
+		}
+
+		CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+
+		saveVersionCache(files);
+		return files;
 	}
 
-	private static void finish() throws IOException {
-		MODPACK_JSON.add("files", GSON.toJsonTree(MODS));
+	private static JsonObject toPackFile(JsonObject version) {
+		JsonObject json = version
+				.getAsJsonArray("files")
+				.get(0)
+				.getAsJsonObject()
+				.deepCopy();
+
+		json.remove("primary");
+		String fileName = json.remove("filename").getAsString();
+
+		long fileSize = json.get("size").getAsLong();
+		json.remove("size");
+		json.addProperty("fileSize", fileSize);
+
+		json.addProperty("path", "mods/" + fileName);
+
+		String url = json.remove("url").getAsString();
+
+		JsonArray downloads = new JsonArray();
+		downloads.add(new JsonPrimitive(url));
+		json.add("downloads", downloads);
+		return json;
+	}
+
+	private static Map<String, JsonObject> loadVersionCache() throws IOException {
+		Map<String, JsonObject> cache = new LinkedHashMap<>();
+
+		File file = new File(VERSION_CACHE_FILE);
+		if (!file.exists())
+			return cache;
+
+		try (FileReader reader = new FileReader(file)) {
+			JsonObject cacheObject = GSON.fromJson(reader, JsonObject.class);
+			if (cacheObject != null) {
+				for (Map.Entry<String, JsonElement> entry : cacheObject.entrySet())
+					cache.put(entry.getKey(), entry.getValue().getAsJsonObject());
+			}
+		}
+		return cache;
+	}
+
+	private static void saveVersionCache(Map<String, JsonObject> files) throws IOException {
+		// sorted, so the cache file is stable as well
+		JsonObject cacheObject = new JsonObject();
+		files.keySet().stream()
+				.sorted()
+				.forEach(versionId -> cacheObject.add(versionId, files.get(versionId)));
+
+		File file = new File(VERSION_CACHE_FILE);
+		file.getAbsoluteFile().getParentFile().mkdirs();
+
+		try (FileWriter writer = new FileWriter(file)) {
+			GSON.toJson(cacheObject, writer);
+		}
+	}
+
+	private static void finish(List<JsonObject> mods) throws IOException {
+		MODPACK_JSON.add("files", GSON.toJsonTree(mods));
 		System.out.println("Finished getting mod info");
 		System.out.println("Writing to file...");
 		File file = new File(PACK_FILE);
@@ -99,13 +228,25 @@ public class Generator {
 			GSON.toJson(MODPACK_JSON, writer);
 		}
 		System.out.println("Done!");
-		System.exit(0);
 	}
 
+	private static void buildPack() throws IOException {
+		Path output = Paths.get("./modpackgen/" + MODPACK_JSON.get("name").getAsString() + "-" + MODPACK_JSON.get("versionId").getAsString() + ".mrpack");
+
+		System.out.println("Building " + output.getFileName() + "...");
+		PackBuilder.Result result = PACK_BUILDER.build(output);
 
-	private static List<Request> createModrinthRequests(File file) throws IOException {
-		List<Request> urls = new ArrayList<>();
+		System.out.println("Built " + output);
+		System.out.println("fileSize: " + result.fileSize);
+		System.out.println("sha1: " + result.sha1);
+		System.out.println("sha512: " + result.sha512);
+	}
 
+	/**
+	 * Reads the Modrinth version IDs of the mod list, and the mods which are downloaded into the overrides
+	 * from lines like {@code !<name>;<url>}.
+	 */
+	private static void readModList(File file, List<String> versionIds, Map<String, String> curseforgeDownloads) throws IOException {
 		try(BufferedReader in = new BufferedReader(new FileReader(file))) {
 			String line;
 			while ((line = in.readLine()) != null) {
@@ -113,130 +254,73 @@ public class Generator {
 					continue;
 
 				if(line.startsWith("!")) {
-					REQUEST_NAME_MAP.put(new Request.Builder()
-							.url(line.substring(line.indexOf(";") + 1))
-							.get()
-							.build(),
-							line.substring(1, line.indexOf(";"))
-					);
+					curseforgeDownloads.put(line.substring(1, line.indexOf(";")), line.substring(line.indexOf(";") + 1));
 					continue;
 				}
 
-				urls.add(new Request.Builder()
-						.url(MODRINTH_API + line)
-						.get()
-						.build()
-				);
+				versionIds.add(line);
 			}
 		}
-		return urls;
 	}
 
-	private static class ModrinthCallbackHandler implements Callback {
-
-		@Override
-		public void onFailure(@NotNull Call call, @NotNull IOException e) {
-			System.out.println("Failed to get mod info: " + e.getMessage());
-			if(callbackCount.incrementAndGet() == requestCount) {
-				try {
-					Generator.finish();
-				} catch (IOException ex) {
-					throw new RuntimeException(ex);
-				}
-			}
-		}
-
-		@Override
-		public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
-			if(!response.isSuccessful()) {
-				System.out.println("Failed to get mod info for " + call.request().url());
-				System.out.println("Response code: " + response.code());
-				if(callbackCount.incrementAndGet() == requestCount)
-					Generator.finish();
-				return;
-			}
-
-			JsonObject json = GSON.fromJson(response.body().charStream(), JsonObject.class)
-					.getAsJsonArray("files")
-					.get(0)
-					.getAsJsonObject();
-
-			json.remove("primary");
-			String fileName = json.remove("filename").getAsString();
-
-			long fileSize = json.get("size").getAsLong();
-			json.remove("size");
-			json.addProperty("fileSize", fileSize);
-
-			json.addProperty("path", "mods/" + fileName);
-
-			String url = json.remove("url").getAsString();
-
-			JsonArray downloads = new JsonArray();
-			downloads.add(new JsonPrimitive(url));
-			json.add("downloads", downloads);
-
-			MODS.add(json);
-			if(callbackCount.incrementAndGet() == requestCount)
-				Generator.finish();
-		}
+	private static CompletableFuture<Void> download(OkHttpClient client, String name, String url) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		client.newCall(new Request.Builder()
+				.url(url)
+				.get()
+				.build()
+		).enqueue(new CurseforgeCallbackHandler(name, future));
+		return future;
 	}
 
 	private static class CurseforgeCallbackHandler implements Callback {
 
+		private static final int BUFFER_SIZE = 64 * 1024;
+
 		private final String name;
+		private final CompletableFuture<Void> future;
 
-		public CurseforgeCallbackHandler(String name) {
+		public CurseforgeCallbackHandler(String name, CompletableFuture<Void> future) {
 			this.name = name;
+			this.future = future;
 		}
 
 		@Override
 		public void onFailure(@NotNull Call call, @NotNull IOException e) {
 			System.out.println("Failed to get mod info: " + e.getMessage());
-			if(callbackCount.incrementAndGet() == requestCount) {
-				try {
-					Generator.finish();
-				} catch (IOException ex) {
-					throw new RuntimeException(ex);
-				}
-			}
-			call.cancel();
+			future.complete(null);
 		}
 
 		@Override
 		public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
-			if(!response.isSuccessful()) {
-				System.out.println("Failed to get mod info for " + call.request().url());
-				System.out.println("Response code: " + response.code());
-				if(callbackCount.incrementAndGet() == requestCount)
-					Generator.finish();
-				return;
-			}
+			try (Response r = response) {
+				if(!r.isSuccessful()) {
+					System.out.println("Failed to get mod info for " + call.request().url());
+					System.out.println("Response code: " + r.code());
+					return;
+				}
 
-			File file = new File(OVERRIDE_MODS_DIR + name + ".jar");
+				File file = new File(OVERRIDE_MODS_DIR + name + ".jar");
 
-			if(!file.exists()) {
-				file.getParentFile().mkdirs();
-				if(!file.createNewFile()) {
-					System.out.println("Failed to create file!");
-					return;
+				if(!file.exists()) {
+					file.getParentFile().mkdirs();
+					if(!file.createNewFile()) {
+						System.out.println("Failed to create file!");
+						return;
+					}
 				}
-			}
 
-			try(InputStream in = response.body().byteStream()) {
-				try (BufferedOutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
-					byte[] buffer = new byte[1024];
-					int read;
-					while ((read = in.read(buffer, 0, 1024)) >= 0)
-						out.write(buffer, 0, read);
+				// the CRC is needed to store the jar in the pack, so it is computed while the jar streams in
+				try (InputStream in = r.body().byteStream();
+					 HashingOutputStream out = PackBuilder.crc32(new BufferedOutputStream(Files.newOutputStream(file.toPath()), BUFFER_SIZE))) {
+					ByteStreams.copy(in, out);
+					out.flush();
+					PACK_BUILDER.addKnownCrc(file.toPath(), out.hash().padToLong());
 					System.out.println("Downloaded " + name);
 				}
+			} finally {
+				future.complete(null);
 			}
-
-			if(callbackCount.incrementAndGet() == requestCount)
-				Generator.finish();
-			response.close();
-			call.cancel();
 		}
 	}
 }
@@ -0,0 +1,169 @@
+package dev.lexoland.modpack;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Zips the generated pack directory into the final .mrpack in one pass. Entries are written in a fixed order
+ * with a fixed timestamp, so building the same files twice gives the same pack.
+ *
+ * <p>Files that are compressed already are stored instead of deflated again. Stored entries need their CRC32
+ * up front, those are computed in parallel before anything is written, unless they are known already from
+ * the download of the file.
+ */
+class PackBuilder {
+
+	private static final List<String> COMPRESSED_EXTENSIONS = Arrays.asList(".jar", ".zip", ".png", ".ogg", ".gz", ".mca");
+
+	// the earliest time a zip entry can hold, in local time like the zip format itself
+	private static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1).getTimeInMillis();
+
+	private final Path directory;
+	private final Map<Path, Long> knownCrcs = new ConcurrentHashMap<>();
+
+	PackBuilder(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Remembers the CRC32 of a file which was computed while it was written.
+	 */
+	void addKnownCrc(Path file, long crc) {
+		knownCrcs.put(file.toAbsolutePath().normalize(), crc);
+	}
+
+	/**
+	 * Writes the pack, replacing the output only once it is complete.
+	 *
+	 * @return the size and hashes of the written pack
+	 */
+	Result build(Path output) throws IOException {
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(directory)) {
+			files = walk.filter(Files::isRegularFile)
+					.sorted()
+					.collect(Collectors.toList());
+		}
+
+		Map<Path, Long> crcs = computeStoredCrcs(files);
+
+		Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+		Result result;
+
+		// Guava only offers SHA-1 deprecated, but Modrinth still wants it
+		MessageDigest sha1Digest;
+		try {
+			sha1Digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		try (CountingOutputStream counting = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+			 DigestOutputStream sha1 = new DigestOutputStream(counting, sha1Digest);
+			 HashingOutputStream sha512 = new HashingOutputStream(Hashing.sha512(), sha1)) {
+
+			ZipOutputStream out = new ZipOutputStream(sha512);
+
+			for (Path file : files) {
+				ZipEntry entry = new ZipEntry(entryName(file));
+				entry.setTime(ENTRY_TIME);
+
+				Long crc = crcs.get(file);
+				if (crc != null) {
+					long size = Files.size(file);
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(size);
+					entry.setCompressedSize(size);
+					entry.setCrc(crc);
+				}
+
+				out.putNextEntry(entry);
+				Files.copy(file, out);
+				out.closeEntry();
+			}
+			out.finish();
+			sha512.flush();
+
+			result = new Result(counting.getCount(), HashCode.fromBytes(sha1Digest.digest()), sha512.hash());
+		}
+
+		Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+		return result;
+	}
+
+	private Map<Path, Long> computeStoredCrcs(List<Path> files) throws IOException {
+		Map<Path, Long> crcs = new ConcurrentHashMap<>();
+
+		try {
+			files.parallelStream()
+					.filter(PackBuilder::isCompressed)
+					.forEach(file -> {
+						Long crc = knownCrcs.get(file.toAbsolutePath().normalize());
+						if (crc == null) {
+							try {
+								crc = com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.crc32()).padToLong();
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						}
+						crcs.put(file, crc);
+					});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return crcs;
+	}
+
+	private String entryName(Path file) {
+		return directory.relativize(file).toString().replace('\\', '/');
+	}
+
+	private static boolean isCompressed(Path file) {
+		String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+		return COMPRESSED_EXTENSIONS.stream().anyMatch(name::endsWith);
+	}
+
+	/**
+	 * Writes everything to the stream while computing the CRC32 of it.
+	 */
+	static HashingOutputStream crc32(OutputStream out) {
+		return new HashingOutputStream(Hashing.crc32(), out);
+	}
+
+	static class Result {
+
+		final long fileSize;
+		final HashCode sha1;
+		final HashCode sha512;
+
+		private Result(long fileSize, HashCode sha1, HashCode sha512) {
+			this.fileSize = fileSize;
+			this.sha1 = sha1;
+			this.sha512 = sha512;
+		}
+	}
+}
@@ -18,6 +18,17 @@ public class Config {
 	public static String projectId;
 	public static String authToken;
 	public static List<String> alwaysOverrideFiles = Collections.singletonList(".jar");
+	public static int downloadThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+	public static int maxConnectionsPerHost = 8;
+	public static String cacheDirectory;
+	public static long cacheMaxSize = 4L * 1024 * 1024 * 1024;
+	public static boolean differentialBackup = true;
+	public static long versionCheckMaxAge = 0;
+	public static int maxFps = 30;
+	public static String progressOutput = "auto";
+	public static boolean remotePackReading = true;
+	public static long stagingInterval = 0;
+	public static boolean verifyInstallation = true;
 
 	public static void load() {
 		if (!Updater.USER_CONFIG_FILE.exists())
@@ -31,6 +42,27 @@ public class Config {
 					config.has("alwaysOverrideFiles") ? config.get("alwaysOverrideFiles") : null,
 					new TypeToken<ArrayList<String>>() {}.getType()
 			);
+			if (config.has("downloadThreads"))
+				downloadThreads = Math.max(1, config.get("downloadThreads").getAsInt());
+			if (config.has("maxConnectionsPerHost"))
+				maxConnectionsPerHost = Math.max(1, config.get("maxConnectionsPerHost").getAsInt());
+			cacheDirectory = config.has("cacheDirectory") ? config.get("cacheDirectory").getAsString() : null;
+			if (config.has("cacheMaxSize"))
+				cacheMaxSize = config.get("cacheMaxSize").getAsLong();
+			if (config.has("differentialBackup"))
+				differentialBackup = config.get("differentialBackup").getAsBoolean();
+			if (config.has("versionCheckMaxAge"))
+				versionCheckMaxAge = config.get("versionCheckMaxAge").getAsLong();
+			if (config.has("maxFps"))
+				maxFps = Math.max(1, config.get("maxFps").getAsInt());
+			if (config.has("progressOutput"))
+				progressOutput = config.get("progressOutput").getAsString();
+			if (config.has("remotePackReading"))
+				remotePackReading = config.get("remotePackReading").getAsBoolean();
+			if (config.has("stagingInterval"))
+				stagingInterval = config.get("stagingInterval").getAsLong();
+			if (config.has("verifyInstallation"))
+				verifyInstallation = config.get("verifyInstallation").getAsBoolean();
 		} catch (Exception e) {
 			throw new RuntimeException("Failed to load updater config", e);
 		}
@@ -44,6 +76,17 @@ public class Config {
 		config.addProperty("projectId", projectId);
 		config.addProperty("authToken", authToken);
 		config.add("alwaysOverrideFiles", GSON.toJsonTree(alwaysOverrideFiles));
+		config.addProperty("downloadThreads", downloadThreads);
+		config.addProperty("maxConnectionsPerHost", maxConnectionsPerHost);
+		config.addProperty("cacheDirectory", cacheDirectory);
+		config.addProperty("cacheMaxSize", cacheMaxSize);
+		config.addProperty("differentialBackup", differentialBackup);
+		config.addProperty("versionCheckMaxAge", versionCheckMaxAge);
+		config.addProperty("maxFps", maxFps);
+		config.addProperty("progressOutput", progressOutput);
+		config.addProperty("remotePackReading", remotePackReading);
+		config.addProperty("stagingInterval", stagingInterval);
+		config.addProperty("verifyInstallation", verifyInstallation);
 
 		try(FileWriter writer = new FileWriter(Updater.USER_CONFIG_FILE)) {
 			GSON.toJson(config, writer);
@@ -22,14 +22,24 @@ public class UpdateRenderer extends JPanel {
 		UpdateRenderer.stage = stage;
 	}
 
+	/**
+	 * @return whether the current stage changed since it was last painted
+	 */
+	public static boolean needsRepaint() {
+		UpdateStage stage = UpdateRenderer.stage;
+		return stage != null && stage.needsRepaint();
+	}
+
 	@Override
 	public void paint(Graphics g) {
 		Graphics2D graphics = (Graphics2D) g;
 
+		UpdateStage stage = UpdateRenderer.stage;
 		if (stage == null)
 			return;
 
 		stage.setScreenSize(getWidth(), getHeight());
+		stage.prepareFrame();
 		stage.render(graphics);
 		paintComponents(g);
 	}
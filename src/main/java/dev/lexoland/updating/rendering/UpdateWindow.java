@@ -15,6 +15,7 @@ import javax.swing.*;
 public class UpdateWindow extends JFrame {
 
 	private static UpdateWindow instance;
+	private static Timer renderTimer;
 
 	private UpdateWindow(EnvType envType, String gameVersion, Runnable onFinish) {
 		super("Updating...");
@@ -51,12 +52,15 @@ public class UpdateWindow extends JFrame {
 		instance = new UpdateWindow(envType, gameVersion, onFinish);
 		instance.setVisible(true);
 
-		new Thread(() -> {
-			while (instance.isVisible()) {
+		// repaint at most maxFps times a second, and only if something changed
+		renderTimer = new Timer(1000 / Config.maxFps, e -> {
+			if (UpdateRenderer.needsRepaint()) {
 				instance.repaint();
 				Toolkit.getDefaultToolkit().sync();
 			}
-		}, "Render-Thread").start();
+		});
+		renderTimer.setCoalesce(true);
+		renderTimer.start();
 	}
 
 	public static UpdateWindow getInstance() {
@@ -64,6 +68,8 @@ public class UpdateWindow extends JFrame {
 	}
 
 	public static void close() {
+		if (renderTimer != null)
+			renderTimer.stop();
 		if (instance != null)
 			instance.dispose();
 	}
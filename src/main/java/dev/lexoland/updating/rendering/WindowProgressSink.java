@@ -0,0 +1,94 @@
+package dev.lexoland.updating.rendering;
+
+import java.awt.*;
+
+import javax.swing.*;
+
+import dev.lexoland.updating.rendering.stages.CreateBackupStage;
+import dev.lexoland.updating.rendering.stages.DownloadPackFilesStage;
+import dev.lexoland.updating.rendering.stages.DownloadPackMetaStage;
+import dev.lexoland.updating.rendering.stages.ExtractOverridesStage;
+import dev.lexoland.updating.rendering.stages.FinishUpStage;
+import dev.lexoland.updating.rendering.stages.RestoreBackupStage;
+import dev.lexoland.updating.rendering.stages.UpdateStage;
+import dev.lexoland.updating.updater.ProgressSink;
+import dev.lexoland.updating.updater.Updater;
+
+import net.fabricmc.api.EnvType;
+
+/**
+ * Shows the progress in the {@link UpdateWindow}. The stages poll the updater for their details while they are
+ * rendered, so only stage changes are handled here.
+ */
+public class WindowProgressSink implements ProgressSink {
+
+	private final Updater updater;
+	private final EnvType envType;
+	private final String gameVersion;
+
+	public WindowProgressSink(Updater updater, EnvType envType, String gameVersion) {
+		this.updater = updater;
+		this.envType = envType;
+		this.gameVersion = gameVersion;
+	}
+
+	@Override
+	public void open() {
+		// the project is already selected, so the window never needs to start the game itself
+		UpdateWindow.open(envType, gameVersion, null);
+	}
+
+	@Override
+	public void stage(Stage stage) {
+		UpdateRenderer.setStage(createStage(stage));
+	}
+
+	private UpdateStage createStage(Stage stage) {
+		switch (stage) {
+		case DOWNLOAD_PACK_META:
+			return new DownloadPackMetaStage(updater);
+		case CREATE_BACKUP:
+			return new CreateBackupStage(updater);
+		case DOWNLOAD_PACK_FILES:
+			return new DownloadPackFilesStage(updater);
+		case EXTRACT_OVERRIDES:
+			return new ExtractOverridesStage(updater);
+		case DELETE_INSTALLATION:
+			return new RestoreBackupStage(updater, false);
+		case RESTORE_BACKUP:
+			return new RestoreBackupStage(updater, true);
+		default:
+			throw new IllegalArgumentException("Unknown stage " + stage);
+		}
+	}
+
+	@Override
+	public void finishingUp(String message, int task, int totalTasks) {
+		UpdateRenderer.setStage(new FinishUpStage(updater, message, task, totalTasks));
+	}
+
+	@Override
+	public boolean updateFailed(Exception exception, boolean restoringBackup) {
+		Toolkit.getDefaultToolkit().beep();
+
+		String exceptionMessage = exception.getMessage() == null ? "" : exception.getMessage();
+		String message = restoringBackup
+				? "\n\nA backup of your previous installation will be restored.\nDo you want to start the game anyway after the\nrestore has been completed?"
+				: "\n\nDo you want to start the game anyway?";
+
+		int selection = JOptionPane.showConfirmDialog(
+				UpdateWindow.getInstance(),
+				exceptionMessage + message,
+				"Update Failed",
+				JOptionPane.YES_NO_OPTION,
+				JOptionPane.ERROR_MESSAGE
+		);
+
+		return selection != JOptionPane.NO_OPTION;
+	}
+
+	@Override
+	public void close() {
+		UpdateWindow.close();
+	}
+}
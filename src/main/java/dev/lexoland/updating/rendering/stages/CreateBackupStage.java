@@ -19,7 +19,7 @@ public class CreateBackupStage extends UpdateStage {
 		progressBar.renderProgressBar(
 				graphics, middleY() - PROGRESS_BAR_HEIGHT / 2,
 				(double) currentEntry() / totalEntries(),
-				"Zipping " + entryName(), null, currentEntry() + "/" + totalEntries()
+				entryName() == null ? "Checking installed files..." : "Backing up " + entryName(), null, currentEntry() + "/" + totalEntries()
 		);
 	}
 }
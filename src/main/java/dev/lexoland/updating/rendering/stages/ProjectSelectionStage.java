@@ -134,8 +134,19 @@ public class ProjectSelectionStage extends UpdateStage {
 	}
 
 	@Override
-	public void render(Graphics2D graphics) {
+	protected void renderStatic(Graphics2D graphics) {
 		renderGradientBackground(graphics, primaryColor, secondaryColor);
+	}
+
+	@Override
+	public boolean needsRepaint() {
+		// the error message counts down
+		return !errorMessage.isEmpty() || super.needsRepaint();
+	}
+
+	@Override
+	public void render(Graphics2D graphics) {
+		renderStaticLayer(graphics);
 
 		if(errorMessage.isEmpty())
 			return;
@@ -248,6 +259,7 @@ public class ProjectSelectionStage extends UpdateStage {
 		@Override
 		public void render(Graphics2D graphics) {
 			super.render(graphics);
+			animate();
 
 			int xOff = (screenWidth - GRID_SIZE * 2) / 2;
 			int yOff = (screenHeight - GRID_SIZE * 2) / 2;
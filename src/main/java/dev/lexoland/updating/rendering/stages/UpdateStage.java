@@ -5,6 +5,9 @@ import dev.lexoland.updating.updater.Updater;
 
 import java.awt.*;
 import java.awt.font.TextAttribute;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
 
 public class UpdateStage {
 
@@ -28,6 +31,10 @@ public class UpdateStage {
 	protected final Color primaryColor, secondaryColor;
 	protected int screenWidth, screenHeight;
 
+	private BufferedImage staticLayer;
+	private List<Object> renderedState;
+	private boolean animating;
+
 	public UpdateStage(Updater updater, String title) {
 		this(updater, title, DEFAULT_PRIMARY_BACKGROUND_COLOR, DEFAULT_SECONDARY_BACKGROUND_COLOR);
 	}
@@ -40,10 +47,70 @@ public class UpdateStage {
 	}
 
 	public void render(Graphics2D graphics) {
+		renderStaticLayer(graphics);
+	}
+
+	/**
+	 * Renders the parts of the stage which only depend on the screen size, they are drawn once into an image
+	 * and reused for every frame.
+	 */
+	protected void renderStatic(Graphics2D graphics) {
 		renderGradientBackground(graphics, primaryColor, secondaryColor);
 		renderTitle(graphics, title);
 	}
 
+	protected void renderStaticLayer(Graphics2D graphics) {
+		if (screenWidth <= 0 || screenHeight <= 0)
+			return;
+
+		if (staticLayer == null || staticLayer.getWidth() != screenWidth || staticLayer.getHeight() != screenHeight) {
+			staticLayer = new BufferedImage(screenWidth, screenHeight, BufferedImage.TYPE_INT_RGB);
+
+			Graphics2D layerGraphics = staticLayer.createGraphics();
+			layerGraphics.setRenderingHints(graphics.getRenderingHints());
+			renderStatic(layerGraphics);
+			layerGraphics.dispose();
+		}
+
+		graphics.drawImage(staticLayer, 0, 0, null);
+	}
+
+	/**
+	 * Remembers the state the next frame is rendered with, see {@link #needsRepaint()}.
+	 */
+	public void prepareFrame() {
+		renderedState = progressState();
+		animating = false;
+	}
+
+	/**
+	 * @return whether the progress changed or an animation is running since the last frame
+	 */
+	public boolean needsRepaint() {
+		return animating || !progressState().equals(renderedState);
+	}
+
+	/**
+	 * Marks the current frame as part of an animation, so the next one is rendered even without progress.
+	 */
+	protected void animate() {
+		animating = true;
+	}
+
+	/**
+	 * @return everything the stage renders from, if it changes the stage is rendered again
+	 */
+	protected List<Object> progressState() {
+		if (updater == null)
+			return Arrays.asList(screenWidth, screenHeight);
+
+		return Arrays.asList(
+				screenWidth, screenHeight,
+				updater.getDownloaded(), updater.getDownloadSize(), updater.getDownloadSpeed(),
+				updater.getCurrentEntry(), updater.getTotalEntries(), updater.getEntryName()
+		);
+	}
+
 	protected void renderGradientBackground(Graphics2D graphics, Color primaryColor, Color secondaryColor) {
 		graphics.setPaint(new LinearGradientPaint(
 				new Point(0, 0),
@@ -168,7 +235,13 @@ public class UpdateStage {
 			long now = System.currentTimeMillis();
 			if (smoothedProgress >= progress) {
 				smoothedProgress = progress;
-			} else smoothedProgress += 18 * (progress - smoothedProgress) * (now - lastTime) / 1000.0;
+			} else {
+				smoothedProgress += 18 * (progress - smoothedProgress) * (now - lastTime) / 1000.0;
+
+				if (progress - smoothedProgress < 0.001)
+					smoothedProgress = progress;
+				else animate();
+			}
 			lastTime = now;
 
 			// progress bar
@@ -1,20 +1,36 @@
 package dev.lexoland.updating.updater;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
+import dev.lexoland.updating.config.Config;
 
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
@@ -24,15 +40,21 @@ import static dev.lexoland.updating.updater.Updater.*;
 public class BackupHandler {
 
 	private static final File BACKUP_FILE = new File(UPDATER_DIR, "backup.zip");
+	private static final File BACKUP_DIR = new File(UPDATER_DIR, "backup");
 	private static final File INSTALLATION_INFO_FILE = new File(UPDATER_DIR, "installation-info.json");
 
 	private final InstallationInfo previousInstallationInfo = new InstallationInfo();
 	private final InstallationInfo newInstallationInfo = new InstallationInfo();
 
+	// files of a differential backup
+	private final Set<String> backedUpFiles = new LinkedHashSet<>();
+
 	private final Updater updater;
 
 	private boolean needsCleanup;
 	private boolean backupCreated;
+	// the update was committed or rolled back, until then the backup may still be needed
+	private boolean finished;
 
 	public BackupHandler(Updater updater) {
 		this.updater = updater;
@@ -46,47 +68,254 @@ public class BackupHandler {
 			JsonObject installationInfoObject = GSON.fromJson(reader, JsonObject.class);
 			previousInstallationInfo.versionNumber = installationInfoObject.get("version").getAsString();
 			previousInstallationInfo.files = GSON.fromJson(installationInfoObject.get("files"), new TypeToken<ArrayList<String>>() {}.getType());
+			if (installationInfoObject.has("hashes"))
+				previousInstallationInfo.hashes = GSON.fromJson(installationInfoObject.get("hashes"), new TypeToken<HashMap<String, FileStamp>>() {}.getType());
 		} catch (IOException e) {
 			throw new RuntimeException("Failed to load installation info.", e);
 		}
 	}
 
+	/**
+	 * Saves the installation info of the new version, which completes the update.
+	 */
 	void saveNewInstallationInfo() {
-		try (FileWriter writer = new FileWriter(INSTALLATION_INFO_FILE)) {
-			JsonObject installationInfoObject = new JsonObject();
-			installationInfoObject.addProperty("version", newInstallationInfo.versionNumber);
-			installationInfoObject.add("files", GSON.toJsonTree(newInstallationInfo.files));
-			GSON.toJson(installationInfoObject, writer);
+		try {
+			saveInstallationInfo(newInstallationInfo);
+
+			if (Config.differentialBackup)
+				InstallJournal.commit();
+
+			finished = true;
 		} catch (IOException e) {
 			throw new RuntimeException("Failed to save installation info.", e);
 		}
 	}
 
-	void createBackup() throws IOException {
+	/**
+	 * Records the hashes of installed files which were verified or repaired, so they are trusted again
+	 * by their size and modification time on the next start.
+	 */
+	void updateInstalledHashes(Map<File, String> hashes) {
+		for (Map.Entry<File, String> hash : hashes.entrySet())
+			previousInstallationInfo.hashes.put(hash.getKey().getPath(), FileStamp.of(hash.getKey(), hash.getValue()));
+
+		try {
+			saveInstallationInfo(previousInstallationInfo);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to save installation info.", e);
+		}
+	}
+
+	private static void saveInstallationInfo(InstallationInfo installationInfo) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(INSTALLATION_INFO_FILE)) {
+			JsonObject installationInfoObject = new JsonObject();
+			installationInfoObject.addProperty("version", installationInfo.versionNumber);
+			installationInfoObject.add("files", GSON.toJsonTree(installationInfo.files));
+			installationInfoObject.add("hashes", GSON.toJsonTree(installationInfo.hashes));
+
+			Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			GSON.toJson(installationInfoObject, writer);
+			writer.flush();
+
+			// the info has to be on disk before the journal says the update is complete
+			out.getFD().sync();
+		}
+	}
+
+	/**
+	 * Finishes an update that was interrupted by a crash. If it got as far as saving the new installation info
+	 * only the backup is left to clean up, otherwise the files it created are deleted and the files it
+	 * backed up are put back. Files that the journal doesn't mention are not touched.
+	 *
+	 * @return whether the installation is consistent again, otherwise the journal and backup are kept for the next start
+	 */
+	boolean recoverInterruptedUpdate() {
+		InstallJournal journal = InstallJournal.read();
+		if (journal == null) {
+			// a journal without records, nothing was changed yet
+			InstallJournal.delete();
+			return true;
+		}
+
+		if (!journal.isCommitted()) {
+			Log.warn(LogCategory.UPDATER, "The previous update was interrupted, rolling back %d changed files",
+					journal.createdFiles().size() + journal.backedUpFiles().size());
+
+			boolean rolledBack = true;
+
+			for (String path : journal.createdFiles()) {
+				try {
+					java.nio.file.Files.deleteIfExists(new File(path).toPath());
+				} catch (IOException e) {
+					Log.error(LogCategory.UPDATER, "Failed to delete '%s'.", path, e);
+					rolledBack = false;
+				}
+			}
+
+			if (!restoreFiles(journal.backedUpFiles()) || !rolledBack) {
+				Log.error(LogCategory.UPDATER, "Failed to roll back the previous update, keeping its backup for the next start");
+				return false;
+			}
+		} else {
+			Log.info(LogCategory.UPDATER, "The previous update was interrupted after it was installed");
+		}
+
+		Log.info(LogCategory.UPDATER, "Cleaning up...");
+		deleteBackup();
+		return true;
+	}
+
+	/**
+	 * Backs up the previous installation before it gets updated.
+	 *
+	 * @param overwrittenFiles files that will be replaced by the update
+	 * @param newFiles all files that belong to the new installation
+	 */
+	void createBackup(Collection<String> overwrittenFiles, Set<String> newFiles) throws IOException {
+		if (Config.differentialBackup)
+			createDifferentialBackup(overwrittenFiles, newFiles);
+		else
+			createFullBackup();
+	}
+
+	/**
+	 * Only snapshots the files the update is going to touch. Overwritten files are hardlinked and removed
+	 * files are moved into the backup directory, which works because the update always replaces files
+	 * instead of writing through them. Files that cannot be linked or moved end up as STORED entries
+	 * in the backup zip.
+	 *
+	 * <p>If the backup fails halfway, the files in {@link #backedUpFiles} are already in the backup and
+	 * have to be restored like after a failed update.
+	 */
+	private void createDifferentialBackup(Collection<String> overwrittenFiles, Set<String> newFiles) throws IOException {
 		needsCleanup = true;
 
-		updater.totalEntries = previousInstallationInfo.files.size() + 1;
-		updater.currentEntry = 0;
+		List<String> removedFiles = previousInstallationInfo.files.stream()
+				.filter(file -> !newFiles.contains(file))
+				.collect(Collectors.toList());
+
+		// everything that doesn't exist yet is deleted again on a rollback
+		List<String> createdFiles = newFiles.stream()
+				.filter(file -> !new File(file).exists())
+				.sorted()
+				.collect(Collectors.toList());
+		if (!INSTALLATION_INFO_FILE.exists())
+			createdFiles.add(INSTALLATION_INFO_FILE.getPath());
+
+		InstallJournal.begin(createdFiles);
+
+		updater.startEntries(overwrittenFiles.size() + removedFiles.size() + 1);
+
+		if (!BACKUP_DIR.exists())
+			BACKUP_DIR.mkdirs();
+
+		ZipOutputStream out = null;
+
+		try {
+			if (INSTALLATION_INFO_FILE.exists()) {
+				updater.setEntryName(INSTALLATION_INFO_FILE.getPath());
+
+				InstallJournal.backup(INSTALLATION_INFO_FILE.getPath());
+
+				// rewritten in place when the update finishes, so it needs a real copy
+				Path backupPath = backupPath(INSTALLATION_INFO_FILE.getPath());
+				java.nio.file.Files.createDirectories(backupPath.getParent());
+				java.nio.file.Files.copy(INSTALLATION_INFO_FILE.toPath(), backupPath, StandardCopyOption.REPLACE_EXISTING);
+				backedUpFiles.add(INSTALLATION_INFO_FILE.getPath());
+
+				updater.completeEntry();
+			}
+
+			for (String path : overwrittenFiles) {
+				updater.setEntryName(path);
+				out = backUpFile(path, false, out);
+				updater.completeEntry();
+			}
+
+			for (String path : removedFiles) {
+				updater.setEntryName(path);
+				out = backUpFile(path, true, out);
+				updater.completeEntry();
+			}
+		} finally {
+			updater.setEntryName(null);
+			if (out != null)
+				out.close();
+		}
+
+		Log.info(LogCategory.UPDATER, "Backed up %d changed files", backedUpFiles.size());
+		backupCreated = true;
+	}
+
+	private ZipOutputStream backUpFile(String path, boolean removed, ZipOutputStream out) throws IOException {
+		File file = new File(path);
+		if (!file.isFile() || backedUpFiles.contains(path))
+			return out;
+
+		InstallJournal.backup(path);
+
+		Path backupPath = backupPath(path);
+		java.nio.file.Files.createDirectories(backupPath.getParent());
+		java.nio.file.Files.deleteIfExists(backupPath);
+
+		try {
+			if (removed)
+				java.nio.file.Files.move(file.toPath(), backupPath);
+			else
+				java.nio.file.Files.createLink(backupPath, file.toPath());
+
+			backedUpFiles.add(path);
+			return out;
+		} catch (UnsupportedOperationException | FileSystemException e) {
+			Log.debug(LogCategory.UPDATER, "Cannot link '%s' into the backup, storing it instead", path);
+		}
+
+		if (out == null)
+			out = new ZipOutputStream(java.nio.file.Files.newOutputStream(BACKUP_FILE.toPath()));
+
+		// most pack files are already compressed jars, deflating them again is a waste of time
+		ZipEntry entry = new ZipEntry(path);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(file.length());
+		entry.setCompressedSize(file.length());
+		entry.setCrc(Files.asByteSource(file).hash(Hashing.crc32()).padToLong());
+
+		out.putNextEntry(entry);
+		Files.asByteSource(file).copyTo(out);
+		out.closeEntry();
+
+		backedUpFiles.add(path);
+		return out;
+	}
+
+	private static Path backupPath(String path) {
+		return BACKUP_DIR.toPath().resolve(path);
+	}
+
+	private void createFullBackup() throws IOException {
+		needsCleanup = true;
+
+		updater.startEntries(previousInstallationInfo.files.size() + 1);
 
 		if (!UPDATER_DIR.exists())
 			UPDATER_DIR.mkdirs();
 
 		try (ZipOutputStream out = new ZipOutputStream(java.nio.file.Files.newOutputStream(BACKUP_FILE.toPath()))) {
 			if (INSTALLATION_INFO_FILE.exists()) {
-				updater.entryName = INSTALLATION_INFO_FILE.getPath();
+				updater.setEntryName(INSTALLATION_INFO_FILE.getPath());
 
 				ZipEntry installationInfoEntry = new ZipEntry(INSTALLATION_INFO_FILE.getPath());
 				out.putNextEntry(installationInfoEntry);
 				Files.asByteSource(INSTALLATION_INFO_FILE).copyTo(out);
 				out.closeEntry();
 
-				updater.currentEntry++;
+				updater.completeEntry();
 			}
 
 			for (int i = 0; i < previousInstallationInfo.files.size(); i++) {
 				String installedFile = previousInstallationInfo.files.get(i);
 
-				updater.entryName = installedFile;
+				updater.setEntryName(installedFile);
 
 				File file = new File(installedFile);
 				if (!file.exists())
@@ -97,10 +326,10 @@ public class BackupHandler {
 				Files.asByteSource(file).copyTo(out);
 				out.closeEntry();
 
-				updater.currentEntry++;
+				updater.completeEntry();
 			}
 		} finally {
-			updater.entryName = null;
+			updater.setEntryName(null);
 		}
 		backupCreated = true;
 	}
@@ -114,21 +343,24 @@ public class BackupHandler {
 				.filter(File::exists)
 				.collect(Collectors.toList());
 
-		updater.totalEntries = toDelete.size();
-		updater.currentEntry = 0;
+		updater.startEntries(toDelete.size());
 
 		for (File file : toDelete) {
 			file.delete();
-			updater.currentEntry++;
+			updater.completeEntry();
 		}
 	}
 
 	void restoreBackup() {
+		if (Config.differentialBackup) {
+			finished = restoreDifferentialBackup();
+			return;
+		}
+
 		// restore backup
 
 		try (ZipFile zipFile = new ZipFile(BACKUP_FILE)) {
-			updater.totalEntries = zipFile.size();
-			updater.currentEntry = 0;
+			updater.startEntries(zipFile.size());
 
 			Enumeration<? extends ZipEntry> entries = zipFile.entries();
 
@@ -138,7 +370,7 @@ public class BackupHandler {
 				String entryName = entry.getName();
 
 				if (entry.isDirectory()) {
-					updater.currentEntry++;
+					updater.completeEntry();
 					continue;
 				}
 
@@ -148,23 +380,120 @@ public class BackupHandler {
 				if (parent != null && !parent.exists())
 					parent.mkdirs();
 
+				// replace instead of writing through the file, it may be hardlinked into the download cache
+				java.nio.file.Files.deleteIfExists(destination.toPath());
 				Files.asByteSink(destination).writeFrom(zipFile.getInputStream(entry));
 
-				updater.currentEntry++;
+				updater.completeEntry();
 			}
+
+			finished = true;
 		} catch (IOException e) {
 			Log.error(LogCategory.UPDATER, "Failed to restore backup.", e);
 		}
 	}
 
+	/**
+	 * Puts back exactly the files that were backed up by {@link #createDifferentialBackup}.
+	 */
+	private boolean restoreDifferentialBackup() {
+		return restoreFiles(backedUpFiles);
+	}
+
+	/**
+	 * Restores files from the backup directory, or from the backup zip if they couldn't be linked. Files
+	 * without a backup were never touched and are left alone.
+	 *
+	 * @return whether all files were restored
+	 */
+	private boolean restoreFiles(Collection<String> paths) {
+		updater.startEntries(paths.size());
+		boolean restored = true;
+
+		ZipFile zipFile = null;
+		if (BACKUP_FILE.exists()) {
+			try {
+				zipFile = new ZipFile(BACKUP_FILE);
+			} catch (IOException e) {
+				// only happens if the backup was interrupted, before any stored file was changed
+				Log.warn(LogCategory.UPDATER, "Failed to open backup zip.", e);
+			}
+		}
+
+		try {
+			for (String path : paths) {
+				updater.setEntryName(path);
+
+				File destination = new File(path);
+				File parent = destination.getParentFile();
+				if (parent != null && !parent.exists())
+					parent.mkdirs();
+
+				try {
+					Path backupPath = backupPath(path);
+					ZipEntry entry = zipFile == null ? null : zipFile.getEntry(path);
+
+					if (java.nio.file.Files.exists(backupPath)) {
+						java.nio.file.Files.move(backupPath, destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					} else if (entry != null) {
+						java.nio.file.Files.deleteIfExists(destination.toPath());
+						Files.asByteSink(destination).writeFrom(zipFile.getInputStream(entry));
+					}
+				} catch (IOException e) {
+					Log.error(LogCategory.UPDATER, "Failed to restore '%s' from the backup.", path, e);
+					restored = false;
+				}
+
+				updater.completeEntry();
+			}
+		} finally {
+			updater.setEntryName(null);
+			if (zipFile != null) {
+				try {
+					zipFile.close();
+				} catch (IOException e) {
+					Log.warn(LogCategory.UPDATER, "Failed to close backup zip.", e);
+				}
+			}
+		}
+
+		return restored;
+	}
+
+	/**
+	 * Deletes the backup once the update was committed or rolled back. A backup that wasn't restored completely
+	 * is kept together with the journal, so the next start can still roll back.
+	 */
 	void cleanUpBackup() {
 		Log.info(LogCategory.UPDATER, "Cleaning up...");
 
+		if (PACK_FILE.exists())
+			PACK_FILE.delete();
+
+		if (hasBackedUp() && !finished) {
+			Log.warn(LogCategory.UPDATER, "Keeping the backup, the update was neither completed nor rolled back");
+			return;
+		}
+
+		deleteBackup();
+	}
+
+	private static void deleteBackup() {
 		if (BACKUP_FILE.exists())
 			BACKUP_FILE.delete();
 
-		if (PACK_FILE.exists())
-			PACK_FILE.delete();
+		if (BACKUP_DIR.exists()) {
+			try (Stream<Path> files = java.nio.file.Files.walk(BACKUP_DIR.toPath())) {
+				files.sorted(Comparator.reverseOrder())
+						.map(Path::toFile)
+						.forEach(File::delete);
+			} catch (IOException e) {
+				Log.warn(LogCategory.UPDATER, "Failed to delete backup directory.", e);
+			}
+		}
+
+		// the last thing to go, a crash before this just cleans up again
+		InstallJournal.delete();
 	}
 
 	void deleteRemovedPackFiles() {
@@ -186,8 +515,39 @@ public class BackupHandler {
 		newInstallationInfo.files.add(path);
 	}
 
+	/**
+	 * Records the hash of an installed file, stamped with its current size and modification time.
+	 */
+	void addFileHash(File file, String sha512) {
+		newInstallationInfo.hashes.put(file.getPath(), FileStamp.of(file, sha512));
+	}
+
+	/**
+	 * @return the recorded hash of the file if it is unchanged since the previous installation, otherwise {@code null}
+	 */
+	String getTrustedHash(File file) {
+		FileStamp stamp = previousInstallationInfo.hashes.get(file.getPath());
+		if (stamp == null || !stamp.matches(file))
+			return null;
+		return stamp.sha512();
+	}
+
+	void addFileCrc(File file, long crc32) {
+		newInstallationInfo.hashes.put(file.getPath(), FileStamp.ofCrc(file, crc32));
+	}
+
+	Long getTrustedCrc(File file) {
+		FileStamp stamp = previousInstallationInfo.hashes.get(file.getPath());
+		if (stamp == null || !stamp.matches(file))
+			return null;
+		return stamp.crc32();
+	}
+
+	/**
+	 * @return whether anything was backed up, also if the backup failed halfway
+	 */
 	boolean hasBackedUp() {
-		return backupCreated;
+		return backupCreated || !backedUpFiles.isEmpty();
 	}
 
 	boolean needsCleanup() {
@@ -205,5 +565,6 @@ public class BackupHandler {
 	private static class InstallationInfo {
 		private String versionNumber = null;
 		private List<String> files = new ArrayList<>();
+		private Map<String, FileStamp> hashes = new ConcurrentHashMap<>();
 	}
 }
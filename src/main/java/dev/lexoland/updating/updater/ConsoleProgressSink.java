@@ -0,0 +1,146 @@
+package dev.lexoland.updating.updater;
+
+import java.util.Locale;
+
+import com.google.gson.JsonObject;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import static dev.lexoland.updating.updater.Updater.GSON;
+
+/**
+ * Reports the progress to the log, or as one JSON object per line to stdout. Used on dedicated servers and
+ * headless machines, so it must not touch AWT.
+ */
+class ConsoleProgressSink implements ProgressSink {
+
+	private static final long REPORT_INTERVAL = 1000;
+
+	private final boolean json;
+
+	private boolean opened;
+	private Stage stage;
+	private long lastEntryReport;
+
+	ConsoleProgressSink(boolean json) {
+		this.json = json;
+	}
+
+	@Override
+	public synchronized void open() {
+		opened = true;
+
+		if (json)
+			print(event("open"));
+	}
+
+	@Override
+	public synchronized void stage(Stage stage) {
+		this.stage = stage;
+		this.lastEntryReport = 0;
+
+		if (json) {
+			JsonObject event = event("stage");
+			event.addProperty("stage", stageName());
+			print(event);
+		}
+	}
+
+	@Override
+	public void finishingUp(String message, int task, int totalTasks) {
+		if (json) {
+			JsonObject event = event("finishing_up");
+			event.addProperty("message", message);
+			event.addProperty("task", task);
+			event.addProperty("total", totalTasks);
+			print(event);
+		} else {
+			Log.info(LogCategory.UPDATER, "[%d/%d] %s", task, totalTasks, message);
+		}
+	}
+
+	@Override
+	public synchronized void entryProgress(int current, int total, String entryName) {
+		long now = System.currentTimeMillis();
+		if (current < total && now - lastEntryReport < REPORT_INTERVAL)
+			return;
+		lastEntryReport = now;
+
+		if (json) {
+			JsonObject event = event("entries");
+			event.addProperty("stage", stageName());
+			event.addProperty("current", current);
+			event.addProperty("total", total);
+			event.addProperty("entry", entryName);
+			print(event);
+		} else {
+			Log.info(LogCategory.UPDATER, "%s: %d/%d%s", stageName(), current, total, entryName == null ? "" : " " + entryName);
+		}
+	}
+
+	@Override
+	public void downloadProgress(long downloaded, long downloadSize, long speed) {
+		// already throttled by the download handler, which reports once per speed sample
+		if (json) {
+			JsonObject event = event("download");
+			event.addProperty("downloaded", downloaded);
+			event.addProperty("size", downloadSize);
+			event.addProperty("speed", speed);
+			print(event);
+		} else {
+			Log.info(LogCategory.UPDATER, "Downloaded %s/%s (%s/s)", formatBytes(downloaded), formatBytes(downloadSize), formatBytes(speed));
+		}
+	}
+
+	@Override
+	public boolean updateFailed(Exception exception, boolean restoringBackup) {
+		if (json) {
+			JsonObject event = event("failed");
+			event.addProperty("message", exception.getMessage());
+			event.addProperty("restoringBackup", restoringBackup);
+			print(event);
+		}
+
+		// nobody to ask, start with whatever is installed
+		return true;
+	}
+
+	@Override
+	public synchronized void close() {
+		// the sink is closed even if the check ended before it was opened
+		if (!opened)
+			return;
+		opened = false;
+
+		if (json)
+			print(event("close"));
+	}
+
+	private String stageName() {
+		return stage == null ? "check" : stage.name().toLowerCase(Locale.ROOT);
+	}
+
+	private JsonObject event(String type) {
+		JsonObject event = new JsonObject();
+		event.addProperty("event", type);
+		event.addProperty("time", System.currentTimeMillis());
+		return event;
+	}
+
+	private void print(JsonObject event) {
+		String line = GSON.toJson(event);
+
+		synchronized (System.out) {
+			System.out.println(line);
+		}
+	}
+
+	private static String formatBytes(long bytes) {
+		if (bytes >= 1_000_000)
+			return String.format(Locale.ROOT, "%.2f MB", (float) bytes / 1_000_000);
+		if (bytes > 1_000)
+			return String.format(Locale.ROOT, "%.2f KB", (float) bytes / 1_000);
+		return bytes + "b";
+	}
+}
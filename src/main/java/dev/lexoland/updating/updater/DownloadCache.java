@@ -0,0 +1,232 @@
+package dev.lexoland.updating.updater;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+
+import dev.lexoland.updating.config.Config;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * A content-addressed store of pack files keyed by their sha512 hash, which can be shared
+ * between several instances on the same host. All access is guarded by a lock file in the
+ * store directory, so multiple processes can use the same store at once.
+ *
+ * <p>Entries are hardlinked into place where the filesystem allows it and copied otherwise.
+ * The last use of an entry is tracked through a separate marker file, because touching the
+ * entry itself would also change the modification time of every installation linked to it.
+ */
+public class DownloadCache {
+
+	private static final String LOCK_FILE_NAME = ".lock";
+	private static final String USED_MARKER_SUFFIX = ".used";
+
+	private final Path directory;
+	private final long maxSize;
+
+	DownloadCache(Path directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	static DownloadCache fromConfig() {
+		if (Config.cacheDirectory == null || Config.cacheDirectory.isEmpty())
+			return null;
+		return new DownloadCache(Paths.get(Config.cacheDirectory), Config.cacheMaxSize);
+	}
+
+	/**
+	 * Links or copies the cached file with the given hash to the destination. The entry is hashed first,
+	 * because it is shared through hardlinks and may have been written to or corrupted since it was stored.
+	 *
+	 * @return whether the file was found in the cache, matched its hash and was installed
+	 */
+	boolean install(String sha512, long expectedSize, File destination) {
+		Path entry = entryPath(sha512);
+
+		try {
+			return locked(() -> {
+				if (!Files.isRegularFile(entry))
+					return false;
+
+				if (expectedSize > 0 && Files.size(entry) != expectedSize
+						|| !MoreFiles.asByteSource(entry).hash(Hashing.sha512()).toString().equalsIgnoreCase(sha512)) {
+					Log.warn(LogCategory.UPDATER, "Dropping corrupt cache entry %s", sha512);
+					Files.delete(entry);
+					Files.deleteIfExists(usedMarker(entry));
+					return false;
+				}
+
+				Path target = destination.toPath();
+				Path parent = target.toAbsolutePath().getParent();
+				if (parent != null)
+					Files.createDirectories(parent);
+
+				// never write through an existing file, it may be linked to another cache entry
+				Files.deleteIfExists(target);
+				linkOrCopy(entry, target);
+				markUsed(entry);
+				return true;
+			});
+		} catch (IOException e) {
+			Log.warn(LogCategory.UPDATER, "Failed to install '%s' from the download cache", destination, e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return whether a file with the given hash is in the cache
+	 */
+	boolean contains(String sha512) {
+		return Files.isRegularFile(entryPath(sha512));
+	}
+
+	/**
+	 * Adds a downloaded file to the cache, unless it is already present.
+	 */
+	void store(String sha512, File file) {
+		if (sha512 == null)
+			return;
+		Path entry = entryPath(sha512);
+
+		try {
+			locked(() -> {
+				if (Files.isRegularFile(entry)) {
+					markUsed(entry);
+					return true;
+				}
+
+				Files.createDirectories(entry.getParent());
+
+				Path temp = entry.resolveSibling(entry.getFileName() + ".tmp");
+				Files.deleteIfExists(temp);
+				linkOrCopy(file.toPath(), temp);
+				Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+				markUsed(entry);
+				return true;
+			});
+		} catch (IOException e) {
+			Log.warn(LogCategory.UPDATER, "Failed to store '%s' in the download cache", file, e);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the cache fits into its size limit.
+	 */
+	void evict() {
+		try {
+			locked(() -> {
+				List<Path> entries = listEntries();
+
+				long size = 0;
+				for (Path entry : entries)
+					size += Files.size(entry);
+
+				if (size <= maxSize)
+					return true;
+
+				entries.sort(Comparator.comparing(this::lastUsed));
+
+				for (Path entry : entries) {
+					if (size <= maxSize)
+						break;
+
+					long entrySize = Files.size(entry);
+					Files.delete(entry);
+					Files.deleteIfExists(usedMarker(entry));
+					size -= entrySize;
+				}
+
+				Log.info(LogCategory.UPDATER, "Evicted download cache entries, %d bytes remaining", size);
+				return true;
+			});
+		} catch (IOException e) {
+			Log.warn(LogCategory.UPDATER, "Failed to evict download cache entries", e);
+		}
+	}
+
+	private List<Path> listEntries() throws IOException {
+		if (!Files.isDirectory(directory))
+			return new ArrayList<>();
+
+		try (Stream<Path> files = Files.walk(directory, 2)) {
+			return files.filter(Files::isRegularFile)
+					.filter(path -> path.getParent() != null && !path.getParent().equals(directory))
+					.filter(path -> {
+						String name = path.getFileName().toString();
+						return !name.endsWith(USED_MARKER_SUFFIX) && !name.endsWith(".tmp");
+					})
+					.collect(Collectors.toList());
+		}
+	}
+
+	private FileTime lastUsed(Path entry) {
+		try {
+			Path marker = usedMarker(entry);
+			return Files.getLastModifiedTime(Files.exists(marker) ? marker : entry);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	private void markUsed(Path entry) throws IOException {
+		Path marker = usedMarker(entry);
+		if (!Files.exists(marker))
+			Files.createFile(marker);
+		Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
+	}
+
+	private Path usedMarker(Path entry) {
+		return entry.resolveSibling(entry.getFileName() + USED_MARKER_SUFFIX);
+	}
+
+	private Path entryPath(String sha512) {
+		String hash = sha512.toLowerCase();
+		return directory.resolve(hash.substring(0, 2)).resolve(hash);
+	}
+
+	private synchronized boolean locked(CacheAction action) throws IOException {
+		Files.createDirectories(directory);
+
+		try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			FileLock lock = channel.lock();
+
+			try {
+				return action.run();
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	static void linkOrCopy(Path source, Path target) throws IOException {
+		try {
+			Files.createLink(target, source);
+		} catch (UnsupportedOperationException | FileSystemException e) {
+			// different file stores or no hardlink support
+			Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private interface CacheAction {
+		boolean run() throws IOException;
+	}
+}
@@ -4,13 +4,36 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.google.common.hash.HashCode;
+import dev.lexoland.updating.config.Config;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Protocol;
@@ -26,22 +49,57 @@ public class DownloadHandler {
 
 	private static final String MR_ENDPOINT = "https://api.modrinth.com/v2";
 
+	private static final int BUFFER_SIZE = 128 * 1024;
+
+	static final String PART_FILE_SUFFIX = ".part";
+
 	private final OkHttpClient client;
+	private final ProgressSink progressSink;
+	private final ExecutorService workers;
+	private final ScheduledExecutorService retries;
 
-	private final BlockingQueue<FileDownload> fileDownloads = new LinkedBlockingQueue<>();
+	// buffers are handed between the download workers, so at most one per worker is ever allocated
+	private final BlockingQueue<byte[]> buffers;
+	private final BlockingQueue<FileDownload> finishedDownloads = new LinkedBlockingQueue<>();
 
-	private FileDownload currentDownload;
+	private volatile FileDownload currentDownload;
 
 	private boolean downloading = false;
 
-	private long downloadSpeedTimestamp = 0;
-	private long downloadSpeedCounter = 0;
-	private long downloadSpeed = 0;
+	// striped, so the workers don't contend on a single counter for every buffer they write
+	private final LongAdder downloaded = new LongAdder();
+	private final LongAdder downloadSize = new LongAdder();
+	private final ThroughputMeter downloadSpeed = new ThroughputMeter();
+	private final AtomicLong lastProgressReport = new AtomicLong();
+
+	private final HostStats hostStats = new HostStats();
 
 	private int enqueued = 0;
 
 	public DownloadHandler(String authToken) {
-		this.client = createHttpClient(authToken);
+		this(authToken, ProgressSink.NONE);
+	}
+
+	public DownloadHandler(String authToken, ProgressSink progressSink) {
+		this.progressSink = progressSink;
+		int threads = Config.downloadThreads;
+
+		this.workers = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+		this.buffers = new ArrayBlockingQueue<>(threads);
+		this.retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Download-Retry");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		Dispatcher dispatcher = new Dispatcher(workers);
+		dispatcher.setMaxRequests(threads);
+		dispatcher.setMaxRequestsPerHost(Config.maxConnectionsPerHost);
+
+		this.client = createHttpClient(authToken).newBuilder()
+				.dispatcher(dispatcher)
+				.connectionPool(new ConnectionPool(threads, 5, TimeUnit.MINUTES))
+				.build();
 	}
 
 	public static OkHttpClient createHttpClient(String authToken) {
@@ -54,114 +112,317 @@ public class DownloadHandler {
 					if (authToken != null && !authToken.isEmpty())
 						builder.addHeader("Authorization", authToken);
 					return chain.proceed(builder.build());
-				}).build();
+				})
+				.addInterceptor(RateLimiter.MODRINTH)
+				.build();
 	}
 
 	void close() {
-		client.dispatcher().executorService().shutdown();
+		client.dispatcher().cancelAll();
+		workers.shutdown();
+		retries.shutdownNow();
 		client.connectionPool().evictAll();
 	}
 
-	Response requestVersion(String projectId, String gameVersion) throws IOException {
-		Request request = new Request.Builder()
+	/**
+	 * Requests the versions of a project, conditionally if validators of an earlier response are given.
+	 * The response is either successful or 304 Not Modified.
+	 */
+	Response requestVersion(String projectId, String gameVersion, String etag, String lastModified) throws IOException {
+		Request.Builder request = new Request.Builder()
 				.url(MR_ENDPOINT + "/project/" + projectId + "/version?loaders=[\"fabric\"]&game_versions=[\"" + gameVersion + "\"]")
+				.get();
+
+		if (etag != null)
+			request.header("If-None-Match", etag);
+		if (lastModified != null)
+			request.header("If-Modified-Since", lastModified);
+
+		Response response = client.newCall(request.build()).execute();
+
+		if (response.code() == 304)
+			return response;
+		if (!response.isSuccessful()) {
+			response.close();
+			throw new IOException("Unexpected code " + response);
+		}
+		return response;
+	}
+
+	/**
+	 * Requests a range of a file, e.g. {@code 0-99} for the first or {@code -100} for the last hundred bytes.
+	 *
+	 * @throws IOException if the server does not answer with the requested range
+	 */
+	Response requestRange(HttpUrl url, String range) throws IOException {
+		Request request = new Request.Builder()
+				.url(url)
+				.header("Range", "bytes=" + range)
 				.get()
 				.build();
 
 		Response response = client.newCall(request).execute();
 
-		if (!response.isSuccessful())
-			throw new IOException("Unexpected code " + response);
+		if (response.code() != 206) {
+			response.close();
+			throw new IOException("Range request not supported, got " + response);
+		}
 		return response;
 	}
 
-	void requestFileDownload(String fileName, File packFile, HttpUrl downloadUrl) {
+	void requestFileDownload(String fileName, File destination, HttpUrl downloadUrl, long expectedSize, String sha512, String sha1) {
+		requestFileDownload(fileName, destination, Collections.singletonList(downloadUrl), expectedSize, sha512, sha1);
+	}
+
+	/**
+	 * Enqueues a download that may be served by any of the given mirrors. The mirror is picked by the measured
+	 * throughput and failures of its host, and switched when it fails or turns out to be much slower than another.
+	 * Downloads start in the order they are enqueued.
+	 */
+	void requestFileDownload(String fileName, File destination, List<HttpUrl> downloadUrls, long expectedSize, String sha512, String sha1) {
 		if(downloading)
 			throw new IllegalStateException("Cannot enqueue downloads while downloading");
-		Request request = new Request.Builder()
-				.url(downloadUrl)
-				.get()
-				.build();
+		if (expectedSize > 0)
+			downloadSize.add(expectedSize);
 
 		enqueued++;
-		client.newCall(request).enqueue(new CallbackHandler(fileName, packFile));
+		new CallbackHandler(fileName, destination, hostStats.order(downloadUrls), expectedSize, sha512, sha1).enqueue();
 	}
 
-	void downloadEnqueuedFiles(Runnable callback) throws IOException {
+	/**
+	 * Waits for all enqueued downloads to be written to disk. The responses are drained
+	 * concurrently by the download workers, the callback is run on the calling thread
+	 * once for every finished file.
+	 */
+	void downloadEnqueuedFiles(Consumer<FileDownload> callback) throws IOException {
 		if (downloading)
 			throw new IllegalStateException("Already downloading");
 		downloading = true;
-		while (enqueued > 0 || !fileDownloads.isEmpty()) {
-			try {
-				currentDownload = fileDownloads.take();
-				currentDownload.start();
-				callback.run();
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
+		try {
+			while (enqueued > 0) {
+				FileDownload download = finishedDownloads.take();
+				enqueued--;
+
+				if (download.failure != null)
+					throw new IOException("Failed to download '" + download.fileName + "'", download.failure);
+				callback.accept(download);
 			}
+			hostStats.log();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			downloading = false;
+			enqueued = 0;
+			finishedDownloads.clear();
+			downloaded.reset();
+			downloadSize.reset();
+			downloadSpeed.reset();
 		}
-		downloading = false;
-		enqueued = 0;
 	}
 
 	FileDownload currentDownload() {
 		return currentDownload;
 	}
 
+	long downloaded() {
+		return downloaded.sum();
+	}
+
+	long downloadSize() {
+		return downloadSize.sum();
+	}
+
 	long downloadSpeed() {
-		return downloadSpeed;
+		return downloadSpeed.perSecond();
+	}
+
+	private void countDownloaded(int bytes) {
+		downloaded.add(bytes);
+		downloadSpeed.record(bytes);
+
+		// at most once per second, the worker that wins the race reports
+		long now = System.currentTimeMillis();
+		long lastReport = lastProgressReport.get();
+		if (now - lastReport >= 1000 && lastProgressReport.compareAndSet(lastReport, now))
+			progressSink.downloadProgress(downloaded(), downloadSize(), downloadSpeed());
 	}
 
 	class FileDownload {
 
 		private final String fileName;
 		private final File destination;
+		private final String sha512;
+		private final String sha1;
 		private final ResponseBody responseBody;
+		private final long offset;
+		private final HttpUrl url;
+		private final List<HttpUrl> mirrors;
+
+		private volatile long downloadSize = -1;
+		private volatile long downloaded = 0;
+
+		private IOException failure;
 
-		private long downloadSize = -1;
-		private long downloaded = 0;
+		public FileDownload(String fileName, File destination, String sha512, String sha1, ResponseBody body, long offset) {
+			this(fileName, destination, sha512, sha1, body, offset, null, Collections.emptyList());
+		}
 
-		public FileDownload(String fileName, File destination, ResponseBody body) {
+		public FileDownload(String fileName, File destination, String sha512, String sha1, ResponseBody body, long offset, HttpUrl url, List<HttpUrl> mirrors) {
 			this.fileName = fileName;
 			this.destination = destination;
+			this.sha512 = sha512;
+			this.sha1 = sha1;
 			this.responseBody = body;
+			this.offset = offset;
+			this.url = url;
+			this.mirrors = mirrors;
 		}
 
+		/**
+		 * Streams the response into the part file, appending to the bytes already on disk if the
+		 * response continues a previous transfer at {@link #offset}.
+		 */
 		public void start() throws IOException {
 			File parent = destination.getParentFile();
 			if (parent != null && !parent.exists())
-				if(!parent.mkdirs())
+				if(!parent.mkdirs() && !parent.isDirectory())
 					throw new IOException("Failed to create directory " + parent);
 
-			Log.info(LogCategory.UPDATER, "Downloading '%s'...", fileName);
-			downloaded = 0;
-			downloadSize = responseBody.contentLength();
+			Log.info(LogCategory.UPDATER, offset > 0 ? "Resuming download of '%s'..." : "Downloading '%s'...", fileName);
+			currentDownload = this;
+			downloaded = offset;
+			downloadSize = responseBody.contentLength() < 0 ? -1 : offset + responseBody.contentLength();
+			DownloadHandler.this.downloaded.add(offset);
 
-			InputStream in = responseBody.byteStream();
-			try (FileOutputStream out = new FileOutputStream(destination)) {
-				byte[] buffer = new byte[1024];
-				int read;
+			byte[] buffer = buffers.poll();
+			if (buffer == null)
+				buffer = new byte[BUFFER_SIZE];
 
-				while ((read = in.read(buffer, 0, 1024)) != -1) {
-					out.write(buffer, 0, read);
-					downloaded += read;
-					downloadSpeedCounter += read;
+			// the file is only moved into place once it is complete and verified, which also never
+			// writes through the old file, as it may be hardlinked into the download cache
+			Path partFile = partFile(destination);
+			MessageDigest digest = createDigest();
 
-					long now = System.currentTimeMillis();
-					if (now - downloadSpeedTimestamp > 1000) {
-						downloadSpeedTimestamp = now;
-						downloadSpeed = downloadSpeedCounter;
-						downloadSpeedCounter = 0;
+			long startTime = System.currentTimeMillis();
+			long nextRateCheck = startTime + HostStats.SLOW_TRANSFER_GRACE_MILLIS;
+
+			try {
+				if (offset > 0 && digest != null)
+					digestPartFile(partFile, digest, buffer);
+
+				try (InputStream in = responseBody.byteStream();
+					 FileOutputStream out = new FileOutputStream(partFile.toFile(), offset > 0)) {
+					int read;
+
+					while ((read = in.read(buffer)) != -1) {
+						out.write(buffer, 0, read);
+						if (digest != null)
+							digest.update(buffer, 0, read);
+						downloaded += read;
+						countDownloaded(read);
+
+						long now = System.currentTimeMillis();
+						if (mirrors.size() > 1 && now >= nextRateCheck) {
+							nextRateCheck = now + 1000;
+							checkTransferRate(now - startTime);
+						}
 					}
 				}
+			} catch (IOException e) {
+				// keep the part file, the retry continues where this transfer stopped
+				DownloadHandler.this.downloaded.add(-downloaded);
+				throw e;
+			} finally {
+				buffers.offer(buffer);
+			}
+
+			if (url != null)
+				hostStats.recordTransfer(url.host(), downloaded - offset, System.currentTimeMillis() - startTime);
+
+			if (digest != null) {
+				String expectedHash = sha512 != null ? sha512 : sha1;
+				String actualHash = HashCode.fromBytes(digest.digest()).toString();
+
+				if (!actualHash.equalsIgnoreCase(expectedHash)) {
+					discard(partFile);
+					throw new IOException("Hash mismatch for '" + fileName + "', expected " + expectedHash + " but got " + actualHash);
+				}
+			}
+
+			try {
+				Files.move(partFile, destination.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(partFile, destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
 			}
 			Log.info(LogCategory.UPDATER, "Finished downloading '%s'", fileName);
 		}
 
+		/**
+		 * Gives up on the transfer if another mirror is known to be a lot faster than this one. Only worth it if
+		 * a good part of the file is still missing, as the part file is resumed from the other mirror.
+		 */
+		private void checkTransferRate(long elapsed) throws SlowTransferException {
+			long transferred = downloaded - offset;
+			long remaining = downloadSize - downloaded;
+			if (downloadSize < 0 || remaining < BUFFER_SIZE * 8L)
+				return;
+
+			long bytesPerSecond = transferred * 1000 / Math.max(elapsed, 1);
+			if (hostStats.hasFasterAlternative(url.host(), bytesPerSecond, mirrors)) {
+				hostStats.recordTransfer(url.host(), transferred, elapsed);
+				throw new SlowTransferException("Transfer of '" + fileName + "' from " + url.host() + " is too slow (" + bytesPerSecond / 1000 + " KB/s)");
+			}
+		}
+
+		private MessageDigest createDigest() throws IOException {
+			try {
+				if (sha512 != null)
+					return MessageDigest.getInstance("SHA-512");
+				if (sha1 != null)
+					return MessageDigest.getInstance("SHA-1");
+				return null;
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException(e);
+			}
+		}
+
+		private void digestPartFile(Path partFile, MessageDigest digest, byte[] buffer) throws IOException {
+			try (InputStream in = Files.newInputStream(partFile)) {
+				long remaining = offset;
+				int read;
+
+				while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+					digest.update(buffer, 0, read);
+					remaining -= read;
+				}
+
+				if (remaining > 0)
+					throw new IOException("Part file of '" + fileName + "' is shorter than the resumed offset");
+			}
+		}
+
+		private void discard(Path partFile) {
+			// the retry starts from zero again, so take the partial transfer out of the total
+			DownloadHandler.this.downloaded.add(-downloaded);
+			try {
+				Files.deleteIfExists(partFile);
+			} catch (IOException e) {
+				Log.warn(LogCategory.UPDATER, "Failed to delete partial download '%s'", partFile, e);
+			}
+		}
+
 		public String fileName() {
 			return fileName;
 		}
 
+		public File destination() {
+			return destination;
+		}
+
+		public String sha512() {
+			return sha512;
+		}
+
 		public long downloadSize() {
 			return downloadSize;
 		}
@@ -177,36 +438,203 @@ public class DownloadHandler {
 
 		private final String fileName;
 		private final File destination;
+		private final List<HttpUrl> downloadUrls;
+		private final long expectedSize;
+		private final String sha512;
+		private final String sha1;
+
+		// strong validator of the transfer the part file belongs to, used for If-Range
+		private volatile String validator;
 
 		private int tries = 0;
+		private volatile int mirror = 0;
+		private int slowSwitches = 0;
 
-		public CallbackHandler(String fileName, File destination) {
+		public CallbackHandler(String fileName, File destination, List<HttpUrl> downloadUrls, long expectedSize, String sha512, String sha1) {
 			this.fileName = fileName;
 			this.destination = destination;
+			this.downloadUrls = downloadUrls;
+			this.expectedSize = expectedSize;
+			this.sha512 = sha512;
+			this.sha1 = sha1;
+		}
+
+		void enqueue() {
+			Request.Builder request = new Request.Builder()
+					.url(downloadUrls.get(mirror))
+					.get();
+
+			File partFile = partFile(destination).toFile();
+			long offset = partFile.length();
+
+			if (offset > 0) {
+				if (validator != null) {
+					request.header("Range", "bytes=" + offset + "-");
+					request.header("If-Range", validator);
+				} else if (sha512 != null || sha1 != null) {
+					// left over from an earlier launch, resuming is safe as the result gets verified
+					request.header("Range", "bytes=" + offset + "-");
+				} else if (!partFile.delete()) {
+					Log.warn(LogCategory.UPDATER, "Failed to delete stale partial download '%s'", partFile);
+				}
+			}
+
+			client.newCall(request.build()).enqueue(this);
 		}
 
 		@Override
 		public void onFailure(@NotNull Call call, @NotNull IOException e) {
-			if (tries++ < MAX_TRIES) {
-				call.clone().enqueue(this);
-				Log.warn(LogCategory.UPDATER, "Failed to download file: " + call.request().url() + ", retrying...", e);
+			if (call.isCanceled())
 				return;
-			}
-			enqueued--;
-			Log.error(LogCategory.UPDATER, "Failed to download file: " + call.request().url(), e);
+			retryOrFail(call, e);
 		}
 
 		@Override
-		public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
-			if (!response.isSuccessful()) {
-				if (tries++ < MAX_TRIES) {
-					call.clone().enqueue(this);
+		public void onResponse(@NotNull Call call, @NotNull Response response) {
+			// this runs on one of the download workers, so the body is drained right here
+			try (Response r = response) {
+				if (r.code() == 416) {
+					// the part file does not fit the remote file anymore
+					Files.deleteIfExists(partFile(destination));
+					retryOrFail(call, new IOException("Unexpected code " + r));
+					return;
+				}
+
+				if (!r.isSuccessful()) {
+					retryOrFail(call, new IOException("Unexpected code " + r), RateLimiter.retryAfter(r));
 					return;
 				}
-				throw new IOException("Unexpected code " + response);
+
+				long offset = 0;
+				if (r.code() == 206) {
+					offset = contentRangeStart(r.header("Content-Range"));
+					if (offset != partFile(destination).toFile().length()) {
+						Files.deleteIfExists(partFile(destination));
+						retryOrFail(call, new IOException("Unexpected content range " + r.header("Content-Range")));
+						return;
+					}
+				}
+
+				validator = strongValidator(r);
+
+				long contentLength = r.body().contentLength();
+				if (expectedSize <= 0 && contentLength > 0)
+					downloadSize.add(offset + contentLength);
+
+				// don't bounce between mirrors forever if their speeds keep changing
+				List<HttpUrl> mirrors = slowSwitches < downloadUrls.size() ? downloadUrls : Collections.emptyList();
+
+				FileDownload download = new FileDownload(fileName, destination, sha512, sha1, r.body(), offset, call.request().url(), mirrors);
+				try {
+					download.start();
+				} catch (SlowTransferException e) {
+					if (expectedSize <= 0 && contentLength > 0)
+						downloadSize.add(-(offset + contentLength));
+					Log.info(LogCategory.UPDATER, "%s, switching mirror", e.getMessage());
+					slowSwitches++;
+					switchMirror();
+					enqueue();
+					return;
+				} catch (IOException e) {
+					if (expectedSize <= 0 && contentLength > 0)
+						downloadSize.add(-(offset + contentLength));
+					retryOrFail(call, e);
+					return;
+				}
+				finishedDownloads.add(download);
+			} catch (IOException e) {
+				retryOrFail(call, e);
 			}
-			fileDownloads.add(new FileDownload(fileName, destination, response.body()));
-			enqueued--;
+		}
+
+		private void retryOrFail(Call call, IOException e) {
+			retryOrFail(call, e, 0);
+		}
+
+		/**
+		 * @param retryAfter the minimum delay before the next try the server asked for, in milliseconds
+		 */
+		private void retryOrFail(Call call, IOException e, long retryAfter) {
+			hostStats.recordFailure(call.request().url().host());
+
+			// every mirror gets at least one chance
+			if (tries++ < Math.max(MAX_TRIES, downloadUrls.size())) {
+				Log.warn(LogCategory.UPDATER, "Failed to download file: " + call.request().url() + ", retrying...", e);
+				switchMirror();
+
+				// jittered, so the downloads that failed together don't retry together
+				long delay = Math.max(RateLimiter.backoff(tries), retryAfter);
+				try {
+					retries.schedule(this::enqueue, delay, TimeUnit.MILLISECONDS);
+				} catch (RejectedExecutionException ignored) {
+					// closed while retrying
+				}
+				return;
+			}
+			Log.error(LogCategory.UPDATER, "Failed to download file: " + call.request().url(), e);
+
+			FileDownload download = new FileDownload(fileName, destination, sha512, sha1, null, 0);
+			download.failure = e;
+			finishedDownloads.add(download);
+		}
+
+		private void switchMirror() {
+			if (downloadUrls.size() < 2)
+				return;
+
+			mirror = (mirror + 1) % downloadUrls.size();
+			// the validator belongs to the previous host, the part file can only be resumed if it gets verified
+			validator = null;
+		}
+	}
+
+	/**
+	 * Thrown to abandon a transfer in favor of a faster mirror, the part file is kept and resumed.
+	 */
+	private static class SlowTransferException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		SlowTransferException(String message) {
+			super(message);
+		}
+	}
+
+	static Path partFile(File destination) {
+		return destination.toPath().resolveSibling(destination.getName() + PART_FILE_SUFFIX);
+	}
+
+	private static long contentRangeStart(String contentRange) {
+		// bytes <start>-<end>/<size>
+		if (contentRange == null || !contentRange.startsWith("bytes "))
+			return -1;
+		int dash = contentRange.indexOf('-');
+		if (dash < 0)
+			return -1;
+
+		try {
+			return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String strongValidator(Response response) {
+		String etag = response.header("ETag");
+		if (etag != null && !etag.startsWith("W/"))
+			return etag;
+		return response.header("Last-Modified");
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(@NotNull Runnable runnable) {
+			Thread thread = new Thread(runnable, "Download-Worker-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
 		}
 	}
 }
@@ -0,0 +1,41 @@
+package dev.lexoland.updating.updater;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The entry counter of one stage. Every stage gets a fresh instance, so a reader never sees the total of one
+ * stage together with the count of another.
+ */
+class EntryProgress {
+
+	private final int total;
+	private final AtomicInteger current = new AtomicInteger();
+	private volatile String entryName;
+
+	EntryProgress(int total) {
+		this.total = total;
+	}
+
+	/**
+	 * @return the number of completed entries
+	 */
+	int complete() {
+		return current.incrementAndGet();
+	}
+
+	int total() {
+		return total;
+	}
+
+	int current() {
+		return current.get();
+	}
+
+	String entryName() {
+		return entryName;
+	}
+
+	void setEntryName(String entryName) {
+		this.entryName = entryName;
+	}
+}
@@ -0,0 +1,42 @@
+package dev.lexoland.updating.updater;
+
+import java.io.File;
+
+/**
+ * The size and modification time of an installed file together with its known sha512 hash, or the CRC32
+ * of the zip entry it was extracted from. As long as size and modification time are unchanged, the
+ * hash is trusted without reading the file.
+ */
+class FileStamp {
+
+	private long size;
+	private long modified;
+	private String sha512;
+	private Long crc32;
+
+	static FileStamp of(File file, String sha512) {
+		FileStamp stamp = new FileStamp();
+		stamp.size = file.length();
+		stamp.modified = file.lastModified();
+		stamp.sha512 = sha512;
+		return stamp;
+	}
+
+	static FileStamp ofCrc(File file, long crc32) {
+		FileStamp stamp = of(file, null);
+		stamp.crc32 = crc32;
+		return stamp;
+	}
+
+	boolean matches(File file) {
+		return file.isFile() && file.length() == size && file.lastModified() == modified;
+	}
+
+	String sha512() {
+		return sha512;
+	}
+
+	Long crc32() {
+		return crc32;
+	}
+}
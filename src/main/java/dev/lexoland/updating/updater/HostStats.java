@@ -0,0 +1,116 @@
+package dev.lexoland.updating.updater;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import okhttp3.HttpUrl;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Throughput and failures of every download host, used to pick the mirror a file is downloaded from and to
+ * abandon transfers that are much slower than an alternative mirror.
+ *
+ * <p>Throughput is measured per connection, as the bytes of all finished transfers divided by the time they took.
+ */
+class HostStats {
+
+	/** Transfers shorter than this are not judged, the connection may still be ramping up. */
+	static final long SLOW_TRANSFER_GRACE_MILLIS = 3000;
+	/** A transfer is abandoned if another mirror is this many times faster. */
+	private static final int SLOW_TRANSFER_FACTOR = 4;
+
+	private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the urls ordered by preference, hosts that keep failing last and faster hosts first. Hosts without
+	 * measurements count as average, so the order of the index is kept until there is a reason to deviate.
+	 */
+	List<HttpUrl> order(List<HttpUrl> urls) {
+		if (urls.size() < 2)
+			return urls;
+
+		long average = averageThroughput();
+
+		List<HttpUrl> ordered = new ArrayList<>(urls);
+		ordered.sort(Comparator.<HttpUrl, Boolean>comparing(url -> host(url.host()).isFailing())
+				.thenComparingLong(url -> -host(url.host()).throughputOr(average)));
+		return ordered;
+	}
+
+	void recordTransfer(String host, long bytes, long millis) {
+		if (bytes <= 0)
+			return;
+		Host stats = host(host);
+		stats.bytes.add(bytes);
+		stats.millis.add(Math.max(millis, 1));
+		stats.transfers.increment();
+	}
+
+	void recordFailure(String host) {
+		host(host).failures.increment();
+	}
+
+	/**
+	 * @return whether one of the alternative hosts is known to be a lot faster than the given transfer rate
+	 */
+	boolean hasFasterAlternative(String host, long bytesPerSecond, Collection<HttpUrl> alternatives) {
+		for (HttpUrl alternative : alternatives) {
+			if (alternative.host().equals(host))
+				continue;
+
+			Host stats = hosts.get(alternative.host());
+			if (stats != null && !stats.isFailing() && stats.throughputOr(0) > bytesPerSecond * SLOW_TRANSFER_FACTOR)
+				return true;
+		}
+		return false;
+	}
+
+	void log() {
+		hosts.forEach((name, stats) -> Log.info(LogCategory.UPDATER, "Host %s: %d transfers, %d failures, %d KB/s per connection",
+				name, stats.transfers.sum(), stats.failures.sum(), stats.throughputOr(0) / 1000));
+	}
+
+	private long averageThroughput() {
+		long sum = 0;
+		int count = 0;
+
+		for (Host stats : hosts.values()) {
+			long throughput = stats.throughputOr(-1);
+			if (throughput < 0)
+				continue;
+			sum += throughput;
+			count++;
+		}
+
+		return count == 0 ? 0 : sum / count;
+	}
+
+	private Host host(String host) {
+		return hosts.computeIfAbsent(host, h -> new Host());
+	}
+
+	private static class Host {
+
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder millis = new LongAdder();
+		private final LongAdder transfers = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+
+		private long throughputOr(long fallback) {
+			long millis = this.millis.sum();
+			return millis == 0 ? fallback : bytes.sum() * 1000 / millis;
+		}
+
+		private boolean isFailing() {
+			long failures = this.failures.sum();
+			return failures >= 2 && failures >= transfers.sum();
+		}
+	}
+}
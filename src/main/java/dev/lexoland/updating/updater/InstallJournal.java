@@ -0,0 +1,160 @@
+package dev.lexoland.updating.updater;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import static dev.lexoland.updating.updater.Updater.*;
+
+/**
+ * A write-ahead log of the file operations of an update, one JSON object per line. Every operation that
+ * touches the installation is recorded and synced to disk before it happens, so an update that was
+ * interrupted by a crash can be rolled back on the next start.
+ *
+ * <ul>
+ *     <li>{@code begin} starts an update and lists the files it is going to create</li>
+ *     <li>{@code backup} is written before a file is hardlinked, moved or stored into the backup</li>
+ *     <li>{@code commit} is written once the new installation info is saved, from then on the update is complete
+ *     and only the backup is left to clean up</li>
+ * </ul>
+ */
+class InstallJournal {
+
+	static final File JOURNAL_FILE = new File(UPDATER_DIR, "install-journal.jsonl");
+
+	private final Set<String> createdFiles = new LinkedHashSet<>();
+	private final Set<String> backedUpFiles = new LinkedHashSet<>();
+	private boolean begun;
+	private boolean committed;
+
+	/**
+	 * @return the journal of an interrupted update, or {@code null} if the last update finished
+	 */
+	static InstallJournal read() {
+		if (!JOURNAL_FILE.exists())
+			return null;
+
+		InstallJournal journal = new InstallJournal();
+
+		try (BufferedReader reader = Files.newBufferedReader(JOURNAL_FILE.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				JsonObject record;
+				try {
+					record = GSON.fromJson(line, JsonObject.class);
+				} catch (JsonParseException e) {
+					// torn write of the last record, the operation it describes never started
+					break;
+				}
+				if (record == null)
+					continue;
+
+				String op = getString(record, "op");
+				String path = getString(record, "path");
+				if (op == null) {
+					Log.warn(LogCategory.UPDATER, "Skipping install journal record without an operation: %s", line);
+					continue;
+				}
+
+				switch (op) {
+				case "begin":
+					journal.begun = true;
+					break;
+				case "create":
+					if (path != null)
+						journal.createdFiles.add(path);
+					break;
+				case "backup":
+					if (path != null)
+						journal.backedUpFiles.add(path);
+					break;
+				case "commit":
+					journal.committed = true;
+					break;
+				}
+			}
+		} catch (IOException e) {
+			Log.error(LogCategory.UPDATER, "Failed to read install journal.", e);
+		}
+
+		return journal.begun ? journal : null;
+	}
+
+	/**
+	 * Starts a new journal, replacing the one of the previous update.
+	 *
+	 * @param createdFiles files that don't exist yet and will be created by the update
+	 */
+	static void begin(Collection<String> createdFiles) throws IOException {
+		if (!UPDATER_DIR.exists())
+			UPDATER_DIR.mkdirs();
+
+		StringBuilder records = new StringBuilder(record("begin", null));
+		for (String path : createdFiles)
+			records.append(record("create", path));
+
+		write(records.toString(), false);
+	}
+
+	static void backup(String path) throws IOException {
+		write(record("backup", path), true);
+	}
+
+	static void commit() throws IOException {
+		write(record("commit", null), true);
+	}
+
+	static void delete() {
+		if (JOURNAL_FILE.exists() && !JOURNAL_FILE.delete())
+			Log.warn(LogCategory.UPDATER, "Failed to delete install journal.");
+	}
+
+	boolean isCommitted() {
+		return committed;
+	}
+
+	Set<String> createdFiles() {
+		return Collections.unmodifiableSet(createdFiles);
+	}
+
+	Set<String> backedUpFiles() {
+		return Collections.unmodifiableSet(backedUpFiles);
+	}
+
+	/**
+	 * @return the string value of the property, or {@code null} if it is missing or not a string
+	 */
+	private static String getString(JsonObject record, String name) {
+		JsonElement element = record.get(name);
+		return element != null && element.isJsonPrimitive() && element.getAsJsonPrimitive().isString() ? element.getAsString() : null;
+	}
+
+	private static String record(String op, String path) {
+		JsonObject record = new JsonObject();
+		record.addProperty("op", op);
+		if (path != null)
+			record.addProperty("path", path);
+		return GSON.toJson(record) + "\n";
+	}
+
+	private static void write(String records, boolean append) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(JOURNAL_FILE, append)) {
+			out.write(records.getBytes(StandardCharsets.UTF_8));
+			out.getFD().sync();
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package dev.lexoland.updating.updater;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A pack that was downloaded completely.
+ */
+class LocalPackArchive implements PackArchive {
+
+	private final ZipFile zipFile;
+	private final List<Entry> entries = new ArrayList<>();
+
+	LocalPackArchive(File file) throws IOException {
+		this.zipFile = new ZipFile(file);
+
+		Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+		while (zipEntries.hasMoreElements()) {
+			ZipEntry entry = zipEntries.nextElement();
+			entries.add(new Entry(entry.getName(), entry.getCrc(), entry.getSize()));
+		}
+	}
+
+	@Override
+	public List<Entry> entries() {
+		return entries;
+	}
+
+	@Override
+	public InputStream open(String name) throws IOException {
+		ZipEntry entry = zipFile.getEntry(name);
+		if (entry == null)
+			throw new IOException("No entry '" + name + "' in pack");
+		return zipFile.getInputStream(entry);
+	}
+
+	@Override
+	public void close() throws IOException {
+		zipFile.close();
+	}
+}
@@ -0,0 +1,71 @@
+package dev.lexoland.updating.updater;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonElement;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import static dev.lexoland.updating.updater.Updater.*;
+
+/**
+ * Asynchronous lookups against the Modrinth API. Identical lookups which are in flight at the same time share
+ * one request, and all requests go through the shared {@link RateLimiter}.
+ */
+public class ModrinthApi {
+
+	private final OkHttpClient client;
+	private final Map<String, CompletableFuture<JsonElement>> inFlight = new ConcurrentHashMap<>();
+
+	public ModrinthApi(String authToken) {
+		this.client = DownloadHandler.createHttpClient(authToken);
+	}
+
+	/**
+	 * @param path the path below the API endpoint, e.g. {@code /version/<id>}
+	 * @return the parsed response, completed exceptionally if the request failed or was not successful
+	 */
+	public CompletableFuture<JsonElement> get(String path) {
+		String url = MR_ENDPOINT + path;
+
+		CompletableFuture<JsonElement> future = new CompletableFuture<>();
+		CompletableFuture<JsonElement> existing = inFlight.putIfAbsent(url, future);
+		if (existing != null)
+			return existing;
+
+		// only coalesce while in flight, later lookups should see changes
+		future.whenComplete((result, e) -> inFlight.remove(url, future));
+
+		client.newCall(new Request.Builder().url(url).get().build()).enqueue(new Callback() {
+			@Override
+			public void onFailure(@NotNull Call call, @NotNull IOException e) {
+				future.completeExceptionally(e);
+			}
+
+			@Override
+			public void onResponse(@NotNull Call call, @NotNull Response response) {
+				try (Response r = response) {
+					if (!r.isSuccessful()) {
+						future.completeExceptionally(new IOException("Unexpected code " + r));
+						return;
+					}
+					future.complete(GSON.fromJson(r.body().charStream(), JsonElement.class));
+				} catch (RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	public OkHttpClient client() {
+		return client;
+	}
+}
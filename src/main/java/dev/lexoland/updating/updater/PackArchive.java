@@ -0,0 +1,58 @@
+package dev.lexoland.updating.updater;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Read access to the entries of a .mrpack, either from the downloaded file or straight from the server.
+ */
+interface PackArchive extends Closeable {
+
+	/**
+	 * @return all entries of the pack, in the order of its central directory
+	 */
+	List<Entry> entries();
+
+	/**
+	 * Opens the uncompressed content of an entry. Safe to call from several threads at once.
+	 */
+	InputStream open(String name) throws IOException;
+
+	/**
+	 * Hints that the given entries are about to be opened, so they can be fetched together.
+	 */
+	default void prefetch(Collection<String> names) {
+	}
+
+	class Entry {
+
+		private final String name;
+		private final long crc;
+		private final long size;
+
+		Entry(String name, long crc, long size) {
+			this.name = name;
+			this.crc = crc;
+			this.size = size;
+		}
+
+		String name() {
+			return name;
+		}
+
+		long crc() {
+			return crc;
+		}
+
+		long size() {
+			return size;
+		}
+
+		boolean isDirectory() {
+			return name.endsWith("/");
+		}
+	}
+}
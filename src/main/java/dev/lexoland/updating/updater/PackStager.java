@@ -0,0 +1,136 @@
+package dev.lexoland.updating.updater;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonObject;
+import dev.lexoland.updating.config.Config;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import static dev.lexoland.updating.updater.Updater.*;
+
+/**
+ * Downloads the next version of the pack in the background while the game is running, so the update on
+ * the next start only has to link the staged files into place.
+ *
+ * <p>The staged pack files are kept in a content-addressed store in the staging directory, next to the
+ * pack itself. The pack is only used once the ready marker names the version that is about to be
+ * installed, staged files are used by any update that needs them, even if staging didn't finish.
+ */
+class PackStager {
+
+	static final File STAGING_DIR = new File(UPDATER_DIR, "staging");
+	static final File STAGED_PACK_FILE = new File(STAGING_DIR, "pack.mrpack");
+	static final File STAGED_FILES_DIR = new File(STAGING_DIR, "files");
+	static final File DOWNLOAD_DIR = new File(STAGING_DIR, "downloads");
+
+	private static final File READY_FILE = new File(STAGING_DIR, "ready.json");
+
+	// leave the game some time to start before competing with it for bandwidth
+	private static final long STARTUP_DELAY = 2 * 60 * 1000;
+
+	private PackStager() {
+	}
+
+	/**
+	 * Starts polling for new versions on a low priority daemon thread, if enabled in the config.
+	 */
+	static void start(EnvType environment, String gameVersion) {
+		if (Config.stagingInterval <= 0)
+			return;
+
+		Thread thread = new Thread(() -> {
+			try {
+				Thread.sleep(STARTUP_DELAY);
+
+				while (true) {
+					try {
+						new Updater(Config.projectId, gameVersion, Config.authToken, Config.alwaysOverrideFiles, environment, ProgressSink.NONE)
+								.stageLatestVersion();
+					} catch (Exception e) {
+						Log.warn(LogCategory.UPDATER, "Failed to stage the next pack version", e);
+					}
+
+					Thread.sleep(Config.stagingInterval * 1000);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "Update-Stager");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * @return the staged pack if the given version was staged completely, otherwise {@code null}
+	 */
+	static File readyPack(String versionId) {
+		return isReady(versionId) && STAGED_PACK_FILE.isFile() ? STAGED_PACK_FILE : null;
+	}
+
+	static boolean isReady(String versionId) {
+		if (!READY_FILE.exists())
+			return false;
+
+		try (FileReader reader = new FileReader(READY_FILE)) {
+			JsonObject ready = GSON.fromJson(reader, JsonObject.class);
+			return ready != null && ready.has("id") && ready.get("id").getAsString().equals(versionId);
+		} catch (Exception e) {
+			Log.warn(LogCategory.UPDATER, "Failed to read staging marker", e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return the store of staged pack files, or {@code null} if nothing was staged
+	 */
+	static DownloadCache stagedFiles() {
+		if (!STAGED_FILES_DIR.isDirectory())
+			return null;
+		return new DownloadCache(STAGED_FILES_DIR.toPath(), Long.MAX_VALUE);
+	}
+
+	/**
+	 * Throws away a version that was staged completely but is no longer the one to stage. Files of an
+	 * unfinished staging are kept, they are likely needed for the next attempt.
+	 */
+	static void prepare(String versionId) {
+		if (READY_FILE.exists() && !isReady(versionId))
+			clear();
+
+		STAGED_FILES_DIR.mkdirs();
+		DOWNLOAD_DIR.mkdirs();
+	}
+
+	static void markReady(String versionId, String versionNumber) throws IOException {
+		JsonObject ready = new JsonObject();
+		ready.addProperty("id", versionId);
+		ready.addProperty("version", versionNumber);
+
+		try (FileWriter writer = new FileWriter(READY_FILE)) {
+			GSON.toJson(ready, writer);
+		}
+	}
+
+	static void clear() {
+		if (!STAGING_DIR.exists())
+			return;
+
+		try (Stream<Path> files = java.nio.file.Files.walk(STAGING_DIR.toPath())) {
+			files.sorted(Comparator.reverseOrder())
+					.map(Path::toFile)
+					.forEach(File::delete);
+		} catch (IOException e) {
+			Log.warn(LogCategory.UPDATER, "Failed to delete staging directory.", e);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package dev.lexoland.updating.updater;
+
+/**
+ * Receives the progress of an update from the {@link Updater}, {@link BackupHandler} and {@link DownloadHandler}.
+ *
+ * <p>Entry and download progress may be reported from several threads at once and very often, implementations
+ * are expected to throttle their output.
+ */
+public interface ProgressSink {
+
+	ProgressSink NONE = new ProgressSink() {};
+
+	/**
+	 * Called once a new version was found, before anything is installed.
+	 */
+	default void open() {
+	}
+
+	default void stage(Stage stage) {
+	}
+
+	default void finishingUp(String message, int task, int totalTasks) {
+	}
+
+	default void entryProgress(int current, int total, String entryName) {
+	}
+
+	default void downloadProgress(long downloaded, long downloadSize, long speed) {
+	}
+
+	/**
+	 * @param restoringBackup whether the previous installation is restored from the backup
+	 * @return whether the game should be started anyway
+	 */
+	default boolean updateFailed(Exception exception, boolean restoringBackup) {
+		return true;
+	}
+
+	default void close() {
+	}
+
+	enum Stage {
+		DOWNLOAD_PACK_META,
+		CREATE_BACKUP,
+		DOWNLOAD_PACK_FILES,
+		EXTRACT_OVERRIDES,
+		DELETE_INSTALLATION,
+		RESTORE_BACKUP
+	}
+}
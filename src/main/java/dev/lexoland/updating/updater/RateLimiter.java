@@ -0,0 +1,171 @@
+package dev.lexoland.updating.updater;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Keeps the requests to an API within its rate limit. The limiter is a token bucket which is refilled when the
+ * window of the API resets, and corrected by the {@code X-Ratelimit-*} headers of every response, so requests
+ * from other processes on the same address are accounted for as well.
+ *
+ * <p>Requests which are answered with 429 or a server error are retried after a jittered exponential backoff,
+ * so a lot of instances that start at the same time don't retry in lockstep.
+ */
+class RateLimiter implements Interceptor {
+
+	/** Shared by every client of this process, the limit applies per address. */
+	static final RateLimiter MODRINTH = new RateLimiter("api.modrinth.com", 300, 60 * 1000);
+
+	private static final int MAX_TRIES = 5;
+	private static final long BASE_BACKOFF = 500;
+	private static final long MAX_BACKOFF = 30 * 1000;
+
+	// spreads the requests which waited for a reset
+	private static final long RESET_JITTER = 1000;
+
+	private final String host;
+	private final long window;
+
+	private int limit;
+	private int tokens;
+	private long resetAt;
+
+	RateLimiter(String host, int limit, long window) {
+		this.host = host;
+		this.limit = limit;
+		this.window = window;
+	}
+
+	@NotNull
+	@Override
+	public Response intercept(@NotNull Chain chain) throws IOException {
+		Request request = chain.request();
+		if (!request.url().host().equals(host))
+			return chain.proceed(request);
+
+		for (int tries = 1; ; tries++) {
+			acquire();
+
+			Response response;
+			try {
+				response = chain.proceed(request);
+			} catch (IOException e) {
+				if (tries >= MAX_TRIES || chain.call().isCanceled())
+					throw e;
+				Log.warn(LogCategory.UPDATER, "Request to %s failed, retrying...", request.url(), e);
+				sleep(backoff(tries));
+				continue;
+			}
+
+			update(response);
+
+			int code = response.code();
+			if (code != 429 && code < 500 || tries >= MAX_TRIES)
+				return response;
+
+			Log.warn(LogCategory.UPDATER, "Request to %s was answered with %d, retrying...", request.url(), code);
+			response.close();
+			// on 429 the bucket is empty now, so the next acquire also waits for the reset
+			sleep(backoff(tries));
+		}
+	}
+
+	private synchronized void acquire() throws InterruptedIOException {
+		try {
+			while (true) {
+				long now = System.currentTimeMillis();
+				if (now >= resetAt) {
+					tokens = limit;
+					resetAt = now + window;
+				}
+
+				if (tokens > 0) {
+					tokens--;
+					return;
+				}
+
+				wait(resetAt - now + ThreadLocalRandom.current().nextLong(RESET_JITTER));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+		}
+	}
+
+	private synchronized void update(Response response) {
+		long now = System.currentTimeMillis();
+
+		Integer headerLimit = intHeader(response, "X-Ratelimit-Limit");
+		Integer remaining = intHeader(response, "X-Ratelimit-Remaining");
+		Integer reset = intHeader(response, "X-Ratelimit-Reset");
+
+		if (headerLimit != null && headerLimit > 0)
+			limit = headerLimit;
+
+		if (remaining != null && reset != null) {
+			long headerResetAt = now + reset * 1000L;
+
+			// a later reset means the server started a new window, otherwise requests may still be in flight
+			if (headerResetAt > resetAt + RESET_JITTER)
+				tokens = remaining;
+			else
+				tokens = Math.min(tokens, remaining);
+			resetAt = headerResetAt;
+		}
+
+		if (response.code() == 429) {
+			tokens = 0;
+			resetAt = Math.max(resetAt, now + retryAfter(response));
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * @return a random delay for the given try, growing exponentially up to a maximum
+	 */
+	static long backoff(int tries) {
+		long cap = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(tries - 1, 16));
+		return ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+	}
+
+	/**
+	 * @return how long the server asked to wait before the next request, in milliseconds
+	 */
+	static long retryAfter(Response response) {
+		Integer seconds = intHeader(response, "Retry-After");
+		if (seconds == null)
+			seconds = intHeader(response, "X-Ratelimit-Reset");
+		return seconds == null ? 0 : Math.max(0, seconds * 1000L);
+	}
+
+	private static Integer intHeader(Response response, String name) {
+		String value = response.header(name);
+		if (value == null)
+			return null;
+
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while backing off");
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package dev.lexoland.updating.updater;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.io.ByteStreams;
+import okhttp3.HttpUrl;
+import okhttp3.Response;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Reads a pack straight from the server with HTTP range requests. Only the central directory is fetched up front,
+ * every entry is fetched when it is opened, so entries that are never opened are never transferred. Small entries
+ * that are next to each other can be {@linkplain #prefetch prefetched} with one request instead of one each.
+ *
+ * <p>Only plain zip files are supported: no zip64, no encryption and only stored or deflated entries. The content
+ * of every entry is checked against the CRC32 of the central directory while it is read.
+ */
+class RemotePackArchive implements PackArchive {
+
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final int LOCAL_HEADER_SIZE = 30;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	private static final int MAX_TRIES = 3;
+
+	private static final long MAX_PREFETCHED_RECORD_SIZE = 64 * 1024;
+	private static final long MAX_PREFETCH_RANGE_SIZE = 4 * 1024 * 1024;
+
+	private final DownloadHandler downloadHandler;
+	private final HttpUrl url;
+
+	private final List<Entry> entries = new ArrayList<>();
+	private final Map<String, RemoteEntry> remoteEntries = new HashMap<>();
+	private final Map<String, byte[]> prefetchedRecords = new ConcurrentHashMap<>();
+
+	private RemotePackArchive(DownloadHandler downloadHandler, HttpUrl url) {
+		this.downloadHandler = downloadHandler;
+		this.url = url;
+	}
+
+	/**
+	 * Fetches the central directory of the pack.
+	 *
+	 * @throws IOException if the server does not support range requests or the pack can't be read this way
+	 */
+	static RemotePackArchive open(DownloadHandler downloadHandler, HttpUrl url) throws IOException {
+		RemotePackArchive archive = new RemotePackArchive(downloadHandler, url);
+		archive.readCentralDirectory();
+		return archive;
+	}
+
+	private void readCentralDirectory() throws IOException {
+		long fileSize;
+		ByteBuffer tail;
+
+		try (Response response = downloadHandler.requestRange(url, "-" + (END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE))) {
+			fileSize = totalSize(response.header("Content-Range"));
+			tail = littleEndian(response.body().bytes());
+		}
+
+		int end = -1;
+		for (int i = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0)
+			throw new IOException("No end of central directory found");
+
+		int entryCount = tail.getShort(end + 10) & 0xFFFF;
+		long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+		long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+		if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL)
+			throw new IOException("Zip64 packs are not supported");
+
+		ByteBuffer directory;
+		long tailOffset = fileSize - tail.limit();
+
+		if (directoryOffset >= tailOffset) {
+			// small packs, the directory is part of the tail already
+			directory = littleEndian(slice(tail, (int) (directoryOffset - tailOffset), (int) directorySize));
+		} else {
+			try (Response response = downloadHandler.requestRange(url, directoryOffset + "-" + (directoryOffset + directorySize - 1))) {
+				directory = littleEndian(response.body().bytes());
+			}
+		}
+
+		List<RemoteEntry> byOffset = new ArrayList<>();
+
+		for (int i = 0; i < entryCount; i++) {
+			if (directory.getInt() != CENTRAL_DIRECTORY_SIGNATURE)
+				throw new IOException("Corrupt central directory");
+
+			directory.position(directory.position() + 4);
+			int flags = directory.getShort() & 0xFFFF;
+			int method = directory.getShort() & 0xFFFF;
+			directory.position(directory.position() + 4);
+			long crc = directory.getInt() & 0xFFFFFFFFL;
+			long compressedSize = directory.getInt() & 0xFFFFFFFFL;
+			long size = directory.getInt() & 0xFFFFFFFFL;
+			int nameLength = directory.getShort() & 0xFFFF;
+			int extraLength = directory.getShort() & 0xFFFF;
+			int commentLength = directory.getShort() & 0xFFFF;
+			directory.position(directory.position() + 8);
+			long localHeaderOffset = directory.getInt() & 0xFFFFFFFFL;
+
+			byte[] nameBytes = new byte[nameLength];
+			directory.get(nameBytes);
+			directory.position(directory.position() + extraLength + commentLength);
+
+			String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+			if ((flags & 1) != 0)
+				throw new IOException("Encrypted entry '" + name + "'");
+			if (method != STORED && method != DEFLATED)
+				throw new IOException("Unsupported compression method " + method + " of entry '" + name + "'");
+			if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL)
+				throw new IOException("Zip64 entry '" + name + "' is not supported");
+
+			RemoteEntry entry = new RemoteEntry(name, crc, size, method, compressedSize, localHeaderOffset);
+			entries.add(entry);
+			remoteEntries.put(name, entry);
+			byOffset.add(entry);
+		}
+
+		// every record ends where the next one, or the central directory, starts
+		byOffset.sort((a, b) -> Long.compare(a.localHeaderOffset, b.localHeaderOffset));
+		for (int i = 0; i < byOffset.size(); i++)
+			byOffset.get(i).recordEnd = i + 1 < byOffset.size() ? byOffset.get(i + 1).localHeaderOffset : directoryOffset;
+
+		Log.info(LogCategory.UPDATER, "Read central directory of the remote pack, %d entries", entryCount);
+	}
+
+	@Override
+	public List<Entry> entries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	@Override
+	public InputStream open(String name) throws IOException {
+		RemoteEntry entry = remoteEntries.get(name);
+		if (entry == null)
+			throw new IOException("No entry '" + name + "' in pack");
+
+		for (int tries = 1; ; tries++) {
+			try {
+				return openEntry(entry);
+			} catch (IOException e) {
+				if (tries >= MAX_TRIES)
+					throw e;
+				Log.warn(LogCategory.UPDATER, "Failed to read '%s' from the remote pack, retrying...", name, e);
+			}
+		}
+	}
+
+	/**
+	 * Fetches the small entries among the given ones that directly follow each other in the pack with one range
+	 * request per run, and keeps their records in memory until they are opened. Large entries are still fetched on
+	 * their own, a request costs little next to their transfer. Entries that fail to prefetch are fetched when they
+	 * are opened.
+	 */
+	@Override
+	public void prefetch(Collection<String> names) {
+		List<RemoteEntry> small = new ArrayList<>();
+		for (String name : names) {
+			RemoteEntry entry = remoteEntries.get(name);
+			if (entry != null && entry.recordEnd - entry.localHeaderOffset <= MAX_PREFETCHED_RECORD_SIZE && !prefetchedRecords.containsKey(name))
+				small.add(entry);
+		}
+		small.sort((a, b) -> Long.compare(a.localHeaderOffset, b.localHeaderOffset));
+
+		int start = 0;
+		for (int i = 1; i <= small.size(); i++) {
+			if (i < small.size()
+					&& small.get(i).localHeaderOffset == small.get(i - 1).recordEnd
+					&& small.get(i).recordEnd - small.get(start).localHeaderOffset <= MAX_PREFETCH_RANGE_SIZE)
+				continue;
+
+			// a single entry is fetched just the same when it is opened
+			if (i - start > 1) {
+				List<RemoteEntry> run = small.subList(start, i);
+				try {
+					prefetchRun(run);
+				} catch (IOException e) {
+					Log.warn(LogCategory.UPDATER, "Failed to prefetch %d entries from the remote pack, fetching them one by one", run.size(), e);
+				}
+			}
+			start = i;
+		}
+	}
+
+	private void prefetchRun(List<RemoteEntry> run) throws IOException {
+		long start = run.get(0).localHeaderOffset;
+		long end = run.get(run.size() - 1).recordEnd;
+		byte[] bytes;
+
+		try (Response response = downloadHandler.requestRange(url, start + "-" + (end - 1))) {
+			bytes = response.body().bytes();
+		}
+		if (bytes.length != end - start)
+			throw new IOException("Got " + bytes.length + " bytes instead of " + (end - start));
+
+		for (RemoteEntry entry : run)
+			prefetchedRecords.put(entry.name(), Arrays.copyOfRange(bytes, (int) (entry.localHeaderOffset - start), (int) (entry.recordEnd - start)));
+	}
+
+	private InputStream openEntry(RemoteEntry entry) throws IOException {
+		// removed, so that a retry fetches a corrupt prefetched record from the server again
+		byte[] record = prefetchedRecords.remove(entry.name());
+		if (record != null)
+			return openRecord(entry, new ByteArrayInputStream(record), null);
+
+		Response response = downloadHandler.requestRange(url, entry.localHeaderOffset + "-" + (entry.recordEnd - 1));
+
+		try {
+			return openRecord(entry, response.body().byteStream(), response);
+		} catch (IOException | RuntimeException e) {
+			response.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param source closed along with the returned stream, may be null
+	 */
+	private static InputStream openRecord(RemoteEntry entry, InputStream in, Closeable source) throws IOException {
+		ByteBuffer header = littleEndian(new byte[LOCAL_HEADER_SIZE]);
+		ByteStreams.readFully(in, header.array());
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+			throw new IOException("Corrupt local header of entry '" + entry.name() + "'");
+
+		int nameLength = header.getShort(26) & 0xFFFF;
+		int extraLength = header.getShort(28) & 0xFFFF;
+		ByteStreams.skipFully(in, nameLength + extraLength);
+
+		InputStream data = ByteStreams.limit(in, entry.compressedSize);
+
+		// InflaterInputStream only ends inflaters it created itself
+		Inflater inflater = null;
+		if (entry.method == DEFLATED) {
+			inflater = new Inflater(true);
+			data = new InflaterInputStream(data, inflater);
+		}
+
+		return new CrcCheckingInputStream(data, inflater, entry, source);
+	}
+
+	@Override
+	public void close() {
+		prefetchedRecords.clear();
+	}
+
+	private static long totalSize(String contentRange) throws IOException {
+		// bytes <start>-<end>/<size>
+		int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+		if (slash < 0 || contentRange.endsWith("*"))
+			throw new IOException("Unexpected content range " + contentRange);
+
+		try {
+			return Long.parseLong(contentRange.substring(slash + 1).trim());
+		} catch (NumberFormatException e) {
+			throw new IOException("Unexpected content range " + contentRange, e);
+		}
+	}
+
+	private static ByteBuffer littleEndian(byte[] bytes) {
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static byte[] slice(ByteBuffer buffer, int offset, int length) throws IOException {
+		if (offset < 0 || offset + length > buffer.limit())
+			throw new IOException("Central directory out of bounds");
+
+		byte[] bytes = new byte[length];
+		System.arraycopy(buffer.array(), offset, bytes, 0, length);
+		return bytes;
+	}
+
+	private static class RemoteEntry extends Entry {
+
+		private final int method;
+		private final long compressedSize;
+		private final long localHeaderOffset;
+		private long recordEnd;
+
+		private RemoteEntry(String name, long crc, long size, int method, long compressedSize, long localHeaderOffset) {
+			super(name, crc, size);
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+
+	/**
+	 * Verifies the content once it is read to the end, and ends the inflater and closes the response along with the
+	 * stream.
+	 */
+	private static class CrcCheckingInputStream extends FilterInputStream {
+
+		private final Inflater inflater;
+		private final Entry entry;
+		private final Closeable source;
+		private final CRC32 crc = new CRC32();
+		private long read;
+
+		private CrcCheckingInputStream(InputStream in, Inflater inflater, Entry entry, Closeable source) {
+			super(in);
+			this.inflater = inflater;
+			this.entry = entry;
+			this.source = source;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1)
+				verify();
+			else {
+				crc.update(b);
+				read++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int count = super.read(buffer, offset, length);
+			if (count == -1)
+				verify();
+			else {
+				crc.update(buffer, offset, count);
+				read += count;
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			throw new IOException("Skipping is not supported");
+		}
+
+		private void verify() throws IOException {
+			if (read != entry.size() || crc.getValue() != entry.crc())
+				throw new IOException("Corrupt entry '" + entry.name() + "' in the remote pack");
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (inflater != null)
+					inflater.end();
+				if (source != null)
+					source.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package dev.lexoland.updating.updater;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Estimates a rate over a moving window of time buckets. Recording and sampling are lock-free, so it can be
+ * updated by many workers at once and read by the render thread at any time.
+ *
+ * <p>When a bucket is recycled, bytes recorded concurrently into the stale bucket may get lost. That only skews
+ * the estimate slightly and is cheaper than synchronizing every update.
+ */
+class ThroughputMeter {
+
+	private static final int BUCKETS = 8;
+	private static final long BUCKET_MILLIS = 250;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLongArray bucketStamps = new AtomicLongArray(BUCKETS);
+
+	void record(long amount) {
+		long stamp = System.currentTimeMillis() / BUCKET_MILLIS;
+		int index = (int) (stamp % BUCKETS);
+
+		long previousStamp = bucketStamps.get(index);
+		if (previousStamp != stamp && bucketStamps.compareAndSet(index, previousStamp, stamp))
+			buckets.set(index, 0);
+
+		buckets.addAndGet(index, amount);
+	}
+
+	/**
+	 * @return the average rate per second over the window
+	 */
+	long perSecond() {
+		long now = System.currentTimeMillis();
+		long stamp = now / BUCKET_MILLIS;
+
+		long sum = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			if (stamp - bucketStamps.get(i) < BUCKETS)
+				sum += buckets.get(i);
+		}
+
+		// the current bucket is only partially filled
+		long window = (BUCKETS - 1) * BUCKET_MILLIS + now % BUCKET_MILLIS;
+		return sum * 1000 / Math.max(window, 1);
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			bucketStamps.set(i, 0);
+			buckets.set(i, 0);
+		}
+	}
+}
@@ -1,15 +1,29 @@
 package dev.lexoland.updating.updater;
 
-import java.awt.*;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.hash.Hashing;
@@ -19,16 +33,9 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import dev.lexoland.updating.config.Config;
-import dev.lexoland.updating.rendering.UpdateRenderer;
 import dev.lexoland.updating.rendering.UpdateWindow;
-import dev.lexoland.updating.rendering.stages.CreateBackupStage;
-import dev.lexoland.updating.rendering.stages.DownloadPackFilesStage;
-import dev.lexoland.updating.rendering.stages.DownloadPackMetaStage;
-import dev.lexoland.updating.rendering.stages.ExtractOverridesStage;
-import dev.lexoland.updating.rendering.stages.FinishUpStage;
-import dev.lexoland.updating.rendering.stages.RestoreBackupStage;
+import dev.lexoland.updating.rendering.WindowProgressSink;
 import okhttp3.HttpUrl;
-import okhttp3.Request;
 import okhttp3.Response;
 
 import net.fabricmc.api.EnvType;
@@ -45,6 +52,7 @@ public class Updater {
 	public static final File UPDATER_DIR = new File("updater");
 	public static final File USER_CONFIG_FILE = new File(UPDATER_DIR, "config.json");
 	public static final File PACK_FILE = new File(UPDATER_DIR, "pack.mrpack");
+	public static final File PACK_INDEX_FILE = new File(UPDATER_DIR, "pack-index.json");
 
 	private static final ImmutableList<String> DOWNLOAD_DOMAIN_WHITELIST = ImmutableList.of(
 			"cdn.modrinth.com",
@@ -56,6 +64,8 @@ public class Updater {
 
 	private final BackupHandler backupHandler;
 	private final DownloadHandler downloadHandler;
+	private final DownloadCache downloadCache;
+	private final DownloadCache stagedFiles;
 
 
 	private final String projectId;
@@ -63,9 +73,9 @@ public class Updater {
 	private final Collection<String> alwaysOverrideFiles;
 	private final EnvType environment;
 
-	int totalEntries;
-	int currentEntry;
-	String entryName;
+	private final ProgressSink progressSink;
+
+	private volatile EntryProgress entries = new EntryProgress(0);
 
 	private boolean startGame = true;
 
@@ -75,105 +85,292 @@ public class Updater {
 			String authToken,
 			Collection<String> alwaysOverrideFiles,
 			EnvType environment
+	) {
+		this(projectId, gameVersion, authToken, alwaysOverrideFiles, environment, null);
+	}
+
+	/**
+	 * @param progressSink where the progress is reported, or {@code null} to pick it by the environment and config
+	 */
+	Updater(
+			String projectId,
+			String gameVersion,
+			String authToken,
+			Collection<String> alwaysOverrideFiles,
+			EnvType environment,
+			ProgressSink progressSink
 	) {
 		this.projectId = projectId;
 		this.gameVersion = gameVersion;
 		this.alwaysOverrideFiles = alwaysOverrideFiles;
 		this.environment = environment;
+		this.progressSink = progressSink != null ? progressSink : createProgressSink();
 		this.backupHandler = new BackupHandler(this);
-		this.downloadHandler = new DownloadHandler(authToken);
+		this.downloadHandler = new DownloadHandler(authToken, this.progressSink);
+		this.downloadCache = DownloadCache.fromConfig();
+		this.stagedFiles = PackStager.stagedFiles();
 	}
 
 	public void checkForUpdates(Runnable onFinish) {
+		checkForUpdates(null, null, onFinish);
+	}
+
+	/**
+	 * Checks for updates while running the speculation on the calling thread. If a new version is found,
+	 * the speculation is discarded before anything is installed.
+	 */
+	public void checkForUpdates(Runnable speculation, Runnable discardSpeculation, Runnable onFinish) {
+		// before anything reads the installation, it may be half updated
+		if (!backupHandler.recoverInterruptedUpdate()) {
+			// a new update would replace the journal that the rollback still needs
+			Log.error(LogCategory.UPDATER, "Not updating until the previous update is rolled back");
+			if (speculation != null)
+				speculation.run();
+			return;
+		}
 		backupHandler.loadPreviousInstallationInfo();
 		String currentVersionNumber = backupHandler.getPreviousVersionNumber();
 
 		Log.info(LogCategory.UPDATER, "Current pack version: %s", currentVersionNumber == null ? "None" : currentVersionNumber);
 
-		Request request = new Request.Builder()
-				.url(MR_ENDPOINT + "/project/" + projectId + "/version?loaders=[\"fabric\"]&game_versions=[\"" + gameVersion + "\"]")
-				.get()
-				.build();
-
-		try (Response response = downloadHandler.requestVersion(projectId, gameVersion)) {
-			JsonArray versions = GSON.fromJson(response.body().charStream(), JsonArray.class);
+		try {
+			JsonObject version = speculation == null ? fetchLatestVersion() : fetchLatestVersionDuring(speculation);
 
-			if (versions.size() == 0) {
+			if (version == null) {
 				Log.warn(LogCategory.UPDATER, "No versions found");
 				return;
 			}
 
-			JsonObject version = versions.get(0).getAsJsonObject();
 			String newVersionNumber = version.get("version_number").getAsString();
 
 			if (newVersionNumber.equals(currentVersionNumber)) {
 				Log.info(LogCategory.UPDATER, "Pack is up to date");
+				if (Config.verifyInstallation)
+					verifyInstallation(currentVersionNumber, discardSpeculation);
 				return;
 			}
 			Log.info(LogCategory.UPDATER, "New version found: %s", newVersionNumber);
 
-			UpdateWindow.open(environment, gameVersion, onFinish);
+			if (discardSpeculation != null)
+				discardSpeculation.run();
 
-			Log.info(LogCategory.UPDATER, "Creating backup...");
-			UpdateRenderer.setStage(new CreateBackupStage(this));
-			backupHandler.createBackup();
+			progressSink.open();
 
 			// get primary file
-			UpdateRenderer.setStage(new DownloadPackMetaStage(this));
+			progressSink.stage(ProgressSink.Stage.DOWNLOAD_PACK_META);
+
+			File stagedPack = PackStager.readyPack(version.get("id").getAsString());
+			if (stagedPack != null)
+				Log.info(LogCategory.UPDATER, "Using the pack staged in the background");
 
-			JsonObject file = StreamSupport.stream(version.getAsJsonArray("files").spliterator(), false)
-					.map(JsonElement::getAsJsonObject)
-					.filter(f -> f.get("primary").getAsBoolean())
-					.findAny()
-					.orElseThrow(() -> new RuntimeException("No primary file found"));
+			JsonObject index;
 
-			String fileName = file.get("filename").getAsString();
-			String downloadUrl = file.get("url").getAsString();
+			try (PackArchive pack = stagedPack != null ? new LocalPackArchive(stagedPack) : openPack(primaryFile(version))) {
+				index = getPackIndex(pack);
+				List<PackFile> packFiles = readPackFiles(index);
 
-			downloadHandler.requestFileDownload(fileName, PACK_FILE, HttpUrl.get(downloadUrl));
-			downloadHandler.downloadEnqueuedFiles(() -> {});
-			downloadPackFiles();
-			extractOverrides();
+				Log.info(LogCategory.UPDATER, "Creating backup...");
+				progressSink.stage(ProgressSink.Stage.CREATE_BACKUP);
+				Map<File, String> localHashes = hashInstalledFiles(packFiles);
+				List<OverrideFile> overrides = planOverrides(pack);
+				createBackup(packFiles, localHashes, overrides);
+
+				downloadPackFiles(packFiles, localHashes);
+				extractOverrides(pack, overrides);
+			}
 
-			UpdateRenderer.setStage(new FinishUpStage(this, "Deleting Removed Pack Files...", 0, 3));
+			progressSink.finishingUp("Deleting Removed Pack Files...", 0, 3);
 			backupHandler.deleteRemovedPackFiles();
 
-			UpdateRenderer.setStage(new FinishUpStage(this, "Saving Installation Info...", 1, 3));
+			progressSink.finishingUp("Saving Installation Info...", 1, 3);
 			backupHandler.setNewVersionNumber(newVersionNumber);
 			backupHandler.saveNewInstallationInfo();
+			savePackIndex(newVersionNumber, index);
+
+			// everything staged is linked into the installation by now
+			PackStager.clear();
 		} catch (Exception e) {
 			Log.error(LogCategory.UPDATER, "Failed to check/update pack.", e);
-			showUpdateFailedOptionPane(e);
+			if (!progressSink.updateFailed(e, backupHandler.hasBackedUp()))
+				startGame = false;
 
 			if (backupHandler.hasBackedUp()) {
 				Log.info(LogCategory.UPDATER, "Deleting installation files...");
-				UpdateRenderer.setStage(new RestoreBackupStage(this, false));
+				progressSink.stage(ProgressSink.Stage.DELETE_INSTALLATION);
 				backupHandler.cleanUpInstallation();
 				Log.info(LogCategory.UPDATER, "Restoring backup...");
-				UpdateRenderer.setStage(new RestoreBackupStage(this, true));
+				progressSink.stage(ProgressSink.Stage.RESTORE_BACKUP);
 				backupHandler.restoreBackup();
 			}
 		} finally {
 			if(backupHandler.needsCleanup()) {
-				UpdateRenderer.setStage(new FinishUpStage(this, "Deleting Cache...", 2, 3));
+				progressSink.finishingUp("Deleting Cache...", 2, 3);
 				backupHandler.cleanUpBackup();
-				UpdateRenderer.setStage(new FinishUpStage(this, "Deleting Cache...", 3, 3));
+				progressSink.finishingUp("Deleting Cache...", 3, 3);
 			}
 			downloadHandler.close();
-			UpdateWindow.close();
+			progressSink.close();
 		}
 	}
 
-	private void downloadPackFiles() throws IOException {
-		Log.info(LogCategory.UPDATER, "Downloading pack files...");
+	/**
+	 * Looks up the newest version of the pack. The last answer is cached under the updater directory and only
+	 * revalidated with a conditional request, or not at all while it is younger than the configured max age.
+	 */
+	private JsonObject fetchLatestVersion() throws IOException {
+		VersionCache cache = VersionCache.load(projectId + "/" + gameVersion);
+
+		if (cache.isFresh(Config.versionCheckMaxAge * 1000)) {
+			Log.info(LogCategory.UPDATER, "Using cached version info");
+			return cache.version();
+		}
+
+		String etag = cache.hasAnswer() ? cache.etag() : null;
+		String lastModified = cache.hasAnswer() ? cache.lastModified() : null;
 
-		UpdateRenderer.setStage(new DownloadPackFilesStage(this));
+		try (Response response = downloadHandler.requestVersion(projectId, gameVersion, etag, lastModified)) {
+			if (response.code() == 304) {
+				Log.info(LogCategory.UPDATER, "Version info not modified");
+				cache.confirm();
+				cache.save();
+				return cache.version();
+			}
 
-		JsonObject index = getPackIndex();
+			JsonArray versions = GSON.fromJson(response.body().charStream(), JsonArray.class);
+			JsonObject version = versions.size() == 0 ? null : versions.get(0).getAsJsonObject();
+
+			cache.update(version, response.header("ETag"), response.header("Last-Modified"));
+			cache.save();
+			return version;
+		}
+	}
+
+	private JsonObject fetchLatestVersionDuring(Runnable speculation) throws IOException {
+		CompletableFuture<JsonObject> check = new CompletableFuture<>();
+
+		Thread thread = new Thread(() -> {
+			try {
+				check.complete(fetchLatestVersion());
+			} catch (Throwable e) {
+				check.completeExceptionally(e);
+			}
+		}, "Update-Check");
+		thread.setDaemon(true);
+		thread.start();
+
+		speculation.run();
+
+		try {
+			return check.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Failed to check for updates", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while checking for updates", e);
+		}
+	}
+
+	/**
+	 * Opens the pack straight from the server if possible, so only the entries that are actually needed are
+	 * transferred. Falls back to downloading the whole pack if the server does not support range requests.
+	 */
+	private PackArchive openPack(PackFile file) throws IOException {
+		if (Config.remotePackReading) {
+			try {
+				return RemotePackArchive.open(downloadHandler, file.downloadUrls.get(0));
+			} catch (IOException e) {
+				Log.warn(LogCategory.UPDATER, "Failed to read the pack remotely, downloading it completely", e);
+			}
+		}
+
+		downloadPack(file, PACK_FILE);
+		return new LocalPackArchive(PACK_FILE);
+	}
+
+	private void downloadPack(PackFile file, File destination) throws IOException {
+		downloadHandler.requestFileDownload(file.path, destination, file.downloadUrls, file.fileSize, file.sha512, file.sha1);
+		downloadHandler.downloadEnqueuedFiles(download -> {});
+	}
+
+	/**
+	 * @return the .mrpack file of a version
+	 */
+	private static PackFile primaryFile(JsonObject version) {
+		JsonObject file = StreamSupport.stream(version.getAsJsonArray("files").spliterator(), false)
+				.map(JsonElement::getAsJsonObject)
+				.filter(f -> f.get("primary").getAsBoolean())
+				.findAny()
+				.orElseThrow(() -> new RuntimeException("No primary file found"));
+
+		String fileName = file.get("filename").getAsString();
+		String downloadUrl = file.get("url").getAsString();
+		long fileSize = file.has("size") ? file.get("size").getAsLong() : -1;
+
+		JsonObject hashes = file.getAsJsonObject("hashes");
+		String sha512 = hashes != null && hashes.has("sha512") ? hashes.get("sha512").getAsString() : null;
+		String sha1 = hashes != null && hashes.has("sha1") ? hashes.get("sha1").getAsString() : null;
+
+		return new PackFile(fileName, PACK_FILE, Collections.singletonList(HttpUrl.get(downloadUrl)), sha512, sha1, fileSize);
+	}
+
+	/**
+	 * Downloads the pack and the pack files of the newest version into the staging directory, without touching
+	 * the installation. Files that are installed already or available from the download cache are skipped.
+	 */
+	void stageLatestVersion() throws IOException {
+		try {
+			backupHandler.loadPreviousInstallationInfo();
+
+			JsonObject version = fetchLatestVersion();
+			if (version == null)
+				return;
+
+			String versionId = version.get("id").getAsString();
+			String versionNumber = version.get("version_number").getAsString();
+			if (versionNumber.equals(backupHandler.getPreviousVersionNumber()) || PackStager.isReady(versionId))
+				return;
+
+			Log.info(LogCategory.UPDATER, "Staging version %s in the background...", versionNumber);
+			PackStager.prepare(versionId);
+			DownloadCache stagedFiles = PackStager.stagedFiles();
+
+			downloadPack(primaryFile(version), PackStager.STAGED_PACK_FILE);
+
+			List<PackFile> packFiles;
+			try (PackArchive pack = new LocalPackArchive(PackStager.STAGED_PACK_FILE)) {
+				packFiles = readPackFiles(getPackIndex(pack));
+			}
+
+			Set<String> requested = new HashSet<>();
+			for (PackFile packFile : packFiles) {
+				if (packFile.sha512.equals(backupHandler.getTrustedHash(packFile.destination))
+						|| stagedFiles.contains(packFile.sha512)
+						|| downloadCache != null && downloadCache.contains(packFile.sha512)
+						|| !requested.add(packFile.sha512))
+					continue;
+
+				File destination = new File(PackStager.DOWNLOAD_DIR, packFile.sha512);
+				downloadHandler.requestFileDownload(packFile.destination.getName(), destination, packFile.downloadUrls, packFile.fileSize, packFile.sha512, packFile.sha1);
+			}
+
+			downloadHandler.downloadEnqueuedFiles(download -> {
+				stagedFiles.store(download.sha512(), download.destination());
+				download.destination().delete();
+			});
+
+			PackStager.markReady(versionId, versionNumber);
+			Log.info(LogCategory.UPDATER, "Staged version %s, it is installed on the next start", versionNumber);
+		} finally {
+			downloadHandler.close();
+		}
+	}
+
+	private List<PackFile> readPackFiles(JsonObject index) {
 		JsonArray files = index.getAsJsonArray("files");
 
-		totalEntries = files.size();
-		currentEntry = 0;
+		List<PackFile> packFiles = new ArrayList<>();
 
 		for (JsonElement element : files) {
 			JsonObject file = element.getAsJsonObject();
@@ -199,148 +396,456 @@ public class Updater {
 			JsonArray downloads = file.getAsJsonArray("downloads");
 			if (downloads.size() == 0)
 				continue;
-			HttpUrl downloadUrl = HttpUrl.get(downloads.get(0).getAsString());
-			if (!DOWNLOAD_DOMAIN_WHITELIST.contains(downloadUrl.host())) {
-				Log.warn(LogCategory.UPDATER, "Skipping file '%s' because it is hosted on an invalid domain (%s)", path, downloadUrl.host());
+
+			// all whitelisted mirrors, the download handler picks and switches between them
+			List<HttpUrl> downloadUrls = new ArrayList<>();
+			for (JsonElement download : downloads) {
+				HttpUrl downloadUrl = HttpUrl.get(download.getAsString());
+				if (DOWNLOAD_DOMAIN_WHITELIST.contains(downloadUrl.host()))
+					downloadUrls.add(downloadUrl);
+				else
+					Log.warn(LogCategory.UPDATER, "Ignoring download of '%s' because it is hosted on an invalid domain (%s)", path, downloadUrl.host());
+			}
+
+			if (downloadUrls.isEmpty()) {
+				Log.warn(LogCategory.UPDATER, "Skipping file '%s' because it has no download on a valid domain", path);
 				continue;
 			}
 
-			String hash = file.getAsJsonObject("hashes").get("sha512").getAsString();
+			JsonObject hashes = file.getAsJsonObject("hashes");
+			String hash = hashes.get("sha512").getAsString();
+			String sha1 = hashes.has("sha1") ? hashes.get("sha1").getAsString() : null;
+			long fileSize = file.has("fileSize") ? file.get("fileSize").getAsLong() : -1;
 
-			if (destination.exists()) {
-				String localHash = Files.asByteSource(destination).hash(Hashing.sha512()).toString();
-				if (localHash.equals(hash)) {
-					markAsInstalled(destination);
-					currentEntry++;
-					continue;
-				}
+			packFiles.add(new PackFile(path, destination, downloadUrls, hash, sha1, fileSize));
+		}
+		return packFiles;
+	}
+
+	/**
+	 * Checks the installed pack files against the index of the installed version, without any network access
+	 * unless something has to be repaired. Files whose size and modification time are unchanged since they
+	 * were installed are trusted, only the others are hashed. Missing and changed files are downloaded again.
+	 *
+	 * @param discardSpeculation throws away mods which were loaded speculatively from the broken files, may be {@code null}
+	 */
+	private void verifyInstallation(String versionNumber, Runnable discardSpeculation) throws IOException {
+		JsonObject index = loadPackIndex(versionNumber);
+		if (index == null) {
+			Log.debug(LogCategory.UPDATER, "No pack index of version %s cached, skipping verification", versionNumber);
+			return;
+		}
+
+		List<PackFile> packFiles = readPackFiles(index);
+		Map<File, String> localHashes = hashInstalledFiles(packFiles);
+
+		Map<File, String> verifiedHashes = new ConcurrentHashMap<>();
+		List<PackFile> brokenFiles = new ArrayList<>();
+
+		for (PackFile packFile : packFiles) {
+			String localHash = localHashes.get(packFile.destination);
+			if (packFile.sha512.equals(localHash)) {
+				// only files which had to be hashed need a new stamp
+				if (!localHash.equals(backupHandler.getTrustedHash(packFile.destination)))
+					verifiedHashes.put(packFile.destination, localHash);
+			} else {
+				brokenFiles.add(packFile);
 			}
+		}
 
-			markAsInstalled(destination);
-			downloadHandler.requestFileDownload(destination.getName(), destination, downloadUrl);
+		if (brokenFiles.isEmpty()) {
+			Log.info(LogCategory.UPDATER, "Verified %d pack files", packFiles.size());
+			if (!verifiedHashes.isEmpty())
+				backupHandler.updateInstalledHashes(verifiedHashes);
+			return;
 		}
-		downloadHandler.downloadEnqueuedFiles(() -> currentEntry++);
+
+		Log.warn(LogCategory.UPDATER, "%d pack files are missing or changed, repairing...", brokenFiles.size());
+		if (discardSpeculation != null)
+			discardSpeculation.run();
+
+		progressSink.open();
+		progressSink.stage(ProgressSink.Stage.DOWNLOAD_PACK_FILES);
+		startEntries(brokenFiles.size());
+
+		for (PackFile packFile : brokenFiles) {
+			Log.info(LogCategory.UPDATER, "Repairing '%s'", packFile.path);
+
+			if (downloadCache != null && downloadCache.install(packFile.sha512, packFile.fileSize, packFile.destination)) {
+				verifiedHashes.put(packFile.destination, packFile.sha512);
+				completeEntry();
+				continue;
+			}
+
+			downloadHandler.requestFileDownload(packFile.destination.getName(), packFile.destination, packFile.downloadUrls, packFile.fileSize, packFile.sha512, packFile.sha1);
+		}
+
+		downloadHandler.downloadEnqueuedFiles(download -> {
+			completeEntry();
+			verifiedHashes.put(download.destination(), download.sha512());
+			if (downloadCache != null)
+				downloadCache.store(download.sha512(), download.destination());
+		});
+
+		backupHandler.updateInstalledHashes(verifiedHashes);
+		Log.info(LogCategory.UPDATER, "Repaired %d pack files", brokenFiles.size());
 	}
 
-	private void extractOverrides() throws IOException {
-		Log.info(LogCategory.UPDATER, "Extracting overrides...");
-		UpdateRenderer.setStage(new ExtractOverridesStage(this));
+	/**
+	 * Keeps the index of the installed version, tagged with its version number so a stale index is never
+	 * used to verify a newer installation.
+	 */
+	private static void savePackIndex(String versionNumber, JsonObject index) {
+		JsonObject cached = new JsonObject();
+		cached.addProperty("version", versionNumber);
+		cached.add("index", index);
+
+		// the update is complete already, without the index it just can't be verified
+		try (FileWriter writer = new FileWriter(PACK_INDEX_FILE)) {
+			GSON.toJson(cached, writer);
+		} catch (IOException e) {
+			Log.warn(LogCategory.UPDATER, "Failed to cache pack index", e);
+		}
+	}
 
+	private static JsonObject loadPackIndex(String versionNumber) {
+		if (!PACK_INDEX_FILE.exists())
+			return null;
 
-		try (ZipFile zipFile = new ZipFile(PACK_FILE)) {
-			totalEntries = zipFile.size();
-			currentEntry = 0;
+		try (FileReader reader = new FileReader(PACK_INDEX_FILE)) {
+			JsonObject cached = GSON.fromJson(reader, JsonObject.class);
+			if (cached == null || !cached.has("version") || !cached.get("version").getAsString().equals(versionNumber))
+				return null;
+			return cached.getAsJsonObject("index");
+		} catch (Exception e) {
+			Log.warn(LogCategory.UPDATER, "Failed to read cached pack index", e);
+			return null;
+		}
+	}
 
-			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+	/**
+	 * Determines which installed files the update is going to replace, so that only those have to be backed up.
+	 */
+	private void createBackup(List<PackFile> packFiles, Map<File, String> localHashes, List<OverrideFile> overrides) throws IOException {
+		Set<String> newFiles = new HashSet<>();
+		Set<String> overwrittenFiles = new LinkedHashSet<>();
 
-			while (entries.hasMoreElements()) {
-				ZipEntry entry = entries.nextElement();
-				String entryName = entry.getName();
+		for (PackFile packFile : packFiles) {
+			File destination = packFile.destination;
+			newFiles.add(destination.getPath());
 
-				if (entry.isDirectory()) {
-					currentEntry++;
-					continue;
-				}
+			if (destination.isFile() && !packFile.sha512.equals(localHashes.get(destination)))
+				overwrittenFiles.add(destination.getPath());
+		}
+
+		for (OverrideFile override : overrides) {
+			File destination = override.destination;
+			newFiles.add(destination.getPath());
+
+			if (destination.isFile() && override.write)
+				overwrittenFiles.add(destination.getPath());
+		}
+
+		backupHandler.createBackup(overwrittenFiles, newFiles);
+	}
+
+	private void downloadPackFiles(List<PackFile> packFiles, Map<File, String> localHashes) throws IOException {
+		Log.info(LogCategory.UPDATER, "Downloading pack files...");
+
+		progressSink.stage(ProgressSink.Stage.DOWNLOAD_PACK_FILES);
+
+		startEntries(packFiles.size());
+
+		List<PackFile> toDownload = new ArrayList<>();
+
+		for (PackFile packFile : packFiles) {
+			File destination = packFile.destination;
+			markAsInstalled(destination);
+
+			if (packFile.sha512.equals(localHashes.get(destination))) {
+				backupHandler.addFileHash(destination, packFile.sha512);
+				completeEntry();
+				continue;
+			}
 
-				if (entryName.startsWith("overrides/"))
-					extractOverrideEntry(zipFile, entry, "overrides/");
-				else if (entryName.startsWith("client-overrides/") && environment == EnvType.CLIENT)
-					extractOverrideEntry(zipFile, entry, "client-overrides/");
-				else if (entryName.startsWith("server-overrides/") && environment == EnvType.SERVER)
-					extractOverrideEntry(zipFile, entry, "server-overrides/");
+			if (stagedFiles != null && stagedFiles.install(packFile.sha512, packFile.fileSize, destination)) {
+				Log.info(LogCategory.UPDATER, "Installed '%s' from the staging directory", packFile.path);
+				backupHandler.addFileHash(destination, packFile.sha512);
+				completeEntry();
+				continue;
+			}
 
-				currentEntry++;
+			if (downloadCache != null && downloadCache.install(packFile.sha512, packFile.fileSize, destination)) {
+				Log.info(LogCategory.UPDATER, "Installed '%s' from the download cache", packFile.path);
+				backupHandler.addFileHash(destination, packFile.sha512);
+				completeEntry();
+				continue;
 			}
+
+			toDownload.add(packFile);
 		}
+
+		// largest first, so a big file that starts late doesn't keep the update running on its own at the end
+		toDownload.sort(Comparator.comparingLong((PackFile packFile) -> packFile.fileSize).reversed());
+
+		for (PackFile packFile : toDownload)
+			downloadHandler.requestFileDownload(packFile.destination.getName(), packFile.destination, packFile.downloadUrls, packFile.fileSize, packFile.sha512, packFile.sha1);
+
+		downloadHandler.downloadEnqueuedFiles(download -> {
+			completeEntry();
+			backupHandler.addFileHash(download.destination(), download.sha512());
+			if (downloadCache != null)
+				downloadCache.store(download.sha512(), download.destination());
+		});
+
+		if (downloadCache != null)
+			downloadCache.evict();
 	}
 
-	private void extractOverrideEntry(ZipFile file, ZipEntry entry, String prefixToRemove) throws IOException {
-		String destinationPath = entry.getName().substring(prefixToRemove.length());
+	/**
+	 * Determines the sha512 hashes of the pack files which are already installed. Files that are unchanged
+	 * since the previous installation are trusted by their recorded size and modification time, all others
+	 * are hashed in parallel.
+	 */
+	private Map<File, String> hashInstalledFiles(List<PackFile> packFiles) throws IOException {
+		Map<File, String> hashes = new ConcurrentHashMap<>();
+		List<File> changedFiles = new ArrayList<>();
+
+		for (PackFile packFile : packFiles) {
+			File destination = packFile.destination;
+			if (!destination.isFile())
+				continue;
+
+			String trustedHash = backupHandler.getTrustedHash(destination);
+			if (trustedHash != null)
+				hashes.put(destination, trustedHash);
+			else
+				changedFiles.add(destination);
+		}
+
+		if (changedFiles.isEmpty())
+			return hashes;
+		Log.info(LogCategory.UPDATER, "Hashing %d changed pack files...", changedFiles.size());
 
 		try {
-			entryName = destinationPath;
-			File destination = new File(destinationPath);
-			String name = destination.getName();
+			changedFiles.parallelStream().forEach(file -> {
+				try {
+					hashes.put(file, Files.asByteSource(file).hash(Hashing.sha512()).toString());
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return hashes;
+	}
 
-			markAsInstalled(destination);
+	/**
+	 * Collects the override files of the pack and decides which of them have to be written. Existing files
+	 * are compared by the CRC32 and size of their zip entry, either through the stamp recorded by the previous
+	 * installation or by reading them, so identical files are never rewritten.
+	 */
+	private List<OverrideFile> planOverrides(PackArchive pack) throws IOException {
+		// the environment's overrides replace the common ones, wherever their entries are in the pack
+		Map<String, OverrideFile> overrides = new LinkedHashMap<>();
+
+		for (String prefix : overridePrefixes()) {
+			for (PackArchive.Entry entry : pack.entries()) {
+				if (entry.isDirectory() || !entry.name().startsWith(prefix))
+					continue;
 
-			if (destination.exists() && alwaysOverrideFiles.stream().noneMatch(name::endsWith))
-				return;
+				File destination = new File(entry.name().substring(prefix.length()));
+				overrides.put(destination.getPath(), new OverrideFile(entry.name(), destination, entry.crc(), entry.size()));
+			}
+		}
+
+		List<OverrideFile> result = new ArrayList<>(overrides.values());
+
+		try {
+			result.parallelStream().forEach(override -> {
+				try {
+					planOverride(override);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return result;
+	}
 
-			InputStream in = file.getInputStream(entry);
+	private void planOverride(OverrideFile override) throws IOException {
+		File destination = override.destination;
+
+		if (!destination.exists()) {
+			override.write = true;
+			return;
+		}
+
+		String name = destination.getName();
+		if (alwaysOverrideFiles.stream().noneMatch(name::endsWith))
+			return;
+
+		if (override.crc == -1) {
+			override.write = true;
+			return;
+		}
+
+		Long trustedCrc = backupHandler.getTrustedCrc(destination);
+		if (trustedCrc != null)
+			override.unchanged = trustedCrc == override.crc && destination.length() == override.size;
+		else if (destination.length() == override.size)
+			override.unchanged = Files.asByteSource(destination).hash(Hashing.crc32()).padToLong() == override.crc;
+
+		override.write = !override.unchanged;
+	}
+
+	private void extractOverrides(PackArchive pack, List<OverrideFile> overrides) throws IOException {
+		Log.info(LogCategory.UPDATER, "Extracting overrides...");
+		progressSink.stage(ProgressSink.Stage.EXTRACT_OVERRIDES);
+
+		startEntries(overrides.size());
+
+		List<OverrideFile> toWrite = new ArrayList<>();
+		Set<File> directories = new LinkedHashSet<>();
+
+		for (OverrideFile override : overrides) {
+			markAsInstalled(override.destination);
+
+			if (override.unchanged)
+				backupHandler.addFileCrc(override.destination, override.crc);
+
+			if (!override.write) {
+				completeEntry();
+				continue;
+			}
 
-			File parent = destination.getParentFile();
-			if (parent != null && !parent.exists())
-				if(!parent.mkdirs())
-					throw new IOException("Failed to create directory " + parent);
+			toWrite.add(override);
 
-			Files.asByteSink(destination).writeFrom(in);
+			File parent = override.destination.getAbsoluteFile().getParentFile();
+			if (parent != null)
+				directories.add(parent);
+		}
+
+		Log.info(LogCategory.UPDATER, "Skipping %d unchanged overrides, extracting %d", overrides.size() - toWrite.size(), toWrite.size());
+
+		for (File directory : directories)
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Failed to create directory " + directory);
+
+		// saves a request per small override when reading the pack remotely
+		pack.prefetch(toWrite.stream().map(override -> override.entryName).collect(Collectors.toList()));
+
+		try {
+			toWrite.parallelStream().forEach(override -> {
+				try {
+					extractOverrideEntry(pack, override);
+					completeEntry();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		} finally {
-			entryName = null;
+			setEntryName(null);
 		}
 	}
 
-	private void markAsInstalled(File file) {
-		backupHandler.addNewFile(file.getPath());
+	private void extractOverrideEntry(PackArchive pack, OverrideFile override) throws IOException {
+		setEntryName(override.destination.getPath());
+		Path destination = override.destination.toPath();
+
+		try (InputStream in = pack.open(override.entryName)) {
+			// replace instead of writing through the file, it may be hardlinked into the backup
+			java.nio.file.Files.deleteIfExists(destination);
+			java.nio.file.Files.copy(in, destination);
+		}
+
+		if (override.crc != -1)
+			backupHandler.addFileCrc(override.destination, override.crc);
 	}
 
-	private JsonObject getPackIndex() throws IOException {
-		try (ZipFile zipFile = new ZipFile(PACK_FILE)) {
-			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+	/**
+	 * @return the installation path of an override entry of the pack, or {@code null} if the entry
+	 * is not an override for the current environment
+	 */
+	/**
+	 * @return the override directories of the pack for this environment, in the order in which they are applied
+	 */
+	private List<String> overridePrefixes() {
+		return Arrays.asList("overrides/", environment == EnvType.CLIENT ? "client-overrides/" : "server-overrides/");
+	}
 
-			while (entries.hasMoreElements()) {
-				ZipEntry entry = entries.nextElement();
-				if (!entry.getName().equals("modrinth.index.json") || entry.isDirectory())
-					continue;
+	private void markAsInstalled(File file) {
+		backupHandler.addNewFile(file.getPath());
+	}
 
-				InputStreamReader reader = new InputStreamReader(zipFile.getInputStream(entry));
+	private JsonObject getPackIndex(PackArchive pack) throws IOException {
+		for (PackArchive.Entry entry : pack.entries()) {
+			if (!entry.name().equals("modrinth.index.json") || entry.isDirectory())
+				continue;
 
+			try (InputStreamReader reader = new InputStreamReader(pack.open(entry.name()))) {
 				return GSON.fromJson(reader, JsonObject.class);
 			}
 		}
 		throw new RuntimeException("No modrinth.index.json found in pack.");
 	}
 
-	private void showUpdateFailedOptionPane(Exception e) {
-		Toolkit.getDefaultToolkit().beep();
+	private ProgressSink createProgressSink() {
+		switch (progressOutput(environment)) {
+		case "console":
+			return new ConsoleProgressSink(false);
+		case "json":
+			return new ConsoleProgressSink(true);
+		default:
+			return new WindowProgressSink(this, environment, gameVersion);
+		}
+	}
 
-		String exceptionMessage = e.getMessage() == null ? "" : e.getMessage();
-		String message = backupHandler.hasBackedUp()
-				? "\n\nA backup of your previous installation will be restored.\nDo you want to start the game anyway after the\nrestore has been completed?"
-				: "\n\nDo you want to start the game anyway?";
+	/**
+	 * @return where the progress is shown, {@code window}, {@code console} or {@code json}. Dedicated servers
+	 * and headless machines never get a window unless configured otherwise.
+	 */
+	private static String progressOutput(EnvType environment) {
+		if (!"auto".equals(Config.progressOutput))
+			return Config.progressOutput;
+		if (environment == EnvType.SERVER || Boolean.getBoolean("java.awt.headless"))
+			return "console";
+		return "window";
+	}
 
-		int selection = JOptionPane.showConfirmDialog(
-				UpdateWindow.getInstance(),
-				exceptionMessage + message,
-				"Update Failed",
-				JOptionPane.YES_NO_OPTION,
-				JOptionPane.ERROR_MESSAGE
-		);
+	void startEntries(int total) {
+		entries = new EntryProgress(total);
+		progressSink.entryProgress(0, total, null);
+	}
+
+	void setEntryName(String name) {
+		entries.setEntryName(name);
+	}
 
-		if (selection == JOptionPane.NO_OPTION)
-			startGame = false;
+	void completeEntry() {
+		EntryProgress entries = this.entries;
+		progressSink.entryProgress(entries.complete(), entries.total(), entries.entryName());
 	}
 
 	public int getTotalEntries() {
-		return totalEntries;
+		return entries.total();
 	}
 
 	public int getCurrentEntry() {
-		return currentEntry;
+		return entries.current();
 	}
 
 	public long getDownloaded() {
-		DownloadHandler.FileDownload download = downloadHandler.currentDownload();
-		if (download == null)
-			return 0;
-		return download.downloaded();
+		return downloadHandler.downloaded();
 	}
 
 	public long getDownloadSize() {
-		DownloadHandler.FileDownload download = downloadHandler.currentDownload();
-		if (download == null)
-			return 1;
-		return download.downloadSize();
+		return Math.max(downloadHandler.downloadSize(), 1);
 	}
 
 	public long getDownloadSpeed() {
@@ -348,7 +853,8 @@ public class Updater {
 	}
 
 	public String getEntryName() {
-		if(entryName != null)
+		String entryName = entries.entryName();
+		if (entryName != null)
 			return entryName;
 		DownloadHandler.FileDownload download = downloadHandler.currentDownload();
 		if (download == null)
@@ -357,27 +863,90 @@ public class Updater {
 	}
 
 	public static void launch(EnvType envType, String gameVersion, Runnable onFinish) {
-		Log.finishBuiltinConfig();
+		launch(envType, gameVersion, null, null, onFinish);
+	}
 
-		try {
-			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | UnsupportedLookAndFeelException e) {
-			Log.error(LogCategory.UPDATER, "Failed to set system look and feel", e);
-		}
+	/**
+	 * @param speculation work that runs while the version is checked and is thrown away if an update is installed
+	 * @param discardSpeculation throws away the results of the speculation
+	 */
+	public static void launch(EnvType envType, String gameVersion, Runnable speculation, Runnable discardSpeculation, Runnable onFinish) {
+		Log.finishBuiltinConfig();
 
 		Config.load();
 
+		boolean window = progressOutput(envType).equals("window");
+
+		if (window) {
+			try {
+				UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+			} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | UnsupportedLookAndFeelException e) {
+				Log.error(LogCategory.UPDATER, "Failed to set system look and feel", e);
+			}
+		}
+
 		if (Config.shouldAskForProject()) {
+			if (!window) {
+				Log.error(LogCategory.UPDATER, "No project configured, set projectId and authToken in %s to enable updates", USER_CONFIG_FILE);
+				onFinish.run();
+				return;
+			}
+
 			UpdateWindow.open(envType, gameVersion, onFinish);
 			return;
 		}
-		start(envType, gameVersion, onFinish);
+
+		Updater instance = new Updater(Config.projectId, gameVersion, Config.authToken, Config.alwaysOverrideFiles, envType);
+		instance.checkForUpdates(speculation, discardSpeculation, onFinish);
+		if (instance.startGame) {
+			PackStager.start(envType, gameVersion);
+			onFinish.run();
+		}
 	}
 
 	public static void start(EnvType envType, String gameVersion, Runnable onFinish) {
 		Updater instance = new Updater(Config.projectId, gameVersion, Config.authToken, Config.alwaysOverrideFiles, envType);
 		instance.checkForUpdates(onFinish);
-		if (instance.startGame)
+		if (instance.startGame) {
+			PackStager.start(envType, gameVersion);
 			onFinish.run();
+		}
+	}
+
+	private static class PackFile {
+
+		private final String path;
+		private final File destination;
+		private final List<HttpUrl> downloadUrls;
+		private final String sha512;
+		private final String sha1;
+		private final long fileSize;
+
+		private PackFile(String path, File destination, List<HttpUrl> downloadUrls, String sha512, String sha1, long fileSize) {
+			this.path = path;
+			this.destination = destination;
+			this.downloadUrls = downloadUrls;
+			this.sha512 = sha512;
+			this.sha1 = sha1;
+			this.fileSize = fileSize;
+		}
+	}
+
+	private static class OverrideFile {
+
+		private final String entryName;
+		private final File destination;
+		private final long crc;
+		private final long size;
+
+		private boolean write;
+		private boolean unchanged;
+
+		private OverrideFile(String entryName, File destination, long crc, long size) {
+			this.entryName = entryName;
+			this.destination = destination;
+			this.crc = crc;
+			this.size = size;
+		}
 	}
 }
@@ -0,0 +1,98 @@
+package dev.lexoland.updating.updater;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import static dev.lexoland.updating.updater.Updater.*;
+
+/**
+ * The last answer of the Modrinth version endpoint, reduced to the newest version, together with the
+ * validators needed to ask for it conditionally.
+ */
+class VersionCache {
+
+	private static final File VERSION_CACHE_FILE = new File(UPDATER_DIR, "version-cache.json");
+
+	private String key;
+	private String etag;
+	private String lastModified;
+	private long checkedAt;
+	private JsonObject version;
+
+	/**
+	 * @param key identifies the request the cache belongs to, a cache for a different project or game version is ignored
+	 */
+	static VersionCache load(String key) {
+		if (VERSION_CACHE_FILE.exists()) {
+			try (FileReader reader = new FileReader(VERSION_CACHE_FILE)) {
+				VersionCache cache = GSON.fromJson(reader, VersionCache.class);
+				if (cache != null && key.equals(cache.key))
+					return cache;
+			} catch (Exception e) {
+				Log.warn(LogCategory.UPDATER, "Failed to load version cache, ignoring it.", e);
+			}
+		}
+
+		VersionCache cache = new VersionCache();
+		cache.key = key;
+		return cache;
+	}
+
+	void save() {
+		if (!UPDATER_DIR.exists())
+			UPDATER_DIR.mkdirs();
+
+		try (FileWriter writer = new FileWriter(VERSION_CACHE_FILE)) {
+			GSON.toJson(this, writer);
+		} catch (IOException e) {
+			Log.warn(LogCategory.UPDATER, "Failed to save version cache.", e);
+		}
+	}
+
+	boolean isFresh(long maxAgeMillis) {
+		return checkedAt > 0 && System.currentTimeMillis() - checkedAt < maxAgeMillis;
+	}
+
+	/**
+	 * Replaces the cached answer after a full response.
+	 */
+	void update(JsonObject version, String etag, String lastModified) {
+		this.version = version;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.checkedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Marks the cached answer as confirmed by the server.
+	 */
+	void confirm() {
+		this.checkedAt = System.currentTimeMillis();
+	}
+
+	boolean hasAnswer() {
+		return checkedAt > 0;
+	}
+
+	String etag() {
+		return etag;
+	}
+
+	String lastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the newest version, or {@code null} if the project has no matching versions
+	 */
+	JsonObject version() {
+		return version;
+	}
+}
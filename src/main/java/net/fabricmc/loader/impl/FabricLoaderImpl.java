@@ -64,6 +64,7 @@ import net.fabricmc.loader.impl.util.LoaderUtil;
 import net.fabricmc.loader.impl.util.SystemProperties;
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.loader.impl.util.nestedjar.NestedJarFileSystem;
 
 @SuppressWarnings("deprecation")
 public final class FabricLoaderImpl extends net.fabricmc.loader.FabricLoader {
@@ -81,6 +82,7 @@ public final class FabricLoaderImpl extends net.fabricmc.loader.FabricLoader {
 
 	protected final Map<String, ModContainerImpl> modMap = new HashMap<>();
 	private List<ModCandidate> modCandidates;
+	private List<ModCandidate> discoveredCandidates; // all candidates until their data is released
 	protected List<ModContainerImpl> mods = new ArrayList<>();
 
 	private final Map<String, LanguageAdapter> adapterMap = new HashMap<>();
@@ -196,6 +198,32 @@ public final class FabricLoaderImpl extends net.fabricmc.loader.FabricLoader {
 		}
 	}
 
+	/**
+	 * Drops the mods of a {@link #load()} that won't be used together with the game provider, so loading can
+	 * start over with a new provider. Nested jars loaded in place are closed, so their outer jars can be replaced.
+	 */
+	public void unload() {
+		if (frozen) throw new IllegalStateException("Frozen - cannot unload mods!");
+
+		mods.clear();
+		modMap.clear();
+		modCandidates = null;
+		provider = null;
+		clearDiscoveredCandidates();
+		NestedJarFileSystem.closeAll();
+	}
+
+	/**
+	 * Releases the data the discovered candidates hold from discovery, including nested jars spilled to mapped
+	 * temp files, instead of leaving it to the gc.
+	 */
+	private void clearDiscoveredCandidates() {
+		if (discoveredCandidates == null) return;
+
+		ModCandidate.clearCachedData(discoveredCandidates);
+		discoveredCandidates = null;
+	}
+
 	private void setup() throws ModResolutionException {
 		boolean remapRegularMods = isDevelopmentEnvironment();
 		VersionOverrides versionOverrides = new VersionOverrides();
@@ -210,6 +238,11 @@ public final class FabricLoaderImpl extends net.fabricmc.loader.FabricLoader {
 
 		Map<String, Set<ModCandidate>> envDisabledMods = new HashMap<>();
 		modCandidates = discoverer.discoverMods(this, envDisabledMods);
+		discoveredCandidates = new ArrayList<>(modCandidates);
+
+		for (Set<ModCandidate> mods : envDisabledMods.values()) {
+			discoveredCandidates.addAll(mods);
+		}
 
 		// dump version and dependency overrides info
 
@@ -223,11 +256,12 @@ public final class FabricLoaderImpl extends net.fabricmc.loader.FabricLoader {
 
 		// resolve mods
 
-		modCandidates = ModResolver.resolve(modCandidates, getEnvironmentType(), envDisabledMods);
+		Path cacheDir = gameDir.resolve(CACHE_DIR_NAME);
+
+		modCandidates = ModResolver.resolve(modCandidates, getEnvironmentType(), envDisabledMods, cacheDir);
 
 		dumpModList(modCandidates);
 
-		Path cacheDir = gameDir.resolve(CACHE_DIR_NAME);
 		Path outputdir = cacheDir.resolve(PROCESSED_MODS_DIR_NAME);
 
 		// runtime mod remapping
@@ -262,21 +296,18 @@ public final class FabricLoaderImpl extends net.fabricmc.loader.FabricLoader {
 			}
 		}
 
+		// load nested mods in place or extract them
+
+		ModCandidate.setNestedPaths(modCandidates, outputdir);
+
 		// add mods
 
 		for (ModCandidate mod : modCandidates) {
-			if (!mod.hasPath() && !mod.isBuiltin()) {
-				try {
-					mod.setPaths(Collections.singletonList(mod.copyToDir(outputdir, false)));
-				} catch (IOException e) {
-					throw new RuntimeException("Error extracting mod "+mod, e);
-				}
-			}
-
 			addMod(mod);
 		}
 
 		modCandidates = null;
+		clearDiscoveredCandidates();
 	}
 
 	private void dumpModList(List<ModCandidate> mods) {
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Remembers the metadata and nested jar tree of every root mod jar, so unchanged jars don't have to be opened and
+ * their fabric.mod.json doesn't have to be parsed again on the next launch. Jars are identified by path, size and
+ * modification time, the whole cache is dropped if anything else that affects discovery differs.
+ *
+ * <p>The metadata is kept in the form of {@link net.fabricmc.loader.impl.metadata.ModMetadataSerializer} without any
+ * overrides, the overrides in effect for the current launch are applied after it is read.
+ */
+final class DiscoveryCache {
+	private static final int MAGIC = 0x46444332; // FDC2
+
+	private final Path file;
+	private final String fingerprint;
+	private final Map<String, JarEntry> entries;
+	private final Map<String, JarEntry> newEntries = new HashMap<>();
+
+	private DiscoveryCache(Path file, String fingerprint, Map<String, JarEntry> entries) {
+		this.file = file;
+		this.fingerprint = fingerprint;
+		this.entries = entries;
+	}
+
+	/**
+	 * @param fingerprint everything besides the jars themselves that affects the cached trees
+	 */
+	static DiscoveryCache load(Path file, String fingerprint) {
+		Map<String, JarEntry> entries = new HashMap<>();
+
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (is.readInt() == MAGIC && is.readUTF().equals(fingerprint)) {
+				for (int i = is.readInt(); i > 0; i--) {
+					JarEntry entry = new JarEntry(is);
+					entries.put(entry.path, entry);
+				}
+			}
+		} catch (NoSuchFileException e) {
+			// first launch
+		} catch (IOException | RuntimeException e) {
+			Log.debug(LogCategory.DISCOVERY, "Discarding unreadable discovery cache %s", file, e);
+			entries.clear();
+		}
+
+		return new DiscoveryCache(file, fingerprint, entries);
+	}
+
+	/**
+	 * @return the cached tree of the jar if it is unchanged since it was cached, otherwise null
+	 */
+	Node get(Path path, long size, long modified) {
+		JarEntry entry = entries.get(path.toString());
+		if (entry == null || entry.size != size || entry.modified != modified) return null;
+
+		return entry.node;
+	}
+
+	/**
+	 * Records the tree of a jar that was analyzed in this launch, with the size and modification time the jar
+	 * had before it was read.
+	 */
+	void put(Path path, long size, long modified, Node node) {
+		newEntries.put(path.toString(), new JarEntry(path.toString(), size, modified, node));
+	}
+
+	/**
+	 * Writes the jars recorded in this launch, replacing all previous entries.
+	 */
+	void save() {
+		if (newEntries.equals(entries)) return;
+
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try {
+			Files.createDirectories(file.getParent());
+
+			try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				os.writeInt(MAGIC);
+				os.writeUTF(fingerprint);
+				os.writeInt(newEntries.size());
+
+				for (JarEntry entry : newEntries.values()) {
+					entry.writeTo(os);
+				}
+			}
+
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Log.warn(LogCategory.DISCOVERY, "Failed to save discovery cache %s", file, e);
+		}
+	}
+
+	private static final class JarEntry {
+		final String path;
+		final long size;
+		final long modified;
+		final Node node;
+
+		JarEntry(String path, long size, long modified, Node node) {
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+			this.node = node;
+		}
+
+		JarEntry(DataInputStream is) throws IOException {
+			path = is.readUTF();
+			size = is.readLong();
+			modified = is.readLong();
+			node = new Node(is);
+		}
+
+		void writeTo(DataOutputStream os) throws IOException {
+			os.writeUTF(path);
+			os.writeLong(size);
+			os.writeLong(modified);
+			node.writeTo(os);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof JarEntry)) return false;
+
+			JarEntry o = (JarEntry) obj;
+
+			// the node of an unchanged jar is always the cached instance
+			return path.equals(o.path) && size == o.size && modified == o.modified && node == o.node;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode();
+		}
+	}
+
+	/**
+	 * A jar with its serialized metadata, or null if it isn't a mod, and the jars nested in it.
+	 */
+	static final class Node {
+		final byte[] metadata;
+		final String localPath;
+		final long hash;
+		final List<Node> nested;
+
+		Node(byte[] metadata, String localPath, long hash, List<Node> nested) {
+			this.metadata = metadata;
+			this.localPath = localPath;
+			this.hash = hash;
+			this.nested = nested;
+		}
+
+		Node(DataInputStream is) throws IOException {
+			if (is.readBoolean()) {
+				metadata = new byte[is.readInt()];
+				is.readFully(metadata);
+			} else {
+				metadata = null;
+			}
+
+			localPath = is.readBoolean() ? is.readUTF() : null;
+			hash = is.readLong();
+
+			int count = is.readInt();
+
+			if (count == 0) {
+				nested = Collections.emptyList();
+			} else {
+				nested = new ArrayList<>(count);
+
+				for (int i = 0; i < count; i++) {
+					nested.add(new Node(is));
+				}
+			}
+		}
+
+		void writeTo(DataOutputStream os) throws IOException {
+			os.writeBoolean(metadata != null);
+
+			if (metadata != null) {
+				os.writeInt(metadata.length);
+				os.write(metadata);
+			}
+
+			os.writeBoolean(localPath != null);
+			if (localPath != null) os.writeUTF(localPath);
+			os.writeLong(hash);
+			os.writeInt(nested.size());
+
+			for (Node child : nested) {
+				child.writeTo(os);
+			}
+		}
+	}
+}
@@ -16,8 +16,8 @@
 
 package net.fabricmc.loader.impl.discovery;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
@@ -27,7 +27,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -40,6 +44,10 @@ import net.fabricmc.loader.impl.metadata.AbstractModMetadata;
 import net.fabricmc.loader.impl.metadata.DependencyOverrides;
 import net.fabricmc.loader.impl.metadata.LoaderModMetadata;
 import net.fabricmc.loader.impl.metadata.VersionOverrides;
+import net.fabricmc.loader.impl.util.SystemProperties;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.loader.impl.util.nestedjar.NestedJarFileSystem;
 
 public final class ModCandidate implements DomainObject.Mod {
 	static final Comparator<ModCandidate> ID_VERSION_COMPARATOR = new Comparator<ModCandidate>() {
@@ -212,8 +220,24 @@ public final class ModCandidate implements DomainObject.Mod {
 		this.dataRef = new SoftReference<>(data);
 	}
 
+	/**
+	 * Drops the data read during discovery, unmapping it if it was spilled to a temp file.
+	 */
 	void clearCachedData() {
+		SoftReference<ByteBuffer> dataRef = this.dataRef;
 		this.dataRef = null;
+
+		ByteBuffer data = dataRef != null ? dataRef.get() : null;
+		if (data != null) ModDiscoverer.release(data);
+	}
+
+	/**
+	 * Drops the data of all mods, once nothing reads them from memory anymore.
+	 */
+	public static void clearCachedData(Collection<ModCandidate> mods) {
+		for (ModCandidate mod : mods) {
+			mod.clearCachedData();
+		}
 	}
 
 	public Path copyToDir(Path outputDir, boolean temp) throws IOException {
@@ -245,6 +269,171 @@ public final class ModCandidate implements DomainObject.Mod {
 		return ret;
 	}
 
+	/**
+	 * Sets the paths of all nested mods that have no path yet.
+	 *
+	 * <p>Mods stored uncompressed in their parent jar are used in place through a {@link NestedJarFileSystem}, the
+	 * others are extracted to the output dir like {@link #copyToDir} with temp = false. Mods nested directly in a mod
+	 * jar are extracted in parallel, opening every parent jar only once, the remaining ones are extracted afterwards
+	 * from their then available parents.
+	 */
+	public static void setNestedPaths(Collection<ModCandidate> mods, Path outputDir) {
+		List<ModCandidate> nestedMods = new ArrayList<>();
+
+		for (ModCandidate mod : mods) {
+			if (!mod.hasPath() && !mod.isBuiltin()) nestedMods.add(mod);
+		}
+
+		if (nestedMods.isEmpty()) return;
+
+		if (System.getProperty(SystemProperties.DEBUG_DISABLE_IN_PLACE_NESTED_JARS) == null) {
+			// parents first, so jars nested in an in place jar can be in place as well
+			nestedMods.sort(Comparator.comparingInt(ModCandidate::getMinNestLevel));
+
+			for (Iterator<ModCandidate> it = nestedMods.iterator(); it.hasNext(); ) {
+				ModCandidate mod = it.next();
+				Path root;
+
+				try {
+					root = mod.openInPlace();
+				} catch (IOException e) {
+					Log.debug(LogCategory.DISCOVERY, "Can't load nested mod %s in place, extracting it", mod, e);
+					continue;
+				}
+
+				if (root != null) {
+					mod.setPaths(Collections.singletonList(root));
+					it.remove();
+				}
+			}
+		}
+
+		Map<Path, List<ModCandidate>> modsByParentJar = new LinkedHashMap<>();
+		List<ModCandidate> remainingMods = new ArrayList<>();
+
+		for (ModCandidate mod : nestedMods) {
+			Path out = outputDir.resolve(mod.getDefaultFileName());
+
+			try {
+				if (Files.exists(out)) {
+					if (Files.size(out) == getSize(mod.hash)) {
+						mod.setPaths(Collections.singletonList(out));
+						continue;
+					} else {
+						Files.deleteIfExists(out);
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Error extracting mod "+mod, e);
+			}
+
+			ModCandidate parent = mod.getBestSourcingParent();
+
+			if (parent.paths != null && parent.paths.size() == 1 && !mod.hasCachedData()) {
+				modsByParentJar.computeIfAbsent(parent.paths.get(0), ignore -> new ArrayList<>()).add(mod);
+			} else {
+				remainingMods.add(mod);
+			}
+		}
+
+		Map<ModCandidate, Path> extracted = Collections.synchronizedMap(new IdentityHashMap<>());
+
+		try {
+			Files.createDirectories(outputDir);
+		} catch (IOException e) {
+			throw new RuntimeException("Error extracting mods", e);
+		}
+
+		modsByParentJar.entrySet().parallelStream().forEach(entry -> extractFromJar(entry.getKey(), entry.getValue(), outputDir, extracted));
+
+		// set afterwards, the parallel extraction reads the paths of the parents
+		for (Map.Entry<ModCandidate, Path> entry : extracted.entrySet()) {
+			entry.getKey().setPaths(Collections.singletonList(entry.getValue()));
+		}
+
+		for (ModCandidate mod : remainingMods) {
+			try {
+				mod.setPaths(Collections.singletonList(mod.copyToDir(outputDir, false)));
+			} catch (IOException e) {
+				throw new RuntimeException("Error extracting mod "+mod, e);
+			}
+		}
+	}
+
+	/**
+	 * @return the root of the mod inside its parent jar, or null if it has to be extracted
+	 */
+	private Path openInPlace() throws IOException {
+		ModCandidate parent = getBestSourcingParent();
+		if (parent.paths == null || parent.paths.size() != 1) return null;
+
+		Path jar = parent.paths.get(0);
+		if (Files.isDirectory(jar) && !NestedJarFileSystem.isRoot(jar)) return null;
+
+		return NestedJarFileSystem.open(jar, localPath);
+	}
+
+	private static void extractFromJar(Path jar, List<ModCandidate> mods, Path outputDir, Map<ModCandidate, Path> extracted) {
+		if (NestedJarFileSystem.isRoot(jar)) { // in place parent
+			for (ModCandidate mod : mods) {
+				Path out = outputDir.resolve(mod.getDefaultFileName());
+
+				try {
+					copy(jar.resolve(mod.localPath), out);
+				} catch (IOException e) {
+					throw new RuntimeException("Error extracting mod "+mod, e);
+				}
+
+				extracted.put(mod, out);
+			}
+
+			return;
+		}
+
+		try (ZipFile zf = new ZipFile(jar.toFile())) {
+			for (ModCandidate mod : mods) {
+				Path out = outputDir.resolve(mod.getDefaultFileName());
+
+				try {
+					ZipEntry entry = zf.getEntry(mod.localPath);
+					if (entry == null) throw new IOException(String.format("can't find nested mod %s in its parent mod %s", mod, jar));
+
+					try (InputStream is = zf.getInputStream(entry)) {
+						copy(is, out);
+					}
+				} catch (IOException e) {
+					throw new RuntimeException("Error extracting mod "+mod, e);
+				}
+
+				extracted.put(mod, out);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Error extracting mods from "+jar, e);
+		}
+	}
+
+	private static void copy(Path file, Path out) throws IOException {
+		try (InputStream is = Files.newInputStream(file)) {
+			copy(is, out);
+		}
+	}
+
+	private static void copy(InputStream is, Path out) throws IOException {
+		try {
+			Files.copy(is, out);
+		} catch (Throwable t) {
+			Files.deleteIfExists(out);
+
+			throw t;
+		}
+	}
+
+	private boolean hasCachedData() {
+		SoftReference<ByteBuffer> dataRef = this.dataRef;
+
+		return dataRef != null && dataRef.get() != null;
+	}
+
 	String getDefaultFileName() {
 		String ret = String.format("%s-%s-%s.jar",
 				getId(),
@@ -277,7 +466,7 @@ public final class ModCandidate implements DomainObject.Mod {
 			ByteBuffer data = dataRef.get();
 
 			if (data != null) {
-				Files.copy(new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.arrayOffset() + data.limit()), out, StandardCopyOption.REPLACE_EXISTING);
+				Files.copy(ModDiscoverer.newInputStream(data), out, StandardCopyOption.REPLACE_EXISTING);
 				return;
 			}
 		}
@@ -295,16 +484,24 @@ public final class ModCandidate implements DomainObject.Mod {
 		if (parent.paths != null) {
 			if (parent.paths.size() != 1) throw new UnsupportedOperationException("multiple parent paths for "+this);
 
-			try (ZipFile zf = new ZipFile(parent.paths.get(0).toFile())) {
-				ZipEntry entry = zf.getEntry(localPath);
-				if (entry == null) throw new IOException(String.format("can't find nested mod %s in its parent mod %s", this, parent));
+			Path jar = parent.paths.get(0);
+
+			if (NestedJarFileSystem.isRoot(jar)) {
+				try (InputStream is = Files.newInputStream(jar.resolve(localPath))) {
+					Files.copy(is, out);
+				}
+			} else {
+				try (ZipFile zf = new ZipFile(jar.toFile())) {
+					ZipEntry entry = zf.getEntry(localPath);
+					if (entry == null) throw new IOException(String.format("can't find nested mod %s in its parent mod %s", this, parent));
 
-				Files.copy(zf.getInputStream(entry), out);
+					Files.copy(zf.getInputStream(entry), out);
+				}
 			}
 		} else {
 			ByteBuffer data = parent.getData();
 
-			try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.arrayOffset() + data.limit()))) {
+			try (ZipInputStream zis = new ZipInputStream(ModDiscoverer.newInputStream(data))) {
 				ZipEntry entry = null;
 
 				while ((entry = zis.getNextEntry()) != null) {
@@ -339,22 +536,32 @@ public final class ModCandidate implements DomainObject.Mod {
 			if (parent.paths != null) {
 				if (parent.paths.size() != 1) throw new UnsupportedOperationException("multiple parent paths for "+this);
 
-				try (ZipFile zf = new ZipFile(parent.paths.get(0).toFile())) {
-					ZipEntry entry = zf.getEntry(localPath);
-					if (entry == null) throw new IOException(String.format("can't find nested mod %s in its parent mod %s", this, parent));
+				Path jar = parent.paths.get(0);
+
+				if (NestedJarFileSystem.isRoot(jar)) {
+					Path file = jar.resolve(localPath);
 
-					ret = ModDiscoverer.readMod(zf.getInputStream(entry));
+					try (InputStream is = Files.newInputStream(file)) {
+						ret = ModDiscoverer.readMod(is, Files.size(file));
+					}
+				} else {
+					try (ZipFile zf = new ZipFile(jar.toFile())) {
+						ZipEntry entry = zf.getEntry(localPath);
+						if (entry == null) throw new IOException(String.format("can't find nested mod %s in its parent mod %s", this, parent));
+
+						ret = ModDiscoverer.readMod(zf.getInputStream(entry), entry.getSize());
+					}
 				}
 			} else {
 				ByteBuffer data = parent.getData();
 				ret = null;
 
-				try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.arrayOffset() + data.limit()))) {
+				try (ZipInputStream zis = new ZipInputStream(ModDiscoverer.newInputStream(data))) {
 					ZipEntry entry = null;
 
 					while ((entry = zis.getNextEntry()) != null) {
 						if (entry.getName().equals(localPath)) {
-							ret = ModDiscoverer.readMod(zis);
+							ret = ModDiscoverer.readMod(zis, entry.getSize());
 							break;
 						}
 					}
@@ -16,12 +16,22 @@
 
 package net.fabricmc.loader.impl.discovery;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -56,6 +66,7 @@ import net.fabricmc.loader.impl.metadata.DependencyOverrides;
 import net.fabricmc.loader.impl.metadata.LoaderModMetadata;
 import net.fabricmc.loader.impl.metadata.MetadataVerifier;
 import net.fabricmc.loader.impl.metadata.ModMetadataParser;
+import net.fabricmc.loader.impl.metadata.ModMetadataSerializer;
 import net.fabricmc.loader.impl.metadata.NestedJarEntry;
 import net.fabricmc.loader.impl.metadata.ParseMetadataException;
 import net.fabricmc.loader.impl.metadata.VersionOverrides;
@@ -66,12 +77,17 @@ import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
 
 public final class ModDiscoverer {
+	private static final String CACHE_FILE_NAME = "discovery-cache.bin";
+	private static final MethodHandle UNMAPPER = createUnmapper();
+	private static final int SPILL_THRESHOLD = 1 << 20; // nested jars larger than this are kept off-heap in a mapped temp file
+
 	private final VersionOverrides versionOverrides;
 	private final DependencyOverrides depOverrides;
 	private final List<ModCandidateFinder> candidateFinders = new ArrayList<>();
 	private final EnvType envType = FabricLoaderImpl.INSTANCE.getEnvironmentType();
 	private final Map<Long, ModScanTask> jijDedupMap = new ConcurrentHashMap<>(); // avoids reading the same jar twice
 	private final List<NestedModInitData> nestedModInitDatas = Collections.synchronizedList(new ArrayList<>()); // breaks potential cycles from deduplication
+	private DiscoveryCache cache;
 
 	public ModDiscoverer(VersionOverrides versionOverrides, DependencyOverrides depOverrides) {
 		this.versionOverrides = versionOverrides;
@@ -86,14 +102,21 @@ public final class ModDiscoverer {
 		long startTime = System.nanoTime();
 		ForkJoinPool pool = new ForkJoinPool();
 		Set<Path> processedPaths = new HashSet<>(); // suppresses duplicate paths
-		List<Future<ModCandidate>> futures = new ArrayList<>();
+		List<ModScanTask> futures = new ArrayList<>();
+
+		if (System.getProperty(SystemProperties.DEBUG_DISABLE_DISCOVERY_CACHE) == null) {
+			cache = DiscoveryCache.load(loader.getGameDir().resolve(FabricLoaderImpl.CACHE_DIR_NAME).resolve(CACHE_FILE_NAME),
+					FabricLoaderImpl.VERSION + ";" + envType + ";" + loader.isDevelopmentEnvironment());
+		}
 
 		ModCandidateConsumer taskSubmitter = (paths, requiresRemap) -> {
 			if (paths.size() == 1) {
 				Path path = LoaderUtil.normalizeExistingPath(paths.get(0));
 
 				if (processedPaths.add(path)) {
-					futures.add(pool.submit(new ModScanTask(Collections.singletonList(path), requiresRemap)));
+					ModScanTask task = new ModScanTask(Collections.singletonList(path), requiresRemap);
+					pool.execute(task);
+					futures.add(task);
 				}
 			} else {
 				List<Path> normalizedPaths = new ArrayList<>(paths.size());
@@ -104,7 +127,9 @@ public final class ModDiscoverer {
 
 				if (!processedPaths.containsAll(normalizedPaths)) {
 					processedPaths.addAll(normalizedPaths);
-					futures.add(pool.submit(new ModScanTask(normalizedPaths, requiresRemap)));
+					ModScanTask task = new ModScanTask(normalizedPaths, requiresRemap);
+					pool.execute(task);
+					futures.add(task);
 				}
 			}
 		};
@@ -173,6 +198,8 @@ public final class ModDiscoverer {
 			throw exception;
 		}
 
+		if (cache != null) saveCache(futures);
+
 		// gather all mods (root+nested), initialize parent data
 
 		Set<ModCandidate> ret = Collections.newSetFromMap(new IdentityHashMap<>(candidates.size() * 2));
@@ -200,6 +227,20 @@ public final class ModDiscoverer {
 		return new ArrayList<>(ret);
 	}
 
+	private void saveCache(List<ModScanTask> tasks) {
+		Map<ModScanTask, DiscoveryCache.Node> nodes = new IdentityHashMap<>();
+		Set<ModScanTask> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		for (ModScanTask task : tasks) {
+			if (task.jarSize < 0) continue; // not a single jar
+
+			DiscoveryCache.Node node = task.toCacheNode(nodes, pending);
+			if (node != null) cache.put(task.paths.get(0), task.jarSize, task.jarModified, node);
+		}
+
+		cache.save();
+	}
+
 	private ModCandidate createJavaMod() {
 		ModMetadata metadata = new BuiltinModMetadata.Builder("java", System.getProperty("java.specification.version").replaceFirst("^1\\.", ""))
 				.setName(System.getProperty("java.vm.name"))
@@ -217,26 +258,33 @@ public final class ModDiscoverer {
 		private final long hash;
 		private final boolean requiresRemap;
 		private final List<String> parentPaths;
+		private DiscoveryCache.Node cachedNode;
+		// what was found in the jar, for the discovery cache
+		private byte[] serializedMetadata;
+		private List<ModScanTask> nestedTasks = Collections.emptyList();
+		private long jarSize = -1;
+		private long jarModified;
 
 		ModScanTask(List<Path> paths, boolean requiresRemap) {
-			this(paths, null, null, -1, requiresRemap, Collections.emptyList());
+			this(paths, null, null, -1, requiresRemap, Collections.emptyList(), null);
 		}
 
 		private ModScanTask(List<Path> paths, String localPath, RewindableInputStream is, long hash,
-				boolean requiresRemap, List<String> parentPaths) {
+				boolean requiresRemap, List<String> parentPaths, DiscoveryCache.Node cachedNode) {
 			this.paths = paths;
 			this.localPath = localPath != null ? localPath : paths.get(0).toString();
 			this.is = is;
 			this.hash = hash;
 			this.requiresRemap = requiresRemap;
 			this.parentPaths = parentPaths;
+			this.cachedNode = cachedNode;
 		}
 
 		@Override
 		protected ModCandidate compute() {
-			if (is != null) { // nested jar
+			if (paths == null) { // nested jar
 				try {
-					return computeJarStream();
+					return cachedNode != null ? computeCached() : computeJarStream();
 				} catch (ParseMetadataException e) { // already contains all context
 					throw ExceptionUtil.wrap(e);
 				} catch (Throwable t) {
@@ -281,6 +329,14 @@ public final class ModDiscoverer {
 		}
 
 		private ModCandidate computeJarFile(Path path) throws IOException, ParseMetadataException {
+			if (cache != null && paths.size() == 1) {
+				jarSize = Files.size(path);
+				jarModified = Files.getLastModifiedTime(path).toMillis();
+				cachedNode = cache.get(path, jarSize, jarModified);
+
+				if (cachedNode != null) return computeCached();
+			}
+
 			try (ZipFile zf = new ZipFile(path.toFile())) {
 				ZipEntry entry = zf.getEntry("fabric.mod.json");
 				if (entry == null) return null;
@@ -288,7 +344,7 @@ public final class ModDiscoverer {
 				LoaderModMetadata metadata;
 
 				try (InputStream is = zf.getInputStream(entry)) {
-					metadata = parseMetadata(is, localPath);
+					metadata = parseJarMetadata(is);
 				}
 
 				if (!metadata.loadsInEnvironment(envType)) {
@@ -322,8 +378,12 @@ public final class ModDiscoverer {
 
 						@Override
 						public RewindableInputStream getInputStream() throws IOException {
+							if (currentEntry.getMethod() == ZipEntry.STORED) {
+								return new ZipEntryInputStream(zf, currentEntry);
+							}
+
 							try (InputStream is = zf.getInputStream(currentEntry)) {
-								return new RewindableInputStream(is);
+								return new BufferInputStream(readMod(is, currentEntry.getSize()));
 							}
 						}
 
@@ -334,18 +394,14 @@ public final class ModDiscoverer {
 					if (!nestedJarPaths.isEmpty() && FabricLoaderImpl.INSTANCE.isDevelopmentEnvironment()) {
 						Log.warn(LogCategory.METADATA, "Mod %s %s references missing nested jars: %s", metadata.getId(), metadata.getVersion(), nestedJarPaths);
 					}
-				}
 
-				List<ModCandidate> nestedMods;
-
-				if (nestedModTasks.isEmpty()) {
-					nestedMods = Collections.emptyList();
-				} else {
-					nestedMods = new ArrayList<>();
-					nestedModInitDatas.add(new NestedModInitData(nestedModTasks, nestedMods));
+					// stored nested jars are read in place from zf, which has to stay open until they are analyzed
+					for (ModScanTask task : nestedModTasks) {
+						task.quietlyJoin();
+					}
 				}
 
-				return ModCandidate.createPlain(paths, metadata, requiresRemap, nestedMods);
+				return ModCandidate.createPlain(paths, metadata, requiresRemap, initNestedMods(nestedModTasks));
 			}
 		}
 
@@ -356,7 +412,7 @@ public final class ModDiscoverer {
 			try (ZipInputStream zis = new ZipInputStream(is)) {
 				while ((entry = zis.getNextEntry()) != null) {
 					if (entry.getName().equals("fabric.mod.json")) {
-						metadata = parseMetadata(zis, localPath);
+						metadata = parseJarMetadata(zis);
 						break;
 					}
 				}
@@ -392,7 +448,7 @@ public final class ModDiscoverer {
 
 							while ((ret = zis.getNextEntry()) != null) {
 								if (isValidNestedJarEntry(ret) && nestedJarPaths.remove(ret.getName())) {
-									is = new RewindableInputStream(zis); // reads the entry, which completes the ZipEntry with any trailing header data
+									is = new BufferInputStream(readMod(zis, ret.getSize())); // reads the entry, which completes the ZipEntry with any trailing header data
 									return ret;
 								}
 							}
@@ -414,19 +470,49 @@ public final class ModDiscoverer {
 				}
 			}
 
-			List<ModCandidate> nestedMods;
+			ModCandidate ret = ModCandidate.createNested(localPath, hash, metadata, requiresRemap, initNestedMods(nestedModTasks));
+			ByteBuffer data = is.getBuffer();
+			if (data != null) ret.setData(data);
+
+			return ret;
+		}
 
-			if (nestedModTasks.isEmpty()) {
-				nestedMods = Collections.emptyList();
+		/**
+		 * Recreates the candidate from the discovery cache without opening the jar, nested jars are read from the
+		 * parent only once they are needed.
+		 */
+		private ModCandidate computeCached() throws ParseMetadataException {
+			if (cachedNode.metadata == null) return null;
+
+			boolean isDevelopment = FabricLoaderImpl.INSTANCE.isDevelopmentEnvironment();
+			LoaderModMetadata metadata = ModMetadataSerializer.deserialize(cachedNode.metadata, localPath, parentPaths, isDevelopment);
+			metadata = ModMetadataParser.applyOverrides(metadata, localPath, parentPaths, versionOverrides, depOverrides, isDevelopment);
+			List<ModScanTask> nestedModTasks;
+
+			if (!metadata.loadsInEnvironment(envType) || cachedNode.nested.isEmpty()) {
+				nestedModTasks = Collections.emptyList();
 			} else {
-				nestedMods = new ArrayList<>();
-				nestedModInitDatas.add(new NestedModInitData(nestedModTasks, nestedMods));
+				nestedModTasks = computeCachedNestedMods();
 			}
 
-			ModCandidate ret = ModCandidate.createNested(localPath, hash, metadata, requiresRemap, nestedMods);
-			ret.setData(is.getBuffer());
+			List<ModCandidate> nestedMods = initNestedMods(nestedModTasks);
 
-			return ret;
+			if (paths != null) {
+				return ModCandidate.createPlain(paths, metadata, requiresRemap, nestedMods);
+			} else {
+				return ModCandidate.createNested(localPath, hash, metadata, requiresRemap, nestedMods);
+			}
+		}
+
+		private List<ModCandidate> initNestedMods(List<ModScanTask> nestedModTasks) {
+			nestedTasks = nestedModTasks;
+
+			if (nestedModTasks.isEmpty()) return Collections.emptyList();
+
+			List<ModCandidate> nestedMods = new ArrayList<>();
+			nestedModInitDatas.add(new NestedModInitData(nestedModTasks, nestedMods));
+
+			return nestedMods;
 		}
 
 		private List<ModScanTask> computeNestedMods(ZipEntrySource entrySource) throws IOException {
@@ -443,7 +529,7 @@ public final class ModDiscoverer {
 				ModScanTask task = jijDedupMap.get(hash);
 
 				if (task == null) {
-					task = new ModScanTask(null, entry.getName(), entrySource.getInputStream(), hash, requiresRemap, parentPaths);
+					task = new ModScanTask(null, entry.getName(), entrySource.getInputStream(), hash, requiresRemap, parentPaths, null);
 					ModScanTask prev = jijDedupMap.putIfAbsent(hash, task);
 
 					if (prev != null) {
@@ -465,9 +551,96 @@ public final class ModDiscoverer {
 			return tasks;
 		}
 
+		private List<ModScanTask> computeCachedNestedMods() {
+			List<String> parentPaths = new ArrayList<>(this.parentPaths.size() + 1);
+			parentPaths.addAll(this.parentPaths);
+			parentPaths.add(localPath);
+
+			List<ModScanTask> tasks = new ArrayList<>(cachedNode.nested.size());
+			ModScanTask localTask = null;
+
+			for (DiscoveryCache.Node node : cachedNode.nested) {
+				ModScanTask task = jijDedupMap.get(node.hash);
+
+				if (task == null) {
+					task = new ModScanTask(null, node.localPath, null, node.hash, requiresRemap, parentPaths, node);
+					ModScanTask prev = jijDedupMap.putIfAbsent(node.hash, task);
+
+					if (prev != null) {
+						task = prev;
+					} else if (localTask == null) { // don't fork first task, leave it for this thread
+						localTask = task;
+					} else {
+						task.fork();
+					}
+				}
+
+				tasks.add(task);
+			}
+
+			if (localTask != null) localTask.invoke();
+
+			return tasks;
+		}
+
+		/**
+		 * @param nodes the nodes created so far, shared so deduplicated jars are only stored once in memory
+		 * @param pending the tasks whose node is being created, to detect cycles
+		 * @return the node describing this task's jar and everything nested in it, or null if that contains a cycle
+		 */
+		DiscoveryCache.Node toCacheNode(Map<ModScanTask, DiscoveryCache.Node> nodes, Set<ModScanTask> pending) {
+			if (cachedNode != null) return cachedNode;
+
+			DiscoveryCache.Node ret = nodes.get(this);
+			if (ret != null) return ret;
+			if (!pending.add(this)) return null;
+
+			List<DiscoveryCache.Node> nested = new ArrayList<>(nestedTasks.size());
+
+			for (ModScanTask task : nestedTasks) {
+				DiscoveryCache.Node node = task.toCacheNode(nodes, pending);
+
+				if (node == null) {
+					pending.remove(this);
+					return null;
+				}
+
+				nested.add(node);
+			}
+
+			pending.remove(this);
+			ret = new DiscoveryCache.Node(serializedMetadata, localPath, hash, nested);
+			nodes.put(this, ret);
+
+			return ret;
+		}
+
 		private LoaderModMetadata parseMetadata(InputStream is, String localPath) throws ParseMetadataException {
 			return ModMetadataParser.parseMetadata(is, localPath, parentPaths, versionOverrides, depOverrides, FabricLoaderImpl.INSTANCE.isDevelopmentEnvironment());
 		}
+
+		/**
+		 * Parses the fabric.mod.json of the jar, keeping the metadata in its serialized form for the discovery cache
+		 * before any overrides are applied.
+		 */
+		private LoaderModMetadata parseJarMetadata(InputStream is) throws IOException, ParseMetadataException {
+			byte[] json = readMetadata(is);
+			if (cache == null) return parseMetadata(new ByteArrayInputStream(json), localPath);
+
+			boolean isDevelopment = FabricLoaderImpl.INSTANCE.isDevelopmentEnvironment();
+			LoaderModMetadata ret = ModMetadataParser.readMetadata(new ByteArrayInputStream(json), localPath, parentPaths, isDevelopment);
+			serializedMetadata = ModMetadataSerializer.serialize(ret, json);
+
+			return ModMetadataParser.applyOverrides(ret, localPath, parentPaths, versionOverrides, depOverrides, isDevelopment);
+		}
+	}
+
+	private static byte[] readMetadata(InputStream is) throws IOException {
+		ByteBuffer buffer = readMod(is);
+		byte[] ret = new byte[buffer.remaining()];
+		buffer.get(ret);
+
+		return ret;
 	}
 
 	private static boolean isValidNestedJarEntry(ZipEntry entry) {
@@ -479,51 +652,128 @@ public final class ModDiscoverer {
 		RewindableInputStream getInputStream() throws IOException;
 	}
 
-	private static final class RewindableInputStream extends InputStream {
-		private final ByteBuffer buffer;
-		private int pos;
+	private abstract static class RewindableInputStream extends InputStream {
+		/**
+		 * @return the whole jar, or null if it isn't held in memory
+		 */
+		abstract ByteBuffer getBuffer();
 
-		RewindableInputStream(InputStream parent) throws IOException { // no parent.close()
-			buffer = readMod(parent);
+		abstract void rewind() throws IOException;
+	}
 
-			assert buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0;
+	private static final class BufferInputStream extends RewindableInputStream {
+		private final ByteBuffer buffer;
+		private final ByteBuffer view;
+
+		BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.view = buffer.duplicate();
 		}
 
-		public ByteBuffer getBuffer() {
+		@Override
+		ByteBuffer getBuffer() {
 			return buffer;
 		}
 
-		public void rewind() {
-			pos = 0;
+		@Override
+		void rewind() {
+			view.position(buffer.position());
 		}
 
 		@Override
 		public int read() throws IOException {
-			if (pos >= buffer.limit()) {
+			if (!view.hasRemaining()) {
 				return -1;
 			} else {
-				return buffer.get(pos++) & 0xff;
+				return view.get() & 0xff;
 			}
 		}
 
 		@Override
 		public int read(byte[] b, int off, int len) throws IOException {
-			int rem = buffer.limit() - pos;
+			int rem = view.remaining();
 
 			if (rem <= 0) {
 				return -1;
 			} else {
 				len = Math.min(len, rem);
-				System.arraycopy(buffer.array(), pos, b, off, len);
-				pos += len;
+				view.get(b, off, len);
 
 				return len;
 			}
 		}
 	}
 
+	/**
+	 * Reads a stored nested jar in place from its parent jar, which has to stay open while this is in use.
+	 */
+	private static final class ZipEntryInputStream extends RewindableInputStream {
+		private final ZipFile zf;
+		private final ZipEntry entry;
+		private InputStream is;
+
+		ZipEntryInputStream(ZipFile zf, ZipEntry entry) {
+			this.zf = zf;
+			this.entry = entry;
+		}
+
+		@Override
+		ByteBuffer getBuffer() {
+			return null; // sourced from the parent again when needed
+		}
+
+		@Override
+		void rewind() throws IOException {
+			close();
+		}
+
+		@Override
+		public int read() throws IOException {
+			return getStream().read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return getStream().read(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (is != null) {
+				is.close();
+				is = null;
+			}
+		}
+
+		private InputStream getStream() throws IOException {
+			if (is == null) is = zf.getInputStream(entry);
+
+			return is;
+		}
+	}
+
+	/**
+	 * @return a stream reading the buffer from its position to its limit, without modifying it
+	 */
+	static InputStream newInputStream(ByteBuffer buffer) {
+		return new BufferInputStream(buffer);
+	}
+
 	static ByteBuffer readMod(InputStream is) throws IOException {
-		int available = is.available();
+		return readMod(is, -1);
+	}
+
+	/**
+	 * Reads a whole jar, into a heap buffer if it is small or else into a mapped temp file.
+	 *
+	 * @param size the size of the jar if known, otherwise -1
+	 */
+	static ByteBuffer readMod(InputStream is, long size) throws IOException {
+		if (size > SPILL_THRESHOLD) {
+			return spill(new byte[64 * 1024], 0, is);
+		}
+
+		int available = size >= 0 ? (int) size : Math.min(is.available(), SPILL_THRESHOLD);
 		boolean availableGood = available > 1;
 		byte[] buffer = new byte[availableGood ? available : 30_000];
 		int offset = 0;
@@ -540,6 +790,8 @@ public final class ModDiscoverer {
 					availableGood = false;
 					buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, 30_000));
 					buffer[offset++] = (byte) val;
+				} else if (buffer.length >= SPILL_THRESHOLD) {
+					return spill(buffer, offset, is);
 				} else {
 					buffer = Arrays.copyOf(buffer, buffer.length * 2);
 				}
@@ -549,6 +801,75 @@ public final class ModDiscoverer {
 		return ByteBuffer.wrap(buffer, 0, offset);
 	}
 
+	/**
+	 * Writes the data read so far and the rest of the stream to a temp file and maps it. The file is deleted
+	 * once the channel is closed, the mapping keeps the data accessible until it is {@link #release released}.
+	 */
+	private static ByteBuffer spill(byte[] buffer, int offset, InputStream is) throws IOException {
+		Path file = Files.createTempFile("fabric-nested-", ".jar");
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+			OutputStream os = Channels.newOutputStream(channel); // not closed, that would close the channel
+			os.write(buffer, 0, offset);
+
+			int len;
+
+			while ((len = is.read(buffer)) >= 0) {
+				os.write(buffer, 0, len);
+			}
+
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (Throwable t) {
+			Files.deleteIfExists(file);
+
+			throw t;
+		}
+	}
+
+	/**
+	 * Unmaps a buffer from {@link #spill} right away instead of when it is collected. Heap buffers are left to the
+	 * gc. The buffer and any views of it must not be used afterwards.
+	 *
+	 * @return whether the buffer was unmapped
+	 */
+	static boolean release(ByteBuffer buffer) {
+		if (!(buffer instanceof MappedByteBuffer) || UNMAPPER == null) return false;
+
+		try {
+			UNMAPPER.invokeExact(buffer);
+			return true;
+		} catch (Throwable t) {
+			Log.debug(LogCategory.DISCOVERY, "Can't unmap nested jar buffer", t);
+			return false;
+		}
+	}
+
+	private static MethodHandle createUnmapper() {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+		try { // java 9+
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+
+			return lookup.findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class)).bindTo(field.get(null));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// java 8
+		}
+
+		try {
+			Class<?> directBufferClass = Class.forName("sun.nio.ch.DirectBuffer");
+			Class<?> cleanerClass = Class.forName("sun.misc.Cleaner");
+			MethodHandle getCleaner = lookup.findVirtual(directBufferClass, "cleaner", MethodType.methodType(cleanerClass));
+			MethodHandle clean = lookup.findVirtual(cleanerClass, "clean", MethodType.methodType(void.class));
+
+			return MethodHandles.filterReturnValue(getCleaner, clean).asType(MethodType.methodType(void.class, ByteBuffer.class));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			Log.debug(LogCategory.DISCOVERY, "Can't unmap nested jar buffers, they are released by the gc", e);
+			return null;
+		}
+	}
+
 	private static class NestedModInitData {
 		final List<? extends Future<ModCandidate>> futures;
 		final List<ModCandidate> target;
@@ -16,6 +16,7 @@
 
 package net.fabricmc.loader.impl.discovery;
 
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -36,13 +37,19 @@ import net.fabricmc.loader.api.metadata.ModDependency;
 import net.fabricmc.loader.api.metadata.ModDependency.Kind;
 import net.fabricmc.loader.impl.discovery.ModSolver.InactiveReason;
 import net.fabricmc.loader.impl.metadata.ModDependencyImpl;
+import net.fabricmc.loader.impl.util.SystemProperties;
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
 
 public class ModResolver {
-	public static List<ModCandidate> resolve(Collection<ModCandidate> candidates, EnvType envType, Map<String, Set<ModCandidate>> envDisabledMods) throws ModResolutionException {
+	private static final String CACHE_FILE_NAME = "resolution-cache.bin";
+
+	/**
+	 * @param cacheDir the directory to remember the resolution in for the next launch, or null to always solve
+	 */
+	public static List<ModCandidate> resolve(Collection<ModCandidate> candidates, EnvType envType, Map<String, Set<ModCandidate>> envDisabledMods, Path cacheDir) throws ModResolutionException {
 		long startTime = System.nanoTime();
-		List<ModCandidate> result = findCompatibleSet(candidates, envType, envDisabledMods);
+		List<ModCandidate> result = findCompatibleSet(candidates, envType, envDisabledMods, cacheDir);
 
 		long endTime = System.nanoTime();
 		Log.debug(LogCategory.RESOLUTION, "Mod resolution time: %.1f ms", (endTime - startTime) * 1e-6);
@@ -50,7 +57,7 @@ public class ModResolver {
 		return result;
 	}
 
-	private static List<ModCandidate> findCompatibleSet(Collection<ModCandidate> candidates, EnvType envType, Map<String, Set<ModCandidate>> envDisabledMods) throws ModResolutionException {
+	private static List<ModCandidate> findCompatibleSet(Collection<ModCandidate> candidates, EnvType envType, Map<String, Set<ModCandidate>> envDisabledMods, Path cacheDir) throws ModResolutionException {
 		// sort all mods by priority
 
 		List<ModCandidate> allModsSorted = new ArrayList<>(candidates);
@@ -123,15 +130,31 @@ public class ModResolver {
 			preselectMod(mod, allModsSorted, modsById, selectedMods, uniqueSelectedMods);
 		}
 
-		// solve
+		// solve, unless the same candidates were solved in the last launch
+
+		ResolutionCache cache = null;
+
+		if (cacheDir != null && System.getProperty(SystemProperties.DEBUG_DISABLE_RESOLUTION_CACHE) == null) {
+			cache = ResolutionCache.create(cacheDir.resolve(CACHE_FILE_NAME), allModsSorted, uniqueSelectedMods, envType);
+		}
 
 		ModSolver.Result result;
 
-		try {
-			result = ModSolver.solve(allModsSorted, modsById,
-					selectedMods, uniqueSelectedMods);
-		} catch (ContradictionException | TimeoutException e) {
-			throw new ModResolutionException("Solving failed", e);
+		if (cache != null && cache.apply(allModsSorted, selectedMods, uniqueSelectedMods)) {
+			result = ModSolver.Result.createSuccess();
+		} else {
+			int preselectedCount = uniqueSelectedMods.size();
+
+			try {
+				result = ModSolver.solve(allModsSorted, modsById,
+						selectedMods, uniqueSelectedMods);
+			} catch (ContradictionException | TimeoutException e) {
+				throw new ModResolutionException("Solving failed", e);
+			}
+
+			if (result.success && cache != null) {
+				cache.save(uniqueSelectedMods.subList(preselectedCount, uniqueSelectedMods.size()));
+			}
 		}
 
 		if (!result.success) {
@@ -207,7 +230,7 @@ public class ModResolver {
 		return uniqueSelectedMods;
 	}
 
-	private static final Comparator<ModCandidate> modPrioComparator = new Comparator<ModCandidate>() {
+	static final Comparator<ModCandidate> modPrioComparator = new Comparator<ModCandidate>() {
 		@Override
 		public int compare(ModCandidate a, ModCandidate b) {
 			// descending sort prio (less/earlier is higher prio):
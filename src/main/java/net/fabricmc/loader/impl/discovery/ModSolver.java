@@ -54,6 +54,17 @@ import net.fabricmc.loader.impl.util.version.VersionPredicateParser;
 final class ModSolver {
 	static Result solve(List<ModCandidate> allModsSorted, Map<String, List<ModCandidate>> modsById,
 			Map<String, ModCandidate> selectedMods, List<ModCandidate> uniqueSelectedMods) throws ContradictionException, TimeoutException, ModResolutionException {
+		// try the common case of a consistent mod set without involving the solver
+
+		if (solveGreedy(allModsSorted, modsById, selectedMods, uniqueSelectedMods)) {
+			return Result.createSuccess();
+		}
+
+		return solveSat(allModsSorted, modsById, selectedMods, uniqueSelectedMods);
+	}
+
+	static Result solveSat(List<ModCandidate> allModsSorted, Map<String, List<ModCandidate>> modsById,
+			Map<String, ModCandidate> selectedMods, List<ModCandidate> uniqueSelectedMods) throws ContradictionException, TimeoutException, ModResolutionException {
 		// build priority index
 
 		Map<ModCandidate, Integer> priorities = new IdentityHashMap<>(allModsSorted.size());
@@ -131,6 +142,69 @@ final class ModSolver {
 		}
 	}
 
+	/**
+	 * Selects the highest priority variant of every mod id if that satisfies all constraints.
+	 *
+	 * <p>All mods prefer to load (ALWAYS or IF_POSSIBLE) and higher priority variants are weighted higher, so such
+	 * a selection is the single optimum the solver would find as well. Anything else, including provided ids, is
+	 * left to the solver.
+	 *
+	 * @return whether the mods were selected, otherwise nothing has been modified
+	 */
+	static boolean solveGreedy(List<ModCandidate> allModsSorted, Map<String, List<ModCandidate>> modsById,
+			Map<String, ModCandidate> selectedMods, List<ModCandidate> uniqueSelectedMods) throws ModResolutionException {
+		for (ModCandidate mod : allModsSorted) {
+			if (!mod.getProvides().isEmpty()
+					|| mod.getLoadCondition().ordinal() > ModLoadCondition.IF_POSSIBLE.ordinal()) {
+				return false;
+			}
+		}
+
+		Map<String, ModCandidate> mods = new HashMap<>(selectedMods);
+		List<ModCandidate> greedyMods = new ArrayList<>(modsById.size());
+
+		for (List<ModCandidate> variants : modsById.values()) {
+			ModCandidate mod = variants.get(0); // sorted by priority
+			mods.put(mod.getId(), mod);
+			greedyMods.add(mod);
+		}
+
+		for (ModCandidate mod : greedyMods) {
+			if (!mod.isRoot() && !isAnyParentSelected(mod, mods)) return false;
+			if (!hasAllDepsSatisfied(mod, mods)) return false;
+
+			for (ModDependency dep : mod.getDependencies()) {
+				if (dep.getKind() != ModDependency.Kind.RECOMMENDS || selectedMods.containsKey(dep.getModId())) continue;
+
+				ModCandidate selected = mods.get(dep.getModId());
+				if (selected != null && dep.matches(selected.getVersion())) continue;
+
+				// an unselected variant would satisfy the recommendation, which the solver may prefer
+
+				for (ModCandidate m : modsById.getOrDefault(dep.getModId(), Collections.emptyList())) {
+					if (dep.matches(m.getVersion())) return false;
+				}
+			}
+		}
+
+		for (ModCandidate mod : uniqueSelectedMods) {
+			for (ModDependency dep : mod.getDependencies()) {
+				if (dep.getKind() != ModDependency.Kind.BREAKS || selectedMods.containsKey(dep.getModId())) continue;
+
+				ModCandidate m = mods.get(dep.getModId());
+				if (m != null && dep.matches(m.getVersion())) return false;
+			}
+		}
+
+		for (ModCandidate mod : greedyMods) {
+			ModResolver.selectMod(mod, selectedMods, uniqueSelectedMods);
+		}
+
+		Log.debug(LogCategory.RESOLUTION, "Resolved %d mods without the solver", greedyMods.size());
+
+		return true;
+	}
+
 	static long solverPrepTime;
 	static long solveTime;
 	static long solutionFetchTime;
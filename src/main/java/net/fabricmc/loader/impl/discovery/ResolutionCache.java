@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.api.metadata.ModDependency;
+import net.fabricmc.loader.impl.FabricLoaderImpl;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Remembers the mods selected by the solver for a set of candidates, so the same candidates don't have to be
+ * solved again on the next launch. The candidates are identified by a hash over everything the solver looks at.
+ *
+ * <p>A remembered selection is checked against all hard constraints before it is used, anything unexpected leads
+ * back to the solver.
+ */
+final class ResolutionCache {
+	private static final int MAGIC = 0x46524331; // FRC1
+
+	private final Path file;
+	private final byte[] fingerprint;
+	private final Map<String, ModCandidate> modsByKey;
+
+	private ResolutionCache(Path file, byte[] fingerprint, Map<String, ModCandidate> modsByKey) {
+		this.file = file;
+		this.fingerprint = fingerprint;
+		this.modsByKey = modsByKey;
+	}
+
+	/**
+	 * @param allModsSorted the candidates left to solve for
+	 * @param preselectedMods the mods selected before solving
+	 * @return the cache for the candidates, or null if they can't be told apart by their id, version and location
+	 */
+	static ResolutionCache create(Path file, List<ModCandidate> allModsSorted, List<ModCandidate> preselectedMods, EnvType envType) {
+		Map<String, ModCandidate> modsByKey = new HashMap<>(allModsSorted.size());
+		List<String> descriptions = new ArrayList<>(allModsSorted.size() + preselectedMods.size());
+
+		for (ModCandidate mod : allModsSorted) {
+			if (modsByKey.put(getKey(mod), mod) != null) return null;
+
+			descriptions.add(describe(mod));
+		}
+
+		for (ModCandidate mod : preselectedMods) {
+			descriptions.add(describe(mod));
+		}
+
+		descriptions.sort(null); // independent of the discovery order
+
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		digest.update(String.format("%s;%s;", FabricLoaderImpl.VERSION, envType).getBytes(StandardCharsets.UTF_8));
+
+		for (String description : descriptions) {
+			digest.update(description.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+
+		return new ResolutionCache(file, digest.digest(), modsByKey);
+	}
+
+	/**
+	 * Selects the mods remembered for the same candidates if they still satisfy all hard constraints.
+	 *
+	 * @return whether the mods were selected, otherwise nothing has been modified
+	 */
+	boolean apply(List<ModCandidate> allModsSorted, Map<String, ModCandidate> selectedMods, List<ModCandidate> uniqueSelectedMods) throws ModResolutionException {
+		List<ModCandidate> cachedMods = load();
+		if (cachedMods == null) return false;
+
+		Map<String, ModCandidate> mods = new HashMap<>(selectedMods);
+
+		for (ModCandidate mod : cachedMods) {
+			if (mods.put(mod.getId(), mod) != null) return false;
+
+			for (String provided : mod.getProvides()) {
+				if (mods.put(provided, mod) != null) return false;
+			}
+		}
+
+		for (ModCandidate mod : cachedMods) {
+			if (!mod.isRoot() && !ModSolver.isAnyParentSelected(mod, mods)) return false;
+			if (!ModSolver.hasAllDepsSatisfied(mod, mods)) return false;
+		}
+
+		for (ModCandidate mod : allModsSorted) {
+			if (mod.isRoot() && mod.getLoadCondition() == ModLoadCondition.ALWAYS && mods.get(mod.getId()) == null) return false;
+		}
+
+		for (ModCandidate mod : uniqueSelectedMods) {
+			for (ModDependency dep : mod.getDependencies()) {
+				if (dep.getKind() != ModDependency.Kind.BREAKS || selectedMods.containsKey(dep.getModId())) continue;
+
+				ModCandidate m = mods.get(dep.getModId());
+				if (m != null && dep.matches(m.getVersion())) return false;
+			}
+		}
+
+		for (ModCandidate mod : cachedMods) {
+			ModResolver.selectMod(mod, selectedMods, uniqueSelectedMods);
+		}
+
+		Log.debug(LogCategory.RESOLUTION, "Reused the resolution of the last launch for %d mods", cachedMods.size());
+
+		return true;
+	}
+
+	private List<ModCandidate> load() {
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (is.readInt() != MAGIC) return null;
+
+			byte[] cachedFingerprint = new byte[is.readUnsignedByte()];
+			is.readFully(cachedFingerprint);
+			if (!Arrays.equals(cachedFingerprint, fingerprint)) return null;
+
+			int count = is.readInt();
+			List<ModCandidate> ret = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				ModCandidate mod = modsByKey.get(is.readUTF());
+				if (mod == null) return null;
+
+				ret.add(mod);
+			}
+
+			return ret;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException | RuntimeException e) {
+			Log.debug(LogCategory.RESOLUTION, "Discarding unreadable resolution cache %s", file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param mods the mods selected by the solver, without the preselected ones
+	 */
+	void save(List<ModCandidate> mods) {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try {
+			Files.createDirectories(file.getParent());
+
+			try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				os.writeInt(MAGIC);
+				os.writeByte(fingerprint.length);
+				os.write(fingerprint);
+				os.writeInt(mods.size());
+
+				for (ModCandidate mod : mods) {
+					os.writeUTF(getKey(mod));
+				}
+			}
+
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Log.warn(LogCategory.RESOLUTION, "Failed to save resolution cache %s", file, e);
+		}
+	}
+
+	private static String getKey(ModCandidate mod) {
+		return String.format("%s %s %s", mod.getId(), mod.getVersion().getFriendlyString(), mod.getLocalPath());
+	}
+
+	/**
+	 * @return everything about the candidate which affects the solution
+	 */
+	private static String describe(ModCandidate mod) {
+		StringBuilder sb = new StringBuilder(getKey(mod));
+
+		sb.append('\n').append(mod.isRoot()).append(' ').append(mod.getLoadCondition());
+
+		for (String provided : mod.getProvides()) {
+			sb.append("\nprovides ").append(provided);
+		}
+
+		for (ModDependency dep : mod.getDependencies()) {
+			sb.append('\n').append(dep.getKind().getKey()).append(' ').append(dep.getModId()).append(' ').append(dep.getVersionIntervals());
+		}
+
+		List<String> parents = new ArrayList<>(mod.getParentMods().size());
+
+		for (ModCandidate parent : mod.getParentMods()) {
+			parents.add(getKey(parent));
+		}
+
+		parents.sort(null);
+
+		for (String parent : parents) {
+			sb.append("\nparent ").append(parent);
+		}
+
+		return sb.toString();
+	}
+}
@@ -56,11 +56,13 @@ public final class Knot extends FabricLauncherBase {
 	protected Map<String, Object> properties = new HashMap<>();
 
 	private KnotClassLoaderInterface classLoader;
+	private ClassLoader originalContextClassLoader;
 	private boolean isDevelopment;
 	private EnvType envType;
 	private final List<Path> classPath = new ArrayList<>();
 	private GameProvider provider;
 	private boolean unlocked;
+	private boolean loaded;
 
 	public static void launch(String[] args, EnvType type) {
 		Log.finishBuiltinConfig();
@@ -70,10 +72,19 @@ public final class Knot extends FabricLauncherBase {
 		knot.provider = knot.createGameProvider(args);
 
 		Updater.launch(type, knot.provider.getRawGameVersion(), () -> {
+			// speculatively discover and resolve mods while the updater checks for a new version
+			try {
+				knot.prepare(args);
+			} catch (RuntimeException e) {
+				// the pack update may fix this, otherwise it is reported by the regular init below
+				Log.debug(LogCategory.KNOT, "Speculative mod loading failed", e);
+				knot.discard();
+			}
+		}, knot::discard, () -> {
 			setupUncaughtExceptionHandler();
 
 			try {
-				ClassLoader cl = knot.init(args);
+				ClassLoader cl = knot.loaded ? knot.finishInit() : knot.init(args);
 
 				if (knot.provider == null) {
 					throw new IllegalStateException("Game provider was not initialized! (Knot#init(String[]))");
@@ -91,6 +102,16 @@ public final class Knot extends FabricLauncherBase {
 	}
 
 	public ClassLoader init(String[] args) {
+		prepare(args);
+		return finishInit();
+	}
+
+	/**
+	 * Sets up the class loader and discovers and resolves the mods, without committing to them yet.
+	 *
+	 * <p>The result can be dropped with {@link #discard()}, e.g. if the pack is updated in the meantime.
+	 */
+	private void prepare(String[] args) {
 		setProperties(properties);
 
 		// configure fabric vars
@@ -125,11 +146,46 @@ public final class Knot extends FabricLauncherBase {
 
 		provider.initialize(this);
 
+		originalContextClassLoader = Thread.currentThread().getContextClassLoader();
 		Thread.currentThread().setContextClassLoader(cl);
 
 		FabricLoaderImpl loader = FabricLoaderImpl.INSTANCE;
 		loader.setGameProvider(provider);
 		loader.load();
+		loaded = true;
+	}
+
+	/**
+	 * Drops everything set up by {@link #prepare(String[])}, so the next init starts from scratch with a new
+	 * game provider and class loader. The provider was initialized against the dropped class loader and must
+	 * not be initialized again.
+	 *
+	 * <p>The class loader, nested jars and discovery data are closed before this returns, so the mod jars can be
+	 * replaced right away.
+	 */
+	private void discard() {
+		if (unlocked) throw new IllegalStateException("Mods already committed!");
+
+		if (classLoader != null) {
+			Thread.currentThread().setContextClassLoader(originalContextClassLoader);
+
+			try {
+				classLoader.close();
+			} catch (IOException e) {
+				Log.warn(LogCategory.KNOT, "Error closing the discarded class loader", e);
+			}
+
+			classLoader = null;
+		}
+
+		FabricLoaderImpl.INSTANCE.unload();
+		loaded = false;
+		provider = null;
+	}
+
+	private ClassLoader finishInit() {
+		ClassLoader cl = classLoader.getClassLoader();
+		FabricLoaderImpl loader = FabricLoaderImpl.INSTANCE;
 		loader.freeze();
 
 		FabricLoaderImpl.INSTANCE.loadAccessWideners();
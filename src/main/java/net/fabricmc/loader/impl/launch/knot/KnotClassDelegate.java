@@ -53,6 +53,7 @@ import net.fabricmc.loader.impl.util.UrlConversionException;
 import net.fabricmc.loader.impl.util.UrlUtil;
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.loader.impl.util.nestedjar.NestedJarFileSystem;
 
 final class KnotClassDelegate<T extends ClassLoader & ClassLoaderAccess> implements KnotClassLoaderInterface {
 	private static final boolean LOG_CLASS_LOAD = System.getProperty(SystemProperties.DEBUG_LOG_CLASS_LOAD) != null;
@@ -100,6 +101,11 @@ final class KnotClassDelegate<T extends ClassLoader & ClassLoaderAccess> impleme
 		return classLoader;
 	}
 
+	@Override
+	public void close() throws IOException {
+		classLoader.close();
+	}
+
 	@Override
 	public void initializeTransformers() {
 		if (transformInitialized) throw new IllegalStateException("Cannot initialize KnotClassDelegate twice!");
@@ -507,7 +513,7 @@ final class KnotClassDelegate<T extends ClassLoader & ClassLoaderAccess> impleme
 	}
 
 	private static boolean hasRegularCodeSource(URL url) {
-		return url.getProtocol().equals("file") || url.getProtocol().equals("jar");
+		return url.getProtocol().equals("file") || url.getProtocol().equals("jar") || url.getProtocol().equals(NestedJarFileSystem.SCHEME);
 	}
 
 	private static Path getCodeSource(URL url, String fileName) {
@@ -529,6 +535,8 @@ final class KnotClassDelegate<T extends ClassLoader & ClassLoaderAccess> impleme
 	}
 
 	interface ClassLoaderAccess {
+		void close() throws IOException;
+
 		void addUrlFwd(URL url);
 		URL findResourceFwd(String name);
 
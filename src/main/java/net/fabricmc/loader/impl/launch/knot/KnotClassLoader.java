@@ -117,6 +117,11 @@ final class KnotClassLoader extends SecureClassLoader implements ClassLoaderAcce
 		return delegate.tryLoadClass(name, false);
 	}
 
+	@Override
+	public void close() throws IOException {
+		urlLoader.close();
+	}
+
 	@Override
 	public void addUrlFwd(URL url) {
 		urlLoader.addURL(url);
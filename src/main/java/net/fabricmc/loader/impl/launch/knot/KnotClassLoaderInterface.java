@@ -38,6 +38,11 @@ interface KnotClassLoaderInterface {
 
 	ClassLoader getClassLoader();
 
+	/**
+	 * Closes the class loader's code sources, it can't load anything afterwards.
+	 */
+	void close() throws IOException;
+
 	void addCodeSource(Path path);
 	void setAllowedPrefixes(Path codeSource, String... prefixes);
 	void setValidParentClassPath(Collection<Path> codeSources);
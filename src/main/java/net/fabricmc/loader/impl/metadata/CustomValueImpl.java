@@ -16,6 +16,8 @@
 
 package net.fabricmc.loader.impl.metadata;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -80,6 +82,80 @@ abstract class CustomValueImpl implements CustomValue {
 		}
 	}
 
+	/**
+	 * Writes the value for {@link #readCustomValue(DataInputStream)}.
+	 */
+	static void writeCustomValue(DataOutputStream os, CustomValue value) throws IOException {
+		os.writeByte(value.getType().ordinal());
+
+		switch (value.getType()) {
+		case OBJECT:
+			os.writeInt(value.getAsObject().size());
+
+			for (Entry<String, CustomValue> entry : value.getAsObject()) {
+				ModMetadataSerializer.writeString(os, entry.getKey());
+				writeCustomValue(os, entry.getValue());
+			}
+
+			break;
+		case ARRAY:
+			os.writeInt(value.getAsArray().size());
+
+			for (CustomValue entry : value.getAsArray()) {
+				writeCustomValue(os, entry);
+			}
+
+			break;
+		case STRING:
+			ModMetadataSerializer.writeString(os, value.getAsString());
+			break;
+		case NUMBER:
+			os.writeDouble(value.getAsNumber().doubleValue());
+			break;
+		case BOOLEAN:
+			os.writeBoolean(value.getAsBoolean());
+			break;
+		case NULL:
+			break;
+		}
+	}
+
+	static CustomValue readCustomValue(DataInputStream is) throws IOException {
+		int type = is.readUnsignedByte();
+		if (type >= CvType.values().length) throw new IOException("Invalid custom value type " + type);
+
+		switch (CvType.values()[type]) {
+		case OBJECT: {
+			int size = is.readInt();
+			final Map<String, CustomValue> values = new LinkedHashMap<>(size);
+
+			for (int i = 0; i < size; i++) {
+				values.put(ModMetadataSerializer.readString(is), readCustomValue(is));
+			}
+
+			return new ObjectImpl(values);
+		}
+		case ARRAY: {
+			int size = is.readInt();
+			final List<CustomValue> entries = new ArrayList<>(size);
+
+			for (int i = 0; i < size; i++) {
+				entries.add(readCustomValue(is));
+			}
+
+			return new ArrayImpl(entries);
+		}
+		case STRING:
+			return new StringImpl(ModMetadataSerializer.readString(is));
+		case NUMBER:
+			return new NumberImpl(is.readDouble());
+		case BOOLEAN:
+			return is.readBoolean() ? BOOLEAN_TRUE : BOOLEAN_FALSE;
+		default:
+			return NULL;
+		}
+	}
+
 	@Override
 	public final CvObject getAsObject() {
 		if (this instanceof ObjectImpl) {
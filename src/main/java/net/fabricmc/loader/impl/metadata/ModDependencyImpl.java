@@ -53,6 +53,10 @@ public final class ModDependencyImpl implements ModDependency {
 		return this.modId;
 	}
 
+	List<String> getMatcherStrings() {
+		return matcherStringList;
+	}
+
 	@Override
 	public boolean matches(Version version) {
 		for (VersionPredicate predicate : ranges) {
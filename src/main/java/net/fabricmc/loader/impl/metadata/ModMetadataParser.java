@@ -40,25 +40,46 @@ public final class ModMetadataParser {
 	// For all intents and purposes of replicating the logic of Gson's fromJson before we have migrated to JsonReader, duplicate keys will replace previous entries.
 	public static LoaderModMetadata parseMetadata(InputStream is, String modPath, List<String> modParentPaths,
 			VersionOverrides versionOverrides, DependencyOverrides depOverrides, boolean isDevelopment) throws ParseMetadataException {
+		LoaderModMetadata ret = readMetadata(is, modPath, modParentPaths, isDevelopment);
+
+		return applyOverrides(ret, modPath, modParentPaths, versionOverrides, depOverrides, isDevelopment);
+	}
+
+	/**
+	 * Reads the metadata as it is written in the fabric.mod.json, without applying any overrides.
+	 */
+	public static LoaderModMetadata readMetadata(InputStream is, String modPath, List<String> modParentPaths, boolean isDevelopment) throws ParseMetadataException {
 		try {
-			LoaderModMetadata ret = readModMetadata(is, isDevelopment);
+			return readModMetadata(is, isDevelopment);
+		} catch (Throwable t) {
+			throw withModPaths(t, modPath, modParentPaths);
+		}
+	}
 
-			versionOverrides.apply(ret);
-			depOverrides.apply(ret);
+	/**
+	 * Applies the overrides to metadata from {@link #readMetadata} and verifies the result.
+	 */
+	public static LoaderModMetadata applyOverrides(LoaderModMetadata metadata, String modPath, List<String> modParentPaths,
+			VersionOverrides versionOverrides, DependencyOverrides depOverrides, boolean isDevelopment) throws ParseMetadataException {
+		try {
+			versionOverrides.apply(metadata);
+			depOverrides.apply(metadata);
 
-			MetadataVerifier.verify(ret, isDevelopment);
+			MetadataVerifier.verify(metadata, isDevelopment);
 
-			return ret;
-		} catch (ParseMetadataException e) {
-			e.setModPaths(modPath, modParentPaths);
-			throw e;
+			return metadata;
 		} catch (Throwable t) {
-			ParseMetadataException e = new ParseMetadataException(t);
-			e.setModPaths(modPath, modParentPaths);
-			throw e;
+			throw withModPaths(t, modPath, modParentPaths);
 		}
 	}
 
+	private static ParseMetadataException withModPaths(Throwable t, String modPath, List<String> modParentPaths) {
+		ParseMetadataException e = t instanceof ParseMetadataException ? (ParseMetadataException) t : new ParseMetadataException(t);
+		e.setModPaths(modPath, modParentPaths);
+
+		return e;
+	}
+
 	private static LoaderModMetadata readModMetadata(InputStream is, boolean isDevelopment) throws IOException, ParseMetadataException {
 		// So some context:
 		// Per the json specification, ordering of fields is not typically enforced.
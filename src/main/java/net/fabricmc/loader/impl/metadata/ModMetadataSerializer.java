@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores mod metadata in a compact binary form which is much cheaper to read than the fabric.mod.json.
+ *
+ * <p>The metadata is stored as it was read, without any overrides, those have to be applied again with
+ * {@link ModMetadataParser#applyOverrides}. Schema 1 metadata is written field by field, older metadata is kept as
+ * its fabric.mod.json and parsed again.
+ */
+public final class ModMetadataSerializer {
+	private static final int FORMAT_JSON = 0;
+	private static final int FORMAT_V1 = 1;
+
+	/**
+	 * @param metadata the metadata read from the json, before any overrides were applied
+	 * @param json the fabric.mod.json the metadata was read from
+	 */
+	public static byte[] serialize(LoaderModMetadata metadata, byte[] json) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 2);
+
+		try (DataOutputStream os = new DataOutputStream(bytes)) {
+			if (metadata instanceof V1ModMetadata) {
+				os.writeByte(FORMAT_V1);
+				((V1ModMetadata) metadata).writeTo(os);
+			} else {
+				os.writeByte(FORMAT_JSON);
+				os.write(json);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e); // can't happen with a byte array
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads metadata written by {@link #serialize}, again without any overrides applied.
+	 */
+	public static LoaderModMetadata deserialize(byte[] data, String modPath, List<String> modParentPaths, boolean isDevelopment) throws ParseMetadataException {
+		ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+
+		try (DataInputStream is = new DataInputStream(bytes)) {
+			switch (is.readUnsignedByte()) {
+			case FORMAT_JSON:
+				return ModMetadataParser.readMetadata(bytes, modPath, modParentPaths, isDevelopment);
+			case FORMAT_V1:
+				return V1ModMetadata.read(is);
+			default:
+				throw new IOException("Unknown metadata format");
+			}
+		} catch (IOException e) {
+			ParseMetadataException ex = new ParseMetadataException(e);
+			ex.setModPaths(modPath, modParentPaths);
+			throw ex;
+		}
+	}
+
+	static void writeString(DataOutputStream os, String str) throws IOException {
+		// writeUTF can't store more than 64k, which a description or custom value may exceed
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		os.writeInt(bytes.length);
+		os.write(bytes);
+	}
+
+	static String readString(DataInputStream is) throws IOException {
+		byte[] bytes = new byte[is.readInt()];
+		is.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeNullableString(DataOutputStream os, String str) throws IOException {
+		os.writeBoolean(str != null);
+		if (str != null) writeString(os, str);
+	}
+
+	static String readNullableString(DataInputStream is) throws IOException {
+		return is.readBoolean() ? readString(is) : null;
+	}
+
+	static void writeStrings(DataOutputStream os, Collection<String> strings) throws IOException {
+		os.writeInt(strings.size());
+
+		for (String str : strings) {
+			writeString(os, str);
+		}
+	}
+
+	static List<String> readStrings(DataInputStream is) throws IOException {
+		int count = is.readInt();
+		List<String> ret = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			ret.add(readString(is));
+		}
+
+		return ret;
+	}
+
+	static void writeStringMap(DataOutputStream os, Map<String, String> map) throws IOException {
+		os.writeInt(map.size());
+
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			writeString(os, entry.getKey());
+			writeString(os, entry.getValue());
+		}
+	}
+
+	static Map<String, String> readStringMap(DataInputStream is) throws IOException {
+		int count = is.readInt();
+		Map<String, String> ret = new LinkedHashMap<>(count);
+
+		for (int i = 0; i < count; i++) {
+			ret.put(readString(is), readString(is));
+		}
+
+		return ret;
+	}
+
+	private ModMetadataSerializer() {
+	}
+}
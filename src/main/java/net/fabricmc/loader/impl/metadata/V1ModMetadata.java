@@ -16,16 +16,23 @@
 
 package net.fabricmc.loader.impl.metadata;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.SortedMap;
+import java.util.TreeMap;
 
 import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.api.Version;
+import net.fabricmc.loader.api.VersionParsingException;
 import net.fabricmc.loader.api.metadata.ContactInformation;
 import net.fabricmc.loader.api.metadata.CustomValue;
 import net.fabricmc.loader.api.metadata.ModDependency;
@@ -33,6 +40,7 @@ import net.fabricmc.loader.api.metadata.ModEnvironment;
 import net.fabricmc.loader.api.metadata.Person;
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.loader.impl.util.version.VersionParser;
 
 final class V1ModMetadata extends AbstractModMetadata implements LoaderModMetadata {
 	static final IconEntry NO_ICON = size -> Optional.empty();
@@ -280,6 +288,196 @@ final class V1ModMetadata extends AbstractModMetadata implements LoaderModMetada
 		}
 	}
 
+	/**
+	 * Writes the metadata for {@link #read(DataInputStream)}, it must not have any overrides applied yet.
+	 */
+	void writeTo(DataOutputStream os) throws IOException {
+		ModMetadataSerializer.writeString(os, id);
+		ModMetadataSerializer.writeString(os, version.getFriendlyString());
+		ModMetadataSerializer.writeStrings(os, provides);
+		os.writeByte(environment.ordinal());
+
+		os.writeInt(entrypoints.size());
+
+		for (Map.Entry<String, List<EntrypointMetadata>> entry : entrypoints.entrySet()) {
+			ModMetadataSerializer.writeString(os, entry.getKey());
+			os.writeInt(entry.getValue().size());
+
+			for (EntrypointMetadata entrypoint : entry.getValue()) {
+				ModMetadataSerializer.writeString(os, entrypoint.getAdapter());
+				ModMetadataSerializer.writeString(os, entrypoint.getValue());
+			}
+		}
+
+		os.writeInt(jars.size());
+
+		for (NestedJarEntry jar : jars) {
+			ModMetadataSerializer.writeString(os, jar.getFile());
+		}
+
+		os.writeInt(mixins.size());
+
+		for (MixinEntry mixin : mixins) {
+			ModMetadataSerializer.writeString(os, mixin.config);
+			os.writeByte(mixin.environment.ordinal());
+		}
+
+		ModMetadataSerializer.writeNullableString(os, accessWidener);
+
+		os.writeInt(dependencies.size());
+
+		for (ModDependency dep : dependencies) {
+			os.writeByte(dep.getKind().ordinal());
+			ModMetadataSerializer.writeString(os, dep.getModId());
+			ModMetadataSerializer.writeStrings(os, ((ModDependencyImpl) dep).getMatcherStrings());
+		}
+
+		os.writeBoolean(hasRequires);
+		ModMetadataSerializer.writeNullableString(os, name);
+		ModMetadataSerializer.writeString(os, description);
+		writePeople(os, authors);
+		writePeople(os, contributors);
+		ModMetadataSerializer.writeStringMap(os, contact.asMap());
+		ModMetadataSerializer.writeStrings(os, license);
+
+		if (icon instanceof Single) {
+			os.writeInt(-1);
+			ModMetadataSerializer.writeString(os, ((Single) icon).icon);
+		} else if (icon instanceof MapEntry) {
+			SortedMap<Integer, String> icons = ((MapEntry) icon).icons;
+			os.writeInt(icons.size());
+
+			for (Map.Entry<Integer, String> entry : icons.entrySet()) {
+				os.writeInt(entry.getKey());
+				ModMetadataSerializer.writeString(os, entry.getValue());
+			}
+		} else {
+			os.writeInt(0);
+		}
+
+		ModMetadataSerializer.writeStringMap(os, languageAdapters);
+
+		os.writeInt(customValues.size());
+
+		for (Map.Entry<String, CustomValue> entry : customValues.entrySet()) {
+			ModMetadataSerializer.writeString(os, entry.getKey());
+			CustomValueImpl.writeCustomValue(os, entry.getValue());
+		}
+	}
+
+	static V1ModMetadata read(DataInputStream is) throws IOException {
+		try {
+			String id = ModMetadataSerializer.readString(is);
+			Version version = VersionParser.parse(ModMetadataSerializer.readString(is), false);
+			List<String> provides = ModMetadataSerializer.readStrings(is);
+			ModEnvironment environment = ModEnvironment.values()[is.readUnsignedByte()];
+
+			int count = is.readInt();
+			Map<String, List<EntrypointMetadata>> entrypoints = new HashMap<>(count);
+
+			for (int i = 0; i < count; i++) {
+				String key = ModMetadataSerializer.readString(is);
+				int entrypointCount = is.readInt();
+				List<EntrypointMetadata> values = new ArrayList<>(entrypointCount);
+
+				for (int j = 0; j < entrypointCount; j++) {
+					values.add(new EntrypointMetadataImpl(ModMetadataSerializer.readString(is), ModMetadataSerializer.readString(is)));
+				}
+
+				entrypoints.put(key, values);
+			}
+
+			count = is.readInt();
+			List<NestedJarEntry> jars = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				jars.add(new JarEntry(ModMetadataSerializer.readString(is)));
+			}
+
+			count = is.readInt();
+			List<MixinEntry> mixins = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				mixins.add(new MixinEntry(ModMetadataSerializer.readString(is), ModEnvironment.values()[is.readUnsignedByte()]));
+			}
+
+			String accessWidener = ModMetadataSerializer.readNullableString(is);
+
+			count = is.readInt();
+			List<ModDependency> dependencies = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				ModDependency.Kind kind = ModDependency.Kind.values()[is.readUnsignedByte()];
+				dependencies.add(new ModDependencyImpl(kind, ModMetadataSerializer.readString(is), ModMetadataSerializer.readStrings(is)));
+			}
+
+			boolean hasRequires = is.readBoolean();
+			String name = ModMetadataSerializer.readNullableString(is);
+			String description = ModMetadataSerializer.readString(is);
+			List<Person> authors = readPeople(is);
+			List<Person> contributors = readPeople(is);
+			Map<String, String> contact = ModMetadataSerializer.readStringMap(is);
+			List<String> license = ModMetadataSerializer.readStrings(is);
+
+			IconEntry icon;
+			count = is.readInt();
+
+			if (count < 0) {
+				icon = new Single(ModMetadataSerializer.readString(is));
+			} else if (count > 0) {
+				SortedMap<Integer, String> icons = new TreeMap<>();
+
+				for (int i = 0; i < count; i++) {
+					icons.put(is.readInt(), ModMetadataSerializer.readString(is));
+				}
+
+				icon = new MapEntry(icons);
+			} else {
+				icon = null;
+			}
+
+			Map<String, String> languageAdapters = ModMetadataSerializer.readStringMap(is);
+
+			count = is.readInt();
+			Map<String, CustomValue> customValues = new LinkedHashMap<>(count);
+
+			for (int i = 0; i < count; i++) {
+				customValues.put(ModMetadataSerializer.readString(is), CustomValueImpl.readCustomValue(is));
+			}
+
+			return new V1ModMetadata(id, version, provides,
+					environment, entrypoints, jars, mixins, accessWidener,
+					dependencies, hasRequires,
+					name, description, authors, contributors, contact.isEmpty() ? null : new ContactInformationImpl(contact), license, icon,
+					languageAdapters, customValues);
+		} catch (VersionParsingException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static void writePeople(DataOutputStream os, Collection<Person> people) throws IOException {
+		os.writeInt(people.size());
+
+		for (Person person : people) {
+			ModMetadataSerializer.writeString(os, person.getName());
+			ModMetadataSerializer.writeStringMap(os, person.getContact().asMap());
+		}
+	}
+
+	private static List<Person> readPeople(DataInputStream is) throws IOException {
+		int count = is.readInt();
+		List<Person> ret = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			String name = ModMetadataSerializer.readString(is);
+			Map<String, String> contact = ModMetadataSerializer.readStringMap(is);
+
+			ret.add(contact.isEmpty() ? new SimplePerson(name) : new ContactInfoBackedPerson(name, new ContactInformationImpl(contact)));
+		}
+
+		return ret;
+	}
+
 	static final class EntrypointMetadataImpl implements EntrypointMetadata {
 		private final String adapter;
 		private final String value;
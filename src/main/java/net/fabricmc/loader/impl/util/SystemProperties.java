@@ -58,8 +58,14 @@ public final class SystemProperties {
 	public static final String DEBUG_LOAD_LATE = "fabric.debug.loadLate";
 	// override the mod discovery timeout, unit in seconds, <= 0 to disable
 	public static final String DEBUG_DISCOVERY_TIMEOUT = "fabric.debug.discoveryTimeout";
+	// always analyze every mod jar instead of reusing the results of the last launch for unchanged jars
+	public static final String DEBUG_DISABLE_DISCOVERY_CACHE = "fabric.debug.disableDiscoveryCache";
+	// always extract nested mod jars instead of loading uncompressed ones from within their parent jar
+	public static final String DEBUG_DISABLE_IN_PLACE_NESTED_JARS = "fabric.debug.disableInPlaceNestedJars";
 	// override the mod resolution timeout, unit in seconds, <= 0 to disable
 	public static final String DEBUG_RESOLUTION_TIMEOUT = "fabric.debug.resolutionTimeout";
+	// always solve the mod set instead of reusing the resolution of the last launch with the same mods
+	public static final String DEBUG_DISABLE_RESOLUTION_CACHE = "fabric.debug.disableResolutionCache";
 	// replace mod versions (modA:versionA,modB:versionB,...)
 	public static final String DEBUG_REPLACE_VERSION = "fabric.debug.replaceVersion";
 	// whether fabric loader is running in a unit test, this affects logging classpath setup
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.nestedjar;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+import net.fabricmc.loader.impl.util.nestedjar.NestedJarFileSystem.Entry;
+
+/**
+ * Url handler for {@link NestedJarFileSystem#SCHEME} urls, found by the JVM through its package name.
+ *
+ * <p>Class loaders look up every class and resource in every code source url, so a missing entry has to be cheap.
+ */
+public final class Handler extends URLStreamHandler {
+	@Override
+	protected URLConnection openConnection(URL url) {
+		return new Connection(url);
+	}
+
+	private static final class Connection extends URLConnection {
+		private NestedJarFileSystem fs;
+		private Entry entry;
+
+		Connection(URL url) {
+			super(url);
+		}
+
+		@Override
+		public void connect() throws IOException {
+			if (connected) return;
+
+			String path = url.getPath();
+			int pos = path.lastIndexOf("!/");
+
+			if (pos >= 0 && path.indexOf('%') >= 0) { // escaped characters
+				try {
+					path = url.toURI().getPath();
+					pos = path.lastIndexOf("!/");
+				} catch (URISyntaxException e) {
+					throw new IOException(e);
+				}
+			}
+
+			fs = pos >= 0 ? NestedJarFileSystem.getFileSystem(path.substring(0, pos)) : null;
+			entry = fs != null && fs.isOpen() ? fs.getEntry(path.substring(pos + 1)) : null;
+			if (entry == null) throw new NotFoundException(url);
+
+			connected = true;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			connect();
+
+			if (entry.isDirectory) return new ByteArrayInputStream(new byte[0]);
+
+			return fs.newInputStream(entry);
+		}
+
+		@Override
+		public int getContentLength() {
+			long ret = getContentLengthLong();
+
+			return ret <= Integer.MAX_VALUE ? (int) ret : -1;
+		}
+
+		@Override
+		public long getContentLengthLong() {
+			try {
+				connect();
+			} catch (IOException e) {
+				return -1;
+			}
+
+			return entry.size();
+		}
+
+		@Override
+		public long getLastModified() {
+			try {
+				connect();
+			} catch (IOException e) {
+				return 0;
+			}
+
+			return entry.lastModified;
+		}
+	}
+
+	/**
+	 * Thrown for every missing class in every nested jar on the class path, so without a stack trace.
+	 */
+	private static final class NotFoundException extends FileNotFoundException {
+		private static final long serialVersionUID = 1L;
+
+		private final URL url;
+
+		NotFoundException(URL url) {
+			this.url = url;
+		}
+
+		@Override
+		public String getMessage() {
+			return url.toString();
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+}
@@ -0,0 +1,855 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.nestedjar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+/**
+ * Read-only file system for a jar stored uncompressed inside another jar, read directly from the outer jar file.
+ *
+ * <p>This lets nested mods be used without extracting them first. Their paths and urls behave like those of an
+ * extracted jar's root directory, urls are handled by {@link Handler}. Only plain zip files are supported, anything
+ * else like compressed nested jars or zip64 has to be extracted.
+ *
+ * <p>The file systems keep a channel on the outer jar open until {@link #closeAll()}. They are keyed by the outer
+ * jar's size, modification time and file key as well, a replaced jar is opened as a new file system.
+ */
+public final class NestedJarFileSystem extends FileSystem {
+	public static final String SCHEME = "nestedjar";
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_SIZE = 22;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+
+	private static final Map<String, NestedJarFileSystem> fileSystems = new ConcurrentHashMap<>();
+	private static volatile Boolean supported;
+
+	private final String key;
+	private final Path file;
+	private final FileChannel channel;
+	private final long offset;
+	private final Map<String, Entry> entries;
+	private final NestedJarPath root;
+	private volatile boolean open = true;
+
+	private NestedJarFileSystem(String key, Path file, FileChannel channel, long offset, Map<String, Entry> entries) {
+		this.key = key;
+		this.file = file;
+		this.channel = channel;
+		this.offset = offset;
+		this.entries = entries;
+		this.root = new NestedJarPath(this, "/");
+	}
+
+	/**
+	 * @return whether nested jars can be opened, which requires the url handler and file system provider to be
+	 * reachable by the JVM
+	 */
+	public static boolean isSupported() {
+		Boolean ret = supported;
+
+		if (ret == null) {
+			synchronized (NestedJarFileSystem.class) {
+				ret = supported;
+
+				if (ret == null) {
+					supported = ret = registerHandlers();
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	private static boolean registerHandlers() {
+		// the jvm looks up <package prefix>.<protocol>.Handler for unknown url protocols
+		String handlerPackage = NestedJarFileSystem.class.getPackage().getName();
+		String prefix = handlerPackage.substring(0, handlerPackage.length() - SCHEME.length() - 1);
+
+		try {
+			String prefixes = System.getProperty("java.protocol.handler.pkgs");
+
+			if (prefixes == null || prefixes.isEmpty()) {
+				System.setProperty("java.protocol.handler.pkgs", prefix);
+			} else if (!prefixes.contains(prefix)) {
+				System.setProperty("java.protocol.handler.pkgs", prefixes + "|" + prefix);
+			}
+
+			new URL(SCHEME + ":/");
+		} catch (MalformedURLException | SecurityException e) {
+			return false;
+		}
+
+		for (FileSystemProvider provider : FileSystemProvider.installedProviders()) {
+			if (provider.getScheme().equals(SCHEME)) return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Opens a jar nested in another jar without extracting it.
+	 *
+	 * @param jar the outer jar, either a jar file or the root of another nested jar
+	 * @param localPath the path of the nested jar inside the outer jar
+	 * @return the root directory of the nested jar, or null if it has to be extracted to be read
+	 */
+	public static Path open(Path jar, String localPath) throws IOException {
+		if (!isSupported()) return null;
+
+		String key;
+		Path file;
+		long offset;
+		long size;
+		Entry entry;
+
+		if (jar.getFileSystem() instanceof NestedJarFileSystem) {
+			if (!isRoot(jar)) return null;
+
+			NestedJarFileSystem parent = (NestedJarFileSystem) jar.getFileSystem();
+
+			key = parent.key + "!/" + localPath;
+			NestedJarFileSystem ret = fileSystems.get(key);
+			if (ret != null) return ret.root;
+
+			entry = parent.entries.get(localPath);
+			if (entry == null) throw new ZipException("can't find "+localPath+" in "+parent);
+			if (entry.method != METHOD_STORED || entry.compressedSize != entry.size) return null;
+
+			file = parent.file;
+			offset = parent.offset + parent.getDataOffset(entry);
+			size = entry.size;
+		} else {
+			if (jar.getFileSystem() != FileSystems.getDefault()) return null;
+
+			jar = jar.toAbsolutePath().normalize();
+			key = jar.toUri().getPath() + "!" + getStamp(jar) + "!/" + localPath;
+			NestedJarFileSystem ret = fileSystems.get(key);
+			if (ret != null) return ret.root;
+
+			try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+				Map<String, Entry> outerEntries = readEntries(channel, 0, channel.size());
+				if (outerEntries == null) return null;
+
+				entry = outerEntries.get(localPath);
+				if (entry == null) throw new ZipException("can't find "+localPath+" in "+jar);
+				if (entry.method != METHOD_STORED || entry.compressedSize != entry.size) return null;
+
+				offset = readDataOffset(channel, 0, entry);
+				size = entry.size;
+			}
+
+			file = jar;
+		}
+
+		synchronized (fileSystems) {
+			NestedJarFileSystem ret = fileSystems.get(key);
+			if (ret != null) return ret.root;
+
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+			try {
+				if (!key.startsWith(file.toUri().getPath() + "!" + getStamp(file) + "!/")) throw new IOException(file+" changed while opening "+localPath);
+				if (offset + size > channel.size()) throw new EOFException("truncated jar "+file);
+
+				Map<String, Entry> entries = readEntries(channel, offset, size);
+
+				if (entries == null) {
+					channel.close();
+					return null;
+				}
+
+				ret = new NestedJarFileSystem(key, file, channel, offset, entries);
+				fileSystems.put(key, ret);
+
+				return ret.root;
+			} catch (Throwable t) {
+				channel.close();
+				throw t;
+			}
+		}
+	}
+
+	/**
+	 * Closes all nested jar file systems and their channels, so the outer jars can be replaced.
+	 *
+	 * <p>Paths and urls of the closed file systems can't be used afterwards, opening the same nested jar again
+	 * creates a new file system.
+	 */
+	public static void closeAll() {
+		for (NestedJarFileSystem fs : fileSystems.values()) {
+			try {
+				fs.close();
+			} catch (IOException e) {
+				Log.warn(LogCategory.GENERAL, "Error closing nested jar %s", fs.key, e);
+			}
+		}
+	}
+
+	/**
+	 * @return the version of a jar file as part of the file system key, so a replaced jar never gets the file
+	 * system of its predecessor
+	 */
+	private static String getStamp(Path file) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		String ret = Long.toHexString(attrs.size()) + "-" + Long.toHexString(attrs.lastModifiedTime().toMillis());
+		Object fileKey = attrs.fileKey(); // inode where available, changes when the jar is replaced by a move
+
+		return fileKey != null ? ret + "-" + Integer.toHexString(fileKey.hashCode()) : ret;
+	}
+
+	/**
+	 * @return whether the path is the root directory of a nested jar
+	 */
+	public static boolean isRoot(Path path) {
+		return path.getFileSystem() instanceof NestedJarFileSystem
+				&& path.equals(((NestedJarFileSystem) path.getFileSystem()).root);
+	}
+
+	static NestedJarFileSystem getFileSystem(URI uri) {
+		String key = getKey(uri);
+		return key != null ? fileSystems.get(key) : null;
+	}
+
+	static NestedJarFileSystem getFileSystem(String key) {
+		return fileSystems.get(key);
+	}
+
+	/**
+	 * @return the file system part of a uri path, the remainder is the path inside the file system
+	 */
+	static String getKey(URI uri) {
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme())) return null;
+
+		String path = uri.getPath();
+		if (path == null) return null;
+
+		int pos = path.lastIndexOf("!/");
+
+		return pos >= 0 ? path.substring(0, pos) : null;
+	}
+
+	static String getLocalPath(URI uri) {
+		String path = uri.getPath();
+
+		return path.substring(path.lastIndexOf("!/") + 1);
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	NestedJarPath getRoot() {
+		return root;
+	}
+
+	URI toUri(String path) {
+		try {
+			return new URI(SCHEME, null, key + "!" + path, null);
+		} catch (URISyntaxException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @param path absolute normalized path, optionally with a trailing slash
+	 */
+	Entry getEntry(String path) {
+		ensureOpen();
+
+		int end = path.length() > 1 && path.endsWith("/") ? path.length() - 1 : path.length();
+
+		return entries.get(path.substring(1, end));
+	}
+
+	InputStream newInputStream(Entry entry) throws IOException {
+		ensureOpen();
+
+		return new EntryInputStream(channel, offset + getDataOffset(entry), entry);
+	}
+
+	byte[] readAllBytes(Entry entry) throws IOException {
+		if (entry.size > Integer.MAX_VALUE - 8) throw new IOException("entry too large: "+entry.name);
+
+		byte[] ret = new byte[(int) entry.size];
+		int pos = 0;
+
+		try (InputStream is = newInputStream(entry)) {
+			int len;
+
+			while (pos < ret.length && (len = is.read(ret, pos, ret.length - pos)) > 0) {
+				pos += len;
+			}
+		}
+
+		if (pos != ret.length) throw new EOFException("truncated entry "+entry.name);
+
+		return ret;
+	}
+
+	void ensureOpen() {
+		if (!open) throw new ClosedFileSystemException();
+	}
+
+	private long getDataOffset(Entry entry) throws IOException {
+		long ret = entry.dataOffset;
+
+		if (ret < 0) {
+			entry.dataOffset = ret = readDataOffset(channel, offset, entry);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Reads the central directory of a zip file.
+	 *
+	 * @return the entries by their name without trailing slash, including implicit directories, or null if the zip
+	 * file uses features that aren't supported here
+	 */
+	private static Map<String, Entry> readEntries(FileChannel channel, long offset, long size) throws IOException {
+		// find the end of central directory record, which is followed by a comment of up to 64k
+
+		int tailSize = (int) Math.min(size, END_SIZE + 0xffff);
+		ByteBuffer tail = read(channel, offset + size - tailSize, tailSize);
+		int endPos = -1;
+
+		for (int pos = tailSize - END_SIZE; pos >= 0; pos--) {
+			if (tail.getInt(pos) == END_SIGNATURE
+					&& pos + END_SIZE + (tail.getShort(pos + 20) & 0xffff) == tailSize) {
+				endPos = pos;
+				break;
+			}
+		}
+
+		if (endPos < 0) throw new ZipException("zip END header not found");
+
+		int count = tail.getShort(endPos + 10) & 0xffff;
+		long cenSize = tail.getInt(endPos + 12) & 0xffffffffL;
+		long cenOffset = tail.getInt(endPos + 16) & 0xffffffffL;
+
+		if (count == 0xffff || cenSize == 0xffffffffL || cenOffset == 0xffffffffL) return null; // zip64
+
+		// data prepended to the zip file shifts all offsets
+
+		long cenPos = size - tailSize + endPos - cenSize;
+		long shift = cenPos - cenOffset;
+		if (cenPos < 0 || shift < 0 || cenSize > Integer.MAX_VALUE) throw new ZipException("invalid zip END header");
+
+		ByteBuffer cen = read(channel, offset + cenPos, (int) cenSize);
+		Map<String, Entry> ret = new HashMap<>(count * 2);
+		ret.put("", new Entry("", true));
+		int pos = 0;
+
+		for (int i = 0; i < count; i++) {
+			if (pos + CENTRAL_HEADER_SIZE > cen.limit() || cen.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("invalid zip CEN header");
+			}
+
+			int flags = cen.getShort(pos + 8) & 0xffff;
+			int method = cen.getShort(pos + 10) & 0xffff;
+			int time = cen.getShort(pos + 12) & 0xffff;
+			int date = cen.getShort(pos + 14) & 0xffff;
+			long compressedSize = cen.getInt(pos + 20) & 0xffffffffL;
+			long entrySize = cen.getInt(pos + 24) & 0xffffffffL;
+			int nameLen = cen.getShort(pos + 28) & 0xffff;
+			int extraLen = cen.getShort(pos + 30) & 0xffff;
+			int commentLen = cen.getShort(pos + 32) & 0xffff;
+			long localOffset = cen.getInt(pos + 42) & 0xffffffffL;
+
+			if ((flags & 1) != 0 // encrypted
+					|| method != METHOD_STORED && method != METHOD_DEFLATED
+					|| compressedSize == 0xffffffffL || entrySize == 0xffffffffL || localOffset == 0xffffffffL) {
+				return null;
+			}
+
+			if (pos + CENTRAL_HEADER_SIZE + nameLen > cen.limit()) throw new ZipException("invalid zip CEN header");
+
+			byte[] nameBytes = new byte[nameLen];
+			cen.position(pos + CENTRAL_HEADER_SIZE);
+			cen.get(nameBytes);
+			String name = new String(nameBytes, StandardCharsets.UTF_8);
+			boolean isDirectory = name.endsWith("/");
+
+			while (name.endsWith("/")) {
+				name = name.substring(0, name.length() - 1);
+			}
+
+			while (name.startsWith("/")) {
+				name = name.substring(1);
+			}
+
+			if (!name.isEmpty() && !ret.containsKey(name)) {
+				Entry entry = new Entry(name, isDirectory);
+				entry.method = method;
+				entry.compressedSize = compressedSize;
+				entry.size = entrySize;
+				entry.localOffset = localOffset + shift;
+				entry.lastModified = dosToJavaTime(date, time);
+				ret.put(name, entry);
+			}
+
+			pos += CENTRAL_HEADER_SIZE + nameLen + extraLen + commentLen;
+		}
+
+		// link the entries to their parent directories, creating missing ones
+
+		for (Entry entry : new ArrayList<>(ret.values())) {
+			Entry child = entry;
+
+			while (!child.name.isEmpty()) {
+				int nameStart = child.name.lastIndexOf('/');
+				String parentName = nameStart >= 0 ? child.name.substring(0, nameStart) : "";
+				Entry parent = ret.get(parentName);
+				boolean exists = parent != null;
+
+				if (!exists) {
+					parent = new Entry(parentName, true);
+					ret.put(parentName, parent);
+				} else if (!parent.isDirectory) {
+					break; // file in the way, keep it and drop the child from the listing
+				}
+
+				if (parent.children == null) parent.children = new ArrayList<>();
+				parent.children.add(child.name.substring(nameStart + 1));
+
+				if (exists) break;
+				child = parent;
+			}
+		}
+
+		return ret;
+	}
+
+	private static long readDataOffset(FileChannel channel, long offset, Entry entry) throws IOException {
+		ByteBuffer header = read(channel, offset + entry.localOffset, LOCAL_HEADER_SIZE);
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) throw new ZipException("invalid zip LOC header for "+entry.name);
+
+		return entry.localOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long pos, int len) throws IOException {
+		ByteBuffer ret = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+
+		while (ret.hasRemaining()) {
+			if (channel.read(ret, pos + ret.position()) < 0) throw new EOFException();
+		}
+
+		ret.flip();
+
+		return ret;
+	}
+
+	private static long dosToJavaTime(int date, int time) {
+		if (date == 0) return 0;
+
+		try {
+			return LocalDateTime.of((date >> 9) + 1980, (date >> 5) & 0xf, date & 0x1f, time >> 11, (time >> 5) & 0x3f, (time & 0x1f) * 2)
+					.atZone(ZoneId.systemDefault())
+					.toInstant()
+					.toEpochMilli();
+		} catch (RuntimeException e) { // invalid date
+			return 0;
+		}
+	}
+
+	@Override
+	public FileSystemProvider provider() {
+		return NestedJarFileSystemProvider.INSTANCE;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!open) return;
+
+		open = false;
+		fileSystems.remove(key, this);
+		channel.close();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public String getSeparator() {
+		return "/";
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		return Collections.singletonList(root);
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		return Collections.singleton("basic");
+	}
+
+	@Override
+	public Path getPath(String first, String... more) {
+		if (more.length == 0) return new NestedJarPath(this, first);
+
+		StringBuilder sb = new StringBuilder(first);
+
+		for (String s : more) {
+			if (s.isEmpty()) continue;
+			if (sb.length() > 0) sb.append('/');
+			sb.append(s);
+		}
+
+		return new NestedJarPath(this, sb.toString());
+	}
+
+	@Override
+	public PathMatcher getPathMatcher(String syntaxAndPattern) {
+		int pos = syntaxAndPattern.indexOf(':');
+		if (pos <= 0) throw new IllegalArgumentException("invalid syntax and pattern: "+syntaxAndPattern);
+
+		String syntax = syntaxAndPattern.substring(0, pos);
+		String pattern = syntaxAndPattern.substring(pos + 1);
+		Pattern regex;
+
+		if (syntax.equalsIgnoreCase("regex")) {
+			regex = Pattern.compile(pattern);
+		} else if (syntax.equalsIgnoreCase("glob")) {
+			regex = Pattern.compile(globToRegex(pattern));
+		} else {
+			throw new UnsupportedOperationException("unsupported path matcher syntax: "+syntax);
+		}
+
+		return path -> regex.matcher(path.toString()).matches();
+	}
+
+	private static String globToRegex(String glob) {
+		StringBuilder ret = new StringBuilder(glob.length() + 8);
+		boolean inGroup = false;
+
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+
+			switch (c) {
+			case '\\':
+				if (++i >= glob.length()) throw new IllegalArgumentException("trailing escape in glob "+glob);
+				ret.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+				break;
+			case '*':
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					ret.append(".*");
+					i++;
+				} else {
+					ret.append("[^/]*");
+				}
+
+				break;
+			case '?':
+				ret.append("[^/]");
+				break;
+			case '[': {
+				int end = glob.indexOf(']', i + 2);
+				if (end < 0) throw new IllegalArgumentException("unclosed bracket in glob "+glob);
+
+				String chars = glob.substring(i + 1, end).replace("\\", "\\\\").replace("[", "\\[");
+				ret.append('[').append(chars.startsWith("!") ? "^" + chars.substring(1) : chars).append(']');
+				i = end;
+				break;
+			}
+			case '{':
+				if (inGroup) throw new IllegalArgumentException("nested group in glob "+glob);
+				ret.append("(?:");
+				inGroup = true;
+				break;
+			case '}':
+				if (!inGroup) {
+					ret.append("\\}");
+				} else {
+					ret.append(')');
+					inGroup = false;
+				}
+
+				break;
+			case ',':
+				ret.append(inGroup ? "|" : ",");
+				break;
+			default:
+				ret.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+
+		if (inGroup) throw new IllegalArgumentException("unclosed group in glob "+glob);
+
+		return ret.toString();
+	}
+
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WatchService newWatchService() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String toString() {
+		return key;
+	}
+
+	static final class Entry implements BasicFileAttributes {
+		final String name;
+		final boolean isDirectory;
+		int method;
+		long compressedSize;
+		long size;
+		long localOffset;
+		volatile long dataOffset = -1;
+		long lastModified;
+		List<String> children;
+
+		Entry(String name, boolean isDirectory) {
+			this.name = name;
+			this.isDirectory = isDirectory;
+		}
+
+		List<String> getChildren() {
+			return children != null ? children : Collections.emptyList();
+		}
+
+		@Override
+		public FileTime lastModifiedTime() {
+			return FileTime.fromMillis(lastModified);
+		}
+
+		@Override
+		public FileTime lastAccessTime() {
+			return lastModifiedTime();
+		}
+
+		@Override
+		public FileTime creationTime() {
+			return lastModifiedTime();
+		}
+
+		@Override
+		public boolean isRegularFile() {
+			return !isDirectory;
+		}
+
+		@Override
+		public boolean isDirectory() {
+			return isDirectory;
+		}
+
+		@Override
+		public boolean isSymbolicLink() {
+			return false;
+		}
+
+		@Override
+		public boolean isOther() {
+			return false;
+		}
+
+		@Override
+		public long size() {
+			return isDirectory ? 0 : size;
+		}
+
+		@Override
+		public Object fileKey() {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads an entry straight from the outer jar file, the inflater is only created once the entry is actually read.
+	 */
+	private static final class EntryInputStream extends InputStream {
+		private final FileChannel channel;
+		private final boolean deflated;
+		private long pos;
+		private long compressedRemaining;
+		private long remaining;
+		private Inflater inflater;
+		private byte[] buffer;
+		private boolean inputEnd;
+		private boolean closed;
+
+		EntryInputStream(FileChannel channel, long pos, Entry entry) {
+			this.channel = channel;
+			this.deflated = entry.method == METHOD_DEFLATED;
+			this.pos = pos;
+			this.compressedRemaining = entry.compressedSize;
+			this.remaining = entry.size;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+
+			return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (closed) throw new ClosedChannelException();
+			if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+			if (len == 0) return 0;
+			if (remaining <= 0) return -1;
+
+			int ret = deflated ? inflate(b, off, len) : readRaw(b, off, (int) Math.min(len, remaining));
+			if (ret > 0) remaining -= ret;
+
+			return ret;
+		}
+
+		private int readRaw(byte[] b, int off, int len) throws IOException {
+			if (compressedRemaining <= 0) return -1;
+
+			int ret = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, compressedRemaining)), pos);
+
+			if (ret > 0) {
+				pos += ret;
+				compressedRemaining -= ret;
+			} else if (ret < 0) {
+				throw new EOFException("unexpected end of jar file");
+			}
+
+			return ret;
+		}
+
+		private int inflate(byte[] b, int off, int len) throws IOException {
+			if (inflater == null) {
+				inflater = new Inflater(true);
+				buffer = new byte[(int) Math.min(8192, compressedRemaining + 1)];
+			}
+
+			try {
+				int ret;
+
+				while ((ret = inflater.inflate(b, off, len)) == 0) {
+					if (inflater.finished() || inflater.needsDictionary()) return -1;
+
+					if (inflater.needsInput()) {
+						if (inputEnd) throw new EOFException("unexpected end of ZLIB input stream");
+
+						int read = readRaw(buffer, 0, buffer.length);
+
+						if (read < 0) {
+							// the raw inflater may need an extra dummy byte, see ZipFile
+							buffer[0] = 0;
+							read = 1;
+							inputEnd = true;
+						}
+
+						inflater.setInput(buffer, 0, read);
+					}
+				}
+
+				return ret;
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			if (n <= 0) return 0;
+
+			if (!deflated) {
+				long ret = Math.min(n, Math.min(remaining, compressedRemaining));
+				pos += ret;
+				compressedRemaining -= ret;
+				remaining -= ret;
+
+				return ret;
+			}
+
+			return super.skip(n);
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(remaining, Integer.MAX_VALUE);
+		}
+
+		@Override
+		public void close() {
+			if (closed) return;
+
+			closed = true;
+			if (inflater != null) inflater.end();
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.nestedjar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.fabricmc.loader.impl.util.nestedjar.NestedJarFileSystem.Entry;
+
+/**
+ * Provider for {@link NestedJarFileSystem}, registered as a service so nested jar uris can be turned into paths.
+ *
+ * <p>The file systems can't be created through the provider, they are opened with {@link NestedJarFileSystem#open}.
+ */
+public final class NestedJarFileSystemProvider extends FileSystemProvider {
+	static final NestedJarFileSystemProvider INSTANCE = new NestedJarFileSystemProvider();
+
+	@Override
+	public String getScheme() {
+		return NestedJarFileSystem.SCHEME;
+	}
+
+	@Override
+	public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+		if (NestedJarFileSystem.getFileSystem(uri) != null) throw new FileSystemAlreadyExistsException(uri.toString());
+
+		throw new UnsupportedOperationException("nested jar file systems can only be opened by the loader");
+	}
+
+	@Override
+	public FileSystem getFileSystem(URI uri) {
+		FileSystem ret = NestedJarFileSystem.getFileSystem(uri);
+		if (ret == null) throw new FileSystemNotFoundException(uri.toString());
+
+		return ret;
+	}
+
+	@Override
+	public Path getPath(URI uri) {
+		NestedJarFileSystem fs = NestedJarFileSystem.getFileSystem(uri);
+		if (fs == null) throw new FileSystemNotFoundException(uri.toString());
+
+		return fs.getPath(NestedJarFileSystem.getLocalPath(uri));
+	}
+
+	private static NestedJarPath toNestedPath(Path path) {
+		if (!(path instanceof NestedJarPath)) throw new ProviderMismatchException();
+
+		return (NestedJarPath) path;
+	}
+
+	private static Entry getEntry(Path path) throws NoSuchFileException {
+		Entry ret = toNestedPath(path).getEntry();
+		if (ret == null) throw new NoSuchFileException(path.toString());
+
+		return ret;
+	}
+
+	@Override
+	public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
+		for (OpenOption option : options) {
+			if (option == StandardOpenOption.WRITE || option == StandardOpenOption.APPEND) throw new ReadOnlyFileSystemException();
+		}
+
+		Entry entry = getEntry(path);
+		if (entry.isDirectory) throw new IOException(path+" is a directory");
+
+		return toNestedPath(path).getFileSystem().newInputStream(entry);
+	}
+
+	@Override
+	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+		for (OpenOption option : options) {
+			if (option != StandardOpenOption.READ && option != LinkOption.NOFOLLOW_LINKS) throw new ReadOnlyFileSystemException();
+		}
+
+		Entry entry = getEntry(path);
+		if (entry.isDirectory) throw new IOException(path+" is a directory");
+
+		return new ByteArrayChannel(toNestedPath(path).getFileSystem().readAllBytes(entry));
+	}
+
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+		Entry entry = getEntry(dir);
+		if (!entry.isDirectory) throw new NotDirectoryException(dir.toString());
+
+		List<Path> children = new ArrayList<>(entry.getChildren().size());
+
+		for (String name : entry.getChildren()) {
+			Path child = dir.resolve(name);
+			if (filter == null || filter.accept(child)) children.add(child);
+		}
+
+		return new DirectoryStream<Path>() {
+			private boolean iterated;
+
+			@Override
+			public Iterator<Path> iterator() {
+				if (iterated) throw new IllegalStateException("already iterated");
+
+				iterated = true;
+
+				return children.iterator();
+			}
+
+			@Override
+			public void close() { }
+		};
+	}
+
+	@Override
+	public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void delete(Path path) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void copy(Path source, Path target, CopyOption... options) {
+		throw new ReadOnlyFileSystemException(); // only called within the same file system
+	}
+
+	@Override
+	public void move(Path source, Path target, CopyOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public boolean isSameFile(Path path, Path path2) {
+		return toNestedPath(path).toAbsolutePath().normalize().equals(path2.toAbsolutePath().normalize());
+	}
+
+	@Override
+	public boolean isHidden(Path path) {
+		return false;
+	}
+
+	@Override
+	public FileStore getFileStore(Path path) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		getEntry(path);
+
+		for (AccessMode mode : modes) {
+			if (mode != AccessMode.READ) throw new AccessDeniedException(path.toString());
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+		if (type != BasicFileAttributeView.class) return null;
+
+		NestedJarPath nestedPath = toNestedPath(path);
+
+		return (V) new BasicFileAttributeView() {
+			@Override
+			public String name() {
+				return "basic";
+			}
+
+			@Override
+			public BasicFileAttributes readAttributes() throws IOException {
+				return getEntry(nestedPath);
+			}
+
+			@Override
+			public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+				throw new ReadOnlyFileSystemException();
+			}
+		};
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException {
+		if (!type.isAssignableFrom(Entry.class)) throw new UnsupportedOperationException("unsupported attributes "+type);
+
+		return (A) getEntry(path);
+	}
+
+	@Override
+	public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+		int pos = attributes.indexOf(':');
+
+		if (pos >= 0) {
+			if (!attributes.substring(0, pos).equals("basic")) throw new UnsupportedOperationException("unsupported attributes "+attributes);
+			attributes = attributes.substring(pos + 1);
+		}
+
+		Entry entry = getEntry(path);
+		Map<String, Object> ret = new HashMap<>();
+
+		for (String name : attributes.split(",")) {
+			boolean all = name.equals("*");
+
+			if (all || name.equals("lastModifiedTime")) ret.put("lastModifiedTime", entry.lastModifiedTime());
+			if (all || name.equals("lastAccessTime")) ret.put("lastAccessTime", entry.lastAccessTime());
+			if (all || name.equals("creationTime")) ret.put("creationTime", entry.creationTime());
+			if (all || name.equals("size")) ret.put("size", entry.size());
+			if (all || name.equals("isRegularFile")) ret.put("isRegularFile", entry.isRegularFile());
+			if (all || name.equals("isDirectory")) ret.put("isDirectory", entry.isDirectory());
+			if (all || name.equals("isSymbolicLink")) ret.put("isSymbolicLink", entry.isSymbolicLink());
+			if (all || name.equals("isOther")) ret.put("isOther", entry.isOther());
+			if (all || name.equals("fileKey")) ret.put("fileKey", entry.fileKey());
+		}
+
+		return ret;
+	}
+
+	@Override
+	public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	private static final class ByteArrayChannel implements SeekableByteChannel {
+		private final byte[] data;
+		private int position;
+		private boolean open = true;
+
+		ByteArrayChannel(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			ensureOpen();
+			if (position >= data.length) return -1;
+
+			int len = Math.min(dst.remaining(), data.length - position);
+			dst.put(data, position, len);
+			position += len;
+
+			return len;
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long position() throws IOException {
+			ensureOpen();
+
+			return position;
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) throws IOException {
+			ensureOpen();
+			if (newPosition < 0) throw new IllegalArgumentException();
+
+			position = (int) Math.min(newPosition, data.length);
+
+			return this;
+		}
+
+		@Override
+		public long size() throws IOException {
+			ensureOpen();
+
+			return data.length;
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+
+		private void ensureOpen() throws ClosedChannelException {
+			if (!open) throw new ClosedChannelException();
+		}
+	}
+}
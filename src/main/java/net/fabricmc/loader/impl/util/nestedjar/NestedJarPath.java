@@ -0,0 +1,356 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.nestedjar;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import net.fabricmc.loader.impl.util.nestedjar.NestedJarFileSystem.Entry;
+
+/**
+ * Path in a {@link NestedJarFileSystem}, absolute paths start with a slash like in zip file systems.
+ */
+final class NestedJarPath implements Path {
+	private final NestedJarFileSystem fs;
+	private final String path;
+	private String[] names;
+
+	NestedJarPath(NestedJarFileSystem fs, String path) {
+		this.fs = fs;
+		this.path = normalizeSeparators(path);
+	}
+
+	private static String normalizeSeparators(String path) {
+		if (path.indexOf('\\') >= 0) path = path.replace('\\', '/');
+		if (path.indexOf("//") < 0 && (path.length() <= 1 || !path.endsWith("/"))) return path;
+
+		StringBuilder sb = new StringBuilder(path.length());
+		if (path.startsWith("/")) sb.append('/');
+
+		for (String name : path.split("/")) {
+			if (name.isEmpty()) continue;
+			if (sb.length() > 1 || sb.length() == 1 && sb.charAt(0) != '/') sb.append('/');
+
+			sb.append(name);
+		}
+
+		return sb.toString();
+	}
+
+	private String[] getNames() {
+		String[] ret = names;
+
+		if (ret == null) {
+			String relative = isAbsolute() ? path.substring(1) : path;
+			ret = relative.isEmpty() && isAbsolute() ? new String[0] : relative.split("/", -1);
+			names = ret;
+		}
+
+		return ret;
+	}
+
+	private static NestedJarPath toNestedPath(Path path) {
+		if (!(path instanceof NestedJarPath)) throw new ProviderMismatchException();
+
+		return (NestedJarPath) path;
+	}
+
+	Entry getEntry() {
+		return fs.getEntry(((NestedJarPath) toAbsolutePath()).normalizeString());
+	}
+
+	private String normalizeString() {
+		return ((NestedJarPath) normalize()).path;
+	}
+
+	@Override
+	public NestedJarFileSystem getFileSystem() {
+		return fs;
+	}
+
+	@Override
+	public boolean isAbsolute() {
+		return path.startsWith("/");
+	}
+
+	@Override
+	public Path getRoot() {
+		return isAbsolute() ? fs.getRoot() : null;
+	}
+
+	@Override
+	public Path getFileName() {
+		String[] names = getNames();
+		if (names.length == 0) return null;
+		if (names.length == 1 && !isAbsolute()) return this;
+
+		return new NestedJarPath(fs, names[names.length - 1]);
+	}
+
+	@Override
+	public Path getParent() {
+		String[] names = getNames();
+		if (names.length == 0 || names.length == 1 && !isAbsolute()) return null;
+
+		int pos = path.lastIndexOf('/');
+
+		return new NestedJarPath(fs, pos == 0 ? "/" : path.substring(0, pos));
+	}
+
+	@Override
+	public int getNameCount() {
+		return getNames().length;
+	}
+
+	@Override
+	public Path getName(int index) {
+		String[] names = getNames();
+		if (index < 0 || index >= names.length) throw new IllegalArgumentException();
+
+		return new NestedJarPath(fs, names[index]);
+	}
+
+	@Override
+	public Path subpath(int beginIndex, int endIndex) {
+		String[] names = getNames();
+		if (beginIndex < 0 || endIndex > names.length || beginIndex >= endIndex) throw new IllegalArgumentException();
+
+		return new NestedJarPath(fs, String.join("/", Arrays.asList(names).subList(beginIndex, endIndex)));
+	}
+
+	@Override
+	public boolean startsWith(Path other) {
+		if (!(other instanceof NestedJarPath)) return false;
+
+		NestedJarPath o = (NestedJarPath) other;
+		if (o.fs != fs || o.isAbsolute() != isAbsolute()) return false;
+
+		String[] names = getNames();
+		String[] otherNames = o.getNames();
+		if (otherNames.length > names.length) return false;
+
+		for (int i = 0; i < otherNames.length; i++) {
+			if (!otherNames[i].equals(names[i])) return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	public boolean startsWith(String other) {
+		return startsWith(fs.getPath(other));
+	}
+
+	@Override
+	public boolean endsWith(Path other) {
+		if (!(other instanceof NestedJarPath)) return false;
+
+		NestedJarPath o = (NestedJarPath) other;
+		if (o.fs != fs) return false;
+		if (o.isAbsolute()) return equals(o);
+
+		String[] names = getNames();
+		String[] otherNames = o.getNames();
+		int offset = names.length - otherNames.length;
+		if (offset < 0) return false;
+
+		for (int i = 0; i < otherNames.length; i++) {
+			if (!otherNames[i].equals(names[offset + i])) return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	public boolean endsWith(String other) {
+		return endsWith(fs.getPath(other));
+	}
+
+	@Override
+	public Path normalize() {
+		String[] names = getNames();
+		List<String> ret = new ArrayList<>(names.length);
+		boolean changed = false;
+
+		for (String name : names) {
+			if (name.equals(".")) {
+				changed = true;
+			} else if (name.equals("..")) {
+				if (!ret.isEmpty() && !ret.get(ret.size() - 1).equals("..")) {
+					ret.remove(ret.size() - 1);
+					changed = true;
+				} else if (isAbsolute()) {
+					changed = true; // can't go above the root
+				} else {
+					ret.add(name);
+				}
+			} else {
+				ret.add(name);
+			}
+		}
+
+		if (!changed) return this;
+
+		String joined = String.join("/", ret);
+
+		return new NestedJarPath(fs, isAbsolute() ? "/" + joined : joined);
+	}
+
+	@Override
+	public Path resolve(Path other) {
+		NestedJarPath o = toNestedPath(other);
+		if (o.isAbsolute()) return o;
+		if (o.path.isEmpty()) return this;
+		if (path.isEmpty()) return o;
+
+		return new NestedJarPath(fs, path.endsWith("/") ? path + o.path : path + "/" + o.path);
+	}
+
+	@Override
+	public Path resolve(String other) {
+		return resolve(fs.getPath(other));
+	}
+
+	@Override
+	public Path resolveSibling(Path other) {
+		Path parent = getParent();
+
+		return parent == null ? toNestedPath(other) : parent.resolve(other);
+	}
+
+	@Override
+	public Path resolveSibling(String other) {
+		return resolveSibling(fs.getPath(other));
+	}
+
+	@Override
+	public Path relativize(Path other) {
+		NestedJarPath o = toNestedPath(other);
+		if (o.isAbsolute() != isAbsolute()) throw new IllegalArgumentException("different path types");
+		if (o.equals(this)) return new NestedJarPath(fs, "");
+
+		String[] names = path.isEmpty() ? new String[0] : getNames();
+		String[] otherNames = o.path.isEmpty() ? new String[0] : o.getNames();
+		int common = 0;
+
+		while (common < names.length && common < otherNames.length && names[common].equals(otherNames[common])) {
+			common++;
+		}
+
+		List<String> ret = new ArrayList<>();
+
+		for (int i = common; i < names.length; i++) {
+			ret.add("..");
+		}
+
+		ret.addAll(Arrays.asList(otherNames).subList(common, otherNames.length));
+
+		return new NestedJarPath(fs, String.join("/", ret));
+	}
+
+	@Override
+	public URI toUri() {
+		String ret = normalizeString();
+
+		if (!isAbsolute()) {
+			ret = "/" + ret;
+		}
+
+		Entry entry = fs.getEntry(ret);
+
+		if (entry != null && entry.isDirectory && !ret.endsWith("/")) {
+			ret += "/";
+		}
+
+		return fs.toUri(ret);
+	}
+
+	@Override
+	public Path toAbsolutePath() {
+		return isAbsolute() ? this : fs.getRoot().resolve(this);
+	}
+
+	@Override
+	public Path toRealPath(LinkOption... options) throws NoSuchFileException {
+		NestedJarPath ret = (NestedJarPath) toAbsolutePath().normalize();
+		if (fs.getEntry(ret.path) == null) throw new NoSuchFileException(toString());
+
+		return ret;
+	}
+
+	@Override
+	public File toFile() {
+		throw new UnsupportedOperationException("nested jar paths can't be converted to files");
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Iterator<Path> iterator() {
+		String[] names = getNames();
+		List<Path> ret = new ArrayList<>(names.length);
+
+		for (String name : names) {
+			ret.add(new NestedJarPath(fs, name));
+		}
+
+		return ret.iterator();
+	}
+
+	@Override
+	public int compareTo(Path other) {
+		return path.compareTo(toNestedPath(other).path);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof NestedJarPath)) return false;
+
+		NestedJarPath o = (NestedJarPath) obj;
+
+		return o.fs == fs && o.path.equals(path);
+	}
+
+	@Override
+	public int hashCode() {
+		return fs.hashCode() * 31 + path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
@@ -0,0 +1,169 @@
+package dev.lexoland.updating.updater;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.api.EnvType;
+
+import static dev.lexoland.updating.updater.Updater.*;
+
+public class BackupHandlerTest {
+
+	// the backup mirrors the relative paths of the installation, so the test has to run in the working directory
+	private static final Path INSTALL_DIR = Paths.get("backup-handler-test");
+	private static final File BACKUP_DIR = new File(UPDATER_DIR, "backup");
+
+	private final String kept = INSTALL_DIR.resolve("mods/kept.jar").toString();
+	private final String removed = INSTALL_DIR.resolve("mods/removed.jar").toString();
+	private final String untouched = INSTALL_DIR.resolve("mods/untouched.jar").toString();
+
+	private boolean created;
+	private String failAt;
+	private Updater updater;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		Assumptions.assumeFalse(UPDATER_DIR.exists(), "an updater directory already exists");
+		Assumptions.assumeFalse(Files.exists(INSTALL_DIR));
+
+		UPDATER_DIR.mkdirs();
+		created = true;
+
+		List<String> files = Arrays.asList(kept, removed, untouched);
+		for (String path : files)
+			write(path, path);
+
+		JsonObject installationInfo = new JsonObject();
+		installationInfo.addProperty("version", "1.0.0");
+		installationInfo.add("files", GSON.toJsonTree(files));
+		Files.write(new File(UPDATER_DIR, "installation-info.json").toPath(), GSON.toJson(installationInfo).getBytes(StandardCharsets.UTF_8));
+
+		updater = new Updater("test", "1.20.1", null, Collections.emptyList(), EnvType.CLIENT, new ProgressSink() {
+			@Override
+			public void entryProgress(int current, int total, String entryName) {
+				if (entryName != null && entryName.equals(failAt))
+					throw new RuntimeException("Failed to back up " + entryName);
+			}
+		});
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		if (!created)
+			return;
+
+		delete(INSTALL_DIR);
+		delete(UPDATER_DIR.toPath());
+	}
+
+	@Test
+	public void restoreHalfwayBackup() throws IOException {
+		BackupHandler backupHandler = failHalfway();
+
+		backupHandler.cleanUpInstallation();
+		backupHandler.restoreBackup();
+		backupHandler.cleanUpBackup();
+
+		for (String path : Arrays.asList(kept, removed, untouched))
+			Assertions.assertEquals(path, read(path));
+
+		Assertions.assertFalse(BACKUP_DIR.exists());
+		Assertions.assertFalse(InstallJournal.JOURNAL_FILE.exists());
+	}
+
+	@Test
+	public void keepBackupUntilRolledBack() throws IOException {
+		BackupHandler backupHandler = failHalfway();
+
+		// a directory in the way of the removed file
+		write(removed + "/blocker", "");
+
+		backupHandler.cleanUpInstallation();
+		backupHandler.restoreBackup();
+		backupHandler.cleanUpBackup();
+
+		Assertions.assertTrue(BACKUP_DIR.exists());
+		Assertions.assertTrue(InstallJournal.JOURNAL_FILE.exists());
+
+		delete(Paths.get(removed));
+
+		// the next start
+		Assertions.assertTrue(new BackupHandler(updater).recoverInterruptedUpdate());
+
+		for (String path : Arrays.asList(kept, removed, untouched))
+			Assertions.assertEquals(path, read(path));
+
+		Assertions.assertFalse(BACKUP_DIR.exists());
+		Assertions.assertFalse(InstallJournal.JOURNAL_FILE.exists());
+	}
+
+	@Test
+	public void skipInvalidJournalRecords() throws IOException {
+		String journal = "{\"op\":\"begin\"}\n"
+				+ "{\"path\":\"" + kept + "\"}\n"
+				+ "{\"op\":{},\"path\":\"" + kept + "\"}\n"
+				+ "{\"op\":\"backup\"}\n"
+				+ "{\"op\":\"backup\",\"path\":\"" + removed + "\"}\n";
+		Files.write(InstallJournal.JOURNAL_FILE.toPath(), journal.getBytes(StandardCharsets.UTF_8));
+
+		InstallJournal read = InstallJournal.read();
+		Assertions.assertNotNull(read);
+		Assertions.assertFalse(read.isCommitted());
+		Assertions.assertEquals(Collections.emptySet(), read.createdFiles());
+		Assertions.assertEquals(Collections.singleton(removed), read.backedUpFiles());
+	}
+
+	/**
+	 * Fails right after the removed file was moved into the backup, the untouched one is not backed up yet.
+	 */
+	private BackupHandler failHalfway() {
+		BackupHandler backupHandler = new BackupHandler(updater);
+		backupHandler.loadPreviousInstallationInfo();
+
+		failAt = removed;
+		Assertions.assertThrows(RuntimeException.class, () -> backupHandler.createBackup(Collections.singletonList(kept), new HashSet<>(Collections.singletonList(kept))));
+		failAt = null;
+
+		Assertions.assertFalse(new File(removed).exists());
+		Assertions.assertTrue(backupHandler.hasBackedUp());
+		return backupHandler;
+	}
+
+	private static void write(String path, String content) throws IOException {
+		Path file = Paths.get(path);
+		Files.createDirectories(file.getParent());
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String read(String path) throws IOException {
+		return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+	}
+
+	private static void delete(Path dir) throws IOException {
+		if (!Files.exists(dir))
+			return;
+
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder())
+					.map(Path::toFile)
+					.forEach(File::delete);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package dev.lexoland.updating.updater;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.common.hash.Hashing;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DownloadCacheTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void testInstallVerifiesHash() throws IOException {
+		byte[] content = "original".getBytes(StandardCharsets.UTF_8);
+		String sha512 = Hashing.sha512().hashBytes(content).toString();
+
+		File downloaded = dir.resolve("downloaded.jar").toFile();
+		Files.write(downloaded.toPath(), content);
+
+		DownloadCache cache = new DownloadCache(dir.resolve("cache"), Long.MAX_VALUE);
+		cache.store(sha512, downloaded);
+
+		File installed = dir.resolve("instance/mods/a.jar").toFile();
+		Assertions.assertTrue(cache.install(sha512, content.length, installed));
+		Assertions.assertArrayEquals(content, Files.readAllBytes(installed.toPath()));
+
+		// written through a hardlink into the cache, same size
+		Files.write(installed.toPath(), "modified".getBytes(StandardCharsets.UTF_8));
+		File other = dir.resolve("other/mods/a.jar").toFile();
+
+		Assertions.assertFalse(cache.install(sha512, content.length, other));
+		Assertions.assertFalse(other.exists());
+		Assertions.assertFalse(cache.contains(sha512));
+	}
+}
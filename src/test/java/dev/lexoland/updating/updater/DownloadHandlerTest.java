@@ -0,0 +1,172 @@
+package dev.lexoland.updating.updater;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.hash.Hashing;
+import okhttp3.HttpUrl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DownloadHandlerTest {
+
+	private static final int CUT_OFF = 64 * 1024;
+
+	@TempDir
+	Path tempDir;
+
+	private final byte[] data = new byte[256 * 1024];
+	private final List<Map<String, String>> requests = new CopyOnWriteArrayList<>();
+	private final List<Exception> serverErrors = new CopyOnWriteArrayList<>();
+
+	private ServerSocket server;
+	private DownloadHandler downloadHandler;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		new Random(42).nextBytes(data);
+
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread thread = new Thread(this::serve, "Range-Test-Server");
+		thread.setDaemon(true);
+		thread.start();
+
+		downloadHandler = new DownloadHandler(null);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		downloadHandler.close();
+		server.close();
+
+		for (Exception e : serverErrors)
+			Assertions.fail("The test server failed", e);
+	}
+
+	@Test
+	public void resumeInterruptedDownload() throws IOException {
+		File destination = tempDir.resolve("mods/big.jar").toFile();
+
+		downloadHandler.requestFileDownload("big.jar", destination, url(), data.length, sha512(data), null);
+		downloadHandler.downloadEnqueuedFiles(download -> {});
+
+		Assertions.assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+		Assertions.assertFalse(DownloadHandler.partFile(destination).toFile().exists());
+
+		Assertions.assertEquals(2, requests.size());
+		Assertions.assertNull(requests.get(0).get("range"));
+		Assertions.assertEquals("bytes=" + CUT_OFF + "-", requests.get(1).get("range"));
+		Assertions.assertEquals("\"v1\"", requests.get(1).get("if-range"));
+	}
+
+	@Test
+	public void restartOnCorruptPartFile() throws IOException {
+		File destination = tempDir.resolve("mods/big.jar").toFile();
+		Files.createDirectories(destination.toPath().getParent());
+
+		// a part file left behind by an earlier launch, with different content than the remote file
+		byte[] stale = new byte[CUT_OFF * 2];
+		Files.write(DownloadHandler.partFile(destination), stale);
+
+		downloadHandler.requestFileDownload("big.jar", destination, url(), data.length, sha512(data), null);
+		downloadHandler.downloadEnqueuedFiles(download -> {});
+
+		Assertions.assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+		Assertions.assertEquals("bytes=" + stale.length + "-", requests.get(0).get("range"));
+		Assertions.assertNull(requests.get(0).get("if-range"));
+	}
+
+	@Test
+	public void failOverToMirror() throws IOException {
+		File destination = tempDir.resolve("mods/big.jar").toFile();
+
+		// a mirror that refuses every connection
+		int deadPort;
+		try (ServerSocket dead = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			deadPort = dead.getLocalPort();
+		}
+		HttpUrl deadMirror = HttpUrl.get("http://127.0.0.1:" + deadPort + "/big.jar");
+
+		downloadHandler.requestFileDownload("big.jar", destination, Arrays.asList(deadMirror, url()), data.length, sha512(data), null);
+		downloadHandler.downloadEnqueuedFiles(download -> {});
+
+		Assertions.assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+	}
+
+	private HttpUrl url() {
+		return HttpUrl.get("http://127.0.0.1:" + server.getLocalPort() + "/big.jar");
+	}
+
+	private static String sha512(byte[] bytes) {
+		return Hashing.sha512().hashBytes(bytes).toString();
+	}
+
+	/**
+	 * A minimal HTTP/1.1 stand-in for a CDN which supports range requests. The first full
+	 * transfer is cut off after {@link #CUT_OFF} bytes.
+	 */
+	private void serve() {
+		while (!server.isClosed()) {
+			try (Socket socket = server.accept()) {
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+				Map<String, String> headers = new ConcurrentHashMap<>();
+				String line = in.readLine();
+
+				while ((line = in.readLine()) != null && !line.isEmpty()) {
+					int colon = line.indexOf(':');
+					headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+				}
+
+				boolean firstFullTransfer = requests.stream().noneMatch(request -> request.get("range") == null);
+				requests.add(headers);
+
+				OutputStream out = socket.getOutputStream();
+				String range = headers.get("range");
+				String header;
+				int start = 0;
+
+				if (range != null) {
+					start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+					header = "HTTP/1.1 206 Partial Content\r\n"
+							+ "Content-Range: bytes " + start + "-" + (data.length - 1) + "/" + data.length + "\r\n";
+				} else {
+					header = "HTTP/1.1 200 OK\r\n";
+				}
+
+				out.write((header
+						+ "Content-Length: " + (data.length - start) + "\r\n"
+						+ "ETag: \"v1\"\r\n"
+						+ "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+				if (range == null && firstFullTransfer)
+					out.write(data, 0, CUT_OFF);
+				else
+					out.write(data, start, data.length - start);
+				out.flush();
+				socket.shutdownOutput();
+			} catch (IOException | RuntimeException e) {
+				// fails the test once it is torn down
+				if (!server.isClosed())
+					serverErrors.add(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package dev.lexoland.updating.updater;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.io.ByteStreams;
+import okhttp3.HttpUrl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RemotePackArchiveTest {
+
+	private final byte[] index = "{\"files\":[]}".getBytes(StandardCharsets.UTF_8);
+	private final byte[] world = new byte[512 * 1024];
+	private final byte[][] configs = new byte[3][];
+	private final List<String> ranges = new CopyOnWriteArrayList<>();
+	private final List<Exception> serverErrors = new CopyOnWriteArrayList<>();
+
+	private byte[] pack;
+	private ServerSocket server;
+	private DownloadHandler downloadHandler;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		new Random(42).nextBytes(world);
+		for (int i = 0; i < configs.length; i++)
+			configs[i] = ("{\"option\":" + i + "}").getBytes(StandardCharsets.UTF_8);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+			out.putNextEntry(new ZipEntry("modrinth.index.json"));
+			out.write(index);
+			out.closeEntry();
+
+			// stored, like most of the binary overrides
+			ZipEntry stored = new ZipEntry("overrides/saves/world/region.mca");
+			CRC32 crc = new CRC32();
+			crc.update(world);
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(world.length);
+			stored.setCrc(crc.getValue());
+			out.putNextEntry(stored);
+			out.write(world);
+			out.closeEntry();
+
+			out.putNextEntry(new ZipEntry("overrides/config/"));
+			out.closeEntry();
+
+			for (int i = 0; i < configs.length; i++) {
+				out.putNextEntry(new ZipEntry("overrides/config/" + i + ".json"));
+				out.write(configs[i]);
+				out.closeEntry();
+			}
+		}
+		pack = bytes.toByteArray();
+
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread thread = new Thread(this::serve, "Range-Test-Server");
+		thread.setDaemon(true);
+		thread.start();
+
+		downloadHandler = new DownloadHandler(null);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		downloadHandler.close();
+		server.close();
+
+		for (Exception e : serverErrors)
+			Assertions.fail("The test server failed", e);
+	}
+
+	@Test
+	public void readEntriesWithoutFullDownload() throws IOException {
+		try (PackArchive archive = RemotePackArchive.open(downloadHandler, url())) {
+			List<PackArchive.Entry> entries = archive.entries();
+			Assertions.assertEquals(3 + configs.length, entries.size());
+			Assertions.assertEquals("modrinth.index.json", entries.get(0).name());
+			Assertions.assertEquals(world.length, entries.get(1).size());
+			Assertions.assertTrue(entries.get(2).isDirectory());
+
+			try (InputStream in = archive.open("modrinth.index.json")) {
+				Assertions.assertArrayEquals(index, ByteStreams.toByteArray(in));
+			}
+		}
+
+		// the tail with the central directory and the index entry, but never the world
+		Assertions.assertEquals(2, ranges.size());
+		Assertions.assertTrue(ranges.get(0).startsWith("bytes=-"));
+		Assertions.assertTrue(ranges.get(1).startsWith("bytes=0-"));
+	}
+
+	@Test
+	public void readStoredEntry() throws IOException {
+		try (PackArchive archive = RemotePackArchive.open(downloadHandler, url());
+			 InputStream in = archive.open("overrides/saves/world/region.mca")) {
+			Assertions.assertArrayEquals(world, ByteStreams.toByteArray(in));
+		}
+	}
+
+	@Test
+	public void prefetchAdjacentEntries() throws IOException {
+		try (PackArchive archive = RemotePackArchive.open(downloadHandler, url())) {
+			ranges.clear();
+
+			List<String> names = new ArrayList<>();
+			names.add("overrides/saves/world/region.mca");
+			for (int i = configs.length - 1; i >= 0; i--)
+				names.add("overrides/config/" + i + ".json");
+
+			archive.prefetch(names);
+			// the configs with one request, the world is too large and left for later
+			Assertions.assertEquals(1, ranges.size());
+
+			for (int i = 0; i < configs.length; i++) {
+				try (InputStream in = archive.open("overrides/config/" + i + ".json")) {
+					Assertions.assertArrayEquals(configs[i], ByteStreams.toByteArray(in));
+				}
+			}
+			Assertions.assertEquals(1, ranges.size());
+
+			try (InputStream in = archive.open("overrides/saves/world/region.mca")) {
+				Assertions.assertArrayEquals(world, ByteStreams.toByteArray(in));
+			}
+			Assertions.assertEquals(2, ranges.size());
+		}
+	}
+
+	private HttpUrl url() {
+		return HttpUrl.get("http://127.0.0.1:" + server.getLocalPort() + "/pack.mrpack");
+	}
+
+	/**
+	 * A minimal HTTP/1.1 stand-in for a CDN which only answers range requests.
+	 */
+	private void serve() {
+		while (!server.isClosed()) {
+			try (Socket socket = server.accept()) {
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+				String range = null;
+				String line = in.readLine();
+
+				while ((line = in.readLine()) != null && !line.isEmpty()) {
+					int colon = line.indexOf(':');
+					if (line.substring(0, colon).trim().equalsIgnoreCase("range"))
+						range = line.substring(colon + 1).trim();
+				}
+				ranges.add(range);
+
+				String spec = range.substring("bytes=".length());
+				int dash = spec.indexOf('-');
+				int start, end;
+
+				if (dash == 0) {
+					start = Math.max(0, pack.length - Integer.parseInt(spec.substring(1)));
+					end = pack.length - 1;
+				} else {
+					start = Integer.parseInt(spec.substring(0, dash));
+					end = dash == spec.length() - 1 ? pack.length - 1 : Math.min(Integer.parseInt(spec.substring(dash + 1)), pack.length - 1);
+				}
+
+				OutputStream out = socket.getOutputStream();
+				out.write(("HTTP/1.1 206 Partial Content\r\n"
+						+ "Content-Range: bytes " + start + "-" + end + "/" + pack.length + "\r\n"
+						+ "Content-Length: " + (end - start + 1) + "\r\n"
+						+ "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+				out.write(pack, start, end - start + 1);
+				out.flush();
+				socket.shutdownOutput();
+			} catch (IOException | RuntimeException e) {
+				// fails the test once it is torn down
+				if (!server.isClosed())
+					serverErrors.add(e);
+			}
+		}
+	}
+}
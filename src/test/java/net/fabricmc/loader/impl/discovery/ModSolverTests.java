@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.loader.impl.metadata.LoaderModMetadata;
+import net.fabricmc.loader.impl.metadata.ModMetadataParser;
+
+final class ModSolverTests {
+	private static final String[] IDS = { "aa", "bb", "cc", "dd", "ee" };
+	private static final String[] KINDS = { "depends", "breaks", "recommends" };
+
+	private long nextHash;
+
+	@Test
+	@DisplayName("Test greedy resolution against the solver")
+	public void testGeneratedCandidates() throws Exception {
+		int greedyCount = 0;
+		int fallbackCount = 0;
+
+		for (long seed = 0; seed < 2000; seed++) {
+			List<ModCandidate> candidates = generate(new Random(seed));
+			String greedy = solve(candidates, true);
+			String sat = solve(candidates, false);
+
+			if (greedy != null) {
+				assertEquals(sat, greedy, "seed " + seed);
+				greedyCount++;
+			} else {
+				fallbackCount++;
+			}
+		}
+
+		// make sure both paths were actually exercised
+		assertTrue(greedyCount > 100, "greedy resolutions: " + greedyCount);
+		assertTrue(fallbackCount > 100, "solver fallbacks: " + fallbackCount);
+	}
+
+	@Test
+	@DisplayName("Test greedy resolution with provided ids")
+	public void testProvides() throws Exception {
+		List<ModCandidate> candidates = Arrays.asList(
+				mod("aa", "1.0.0", ",\"depends\":{\"cc\":\"*\"}"),
+				mod("bb", "1.0.0", ",\"provides\":[\"cc\"]"));
+
+		assertEquals(null, solve(candidates, true));
+		assertEquals("aa 1.0.0, bb 1.0.0", solve(candidates, false));
+	}
+
+	@Test
+	@DisplayName("Test greedy resolution with breaks")
+	public void testBreaks() throws Exception {
+		List<ModCandidate> candidates = Arrays.asList(
+				mod("aa", "1.0.0", ",\"breaks\":{\"bb\":\">=2\"}"),
+				mod("bb", "2.0.0", ""),
+				mod("bb", "1.0.0", ""));
+
+		assertEquals(null, solve(candidates, true));
+		assertEquals("aa 1.0.0, bb 1.0.0", solve(candidates, false));
+
+		candidates = Arrays.asList(
+				mod("aa", "1.0.0", ",\"breaks\":{\"bb\":\"<2\"}"),
+				mod("bb", "2.0.0", ""),
+				mod("bb", "1.0.0", ""));
+
+		assertEquals("aa 1.0.0, bb 2.0.0", solve(candidates, true));
+		assertEquals("aa 1.0.0, bb 2.0.0", solve(candidates, false));
+	}
+
+	@Test
+	@DisplayName("Test greedy resolution with optional dependencies")
+	public void testRecommends() throws Exception {
+		// the highest priority variant satisfies the recommendation
+		List<ModCandidate> candidates = Arrays.asList(
+				mod("aa", "1.0.0", ",\"recommends\":{\"bb\":\">=2\"}"),
+				mod("bb", "2.0.0", ""),
+				mod("bb", "1.0.0", ""));
+
+		assertEquals("aa 1.0.0, bb 2.0.0", solve(candidates, true));
+		assertEquals("aa 1.0.0, bb 2.0.0", solve(candidates, false));
+
+		// only a lower priority variant satisfies it, which is up to the solver to weigh
+		candidates = Arrays.asList(
+				mod("aa", "1.0.0", ",\"recommends\":{\"bb\":\"<2\"}"),
+				mod("bb", "2.0.0", ""),
+				mod("bb", "1.0.0", ""));
+
+		assertEquals(null, solve(candidates, true));
+		assertNotNull(solve(candidates, false));
+
+		// a missing recommended mod doesn't prevent the greedy resolution
+		candidates = Collections.singletonList(mod("aa", "1.0.0", ",\"recommends\":{\"bb\":\"*\"}"));
+
+		assertEquals("aa 1.0.0", solve(candidates, true));
+		assertEquals("aa 1.0.0", solve(candidates, false));
+	}
+
+	@Test
+	@DisplayName("Test greedy resolution with unsatisfied dependencies")
+	public void testUnsatisfied() throws Exception {
+		List<ModCandidate> candidates = Arrays.asList(
+				mod("aa", "1.0.0", ",\"depends\":{\"bb\":\">=2\"}"),
+				mod("bb", "1.0.0", ""));
+
+		assertEquals(null, solve(candidates, true));
+		assertEquals(null, solve(candidates, false));
+	}
+
+	/**
+	 * Resolves the candidates like {@link ModResolver} does, either only greedily or only with the solver.
+	 *
+	 * @return the selected mods, or null if there was no resolution
+	 */
+	private static String solve(List<ModCandidate> candidates, boolean greedy) throws Exception {
+		List<ModCandidate> allModsSorted = new ArrayList<>(candidates);
+		allModsSorted.sort(ModResolver.modPrioComparator);
+
+		Map<String, List<ModCandidate>> modsById = new LinkedHashMap<>();
+
+		for (ModCandidate mod : allModsSorted) {
+			modsById.computeIfAbsent(mod.getId(), ignore -> new ArrayList<>()).add(mod);
+
+			for (String provided : mod.getProvides()) {
+				modsById.computeIfAbsent(provided, ignore -> new ArrayList<>()).add(mod);
+			}
+		}
+
+		Map<String, ModCandidate> selectedMods = new HashMap<>();
+		List<ModCandidate> uniqueSelectedMods = new ArrayList<>();
+
+		if (greedy) {
+			if (!ModSolver.solveGreedy(allModsSorted, modsById, selectedMods, uniqueSelectedMods)) {
+				assertTrue(selectedMods.isEmpty());
+				assertTrue(uniqueSelectedMods.isEmpty());
+				return null;
+			}
+		} else if (!ModSolver.solveSat(allModsSorted, modsById, selectedMods, uniqueSelectedMods).success) {
+			return null;
+		}
+
+		Set<String> ret = new TreeSet<>();
+
+		for (ModCandidate mod : uniqueSelectedMods) {
+			ret.add(mod.getId() + " " + mod.getVersion().getFriendlyString() + (mod.isRoot() ? "" : " " + mod.getLocalPath()));
+		}
+
+		return String.join(", ", ret);
+	}
+
+	/**
+	 * Generates up to two variants of every id with random dependencies, some of them nested in other candidates.
+	 */
+	private List<ModCandidate> generate(Random random) throws Exception {
+		List<ModCandidate> ret = new ArrayList<>();
+		List<ModCandidate> roots = new ArrayList<>();
+
+		for (String id : IDS) {
+			int variants = random.nextInt(3) == 0 ? 2 : 1;
+
+			for (int i = 0; i < variants; i++) {
+				String version = "1." + random.nextInt(4) + ".0";
+				StringBuilder deps = new StringBuilder();
+
+				for (String kind : KINDS) {
+					String target = IDS[random.nextInt(IDS.length)];
+					if (random.nextInt(3) != 0 || target.equals(id)) continue;
+
+					deps.append(String.format(",\"%s\":{\"%s\":\"%s1.%d.0\"}", kind, target, random.nextBoolean() ? ">=" : "<", random.nextInt(4)));
+				}
+
+				ModCandidate mod;
+
+				if (roots.isEmpty() || random.nextBoolean()) {
+					mod = mod(id, version, deps.toString());
+					roots.add(mod);
+				} else {
+					mod = nested(id, version, deps.toString());
+					ret.get(random.nextInt(ret.size())).getNestedMods().add(mod);
+				}
+
+				ret.add(mod);
+			}
+		}
+
+		// link the parents like the discovery does, only candidates reachable from a root are left
+
+		Set<ModCandidate> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+		Queue<ModCandidate> queue = new ArrayDeque<>(roots);
+		ModCandidate mod;
+
+		while ((mod = queue.poll()) != null) {
+			if (!reachable.add(mod)) continue;
+
+			for (ModCandidate nestedMod : mod.getNestedMods()) {
+				if (nestedMod.addParent(mod)) queue.add(nestedMod);
+			}
+		}
+
+		ret.removeIf(m -> !reachable.contains(m));
+
+		return ret;
+	}
+
+	private ModCandidate mod(String id, String version, String extra) throws Exception {
+		return ModCandidate.createPlain(Collections.singletonList(Paths.get(id + "-" + version + "-" + nextHash++ + ".jar")), metadata(id, version, extra), false, new ArrayList<>());
+	}
+
+	private ModCandidate nested(String id, String version, String extra) throws Exception {
+		return ModCandidate.createNested("META-INF/jars/" + id + "-" + version + "-" + nextHash + ".jar", nextHash++, metadata(id, version, extra), false, new ArrayList<>());
+	}
+
+	private static LoaderModMetadata metadata(String id, String version, String extra) throws Exception {
+		String json = String.format("{\"schemaVersion\":1,\"id\":\"%s\",\"version\":\"%s\"%s}", id, version, extra);
+
+		return ModMetadataParser.readMetadata(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), id, Collections.emptyList(), false);
+	}
+}
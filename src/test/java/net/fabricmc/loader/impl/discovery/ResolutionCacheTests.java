@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.metadata.LoaderModMetadata;
+import net.fabricmc.loader.impl.metadata.ModMetadataParser;
+
+final class ResolutionCacheTests {
+	@TempDir
+	Path cacheDir;
+
+	@Test
+	@DisplayName("Test resolution cache fingerprint")
+	public void testFingerprint() throws Exception {
+		List<ModCandidate> mods = Arrays.asList(
+				mod("aa", "1.0.0", ",\"depends\":{\"bb\":\">=1\"}"),
+				mod("bb", "1.0.0", ""));
+
+		create(mods).save(mods);
+
+		// same candidates, discovered again in a different order
+		List<ModCandidate> rediscovered = Arrays.asList(
+				mod("bb", "1.0.0", ""),
+				mod("aa", "1.0.0", ",\"depends\":{\"bb\":\">=1\"}"));
+
+		assertEquals(Arrays.asList(rediscovered.get(1), rediscovered.get(0)), apply(rediscovered, Collections.emptyList()));
+
+		// a different environment
+		assertFalse(ResolutionCache.create(cacheDir.resolve("cache.bin"), rediscovered, Collections.emptyList(), EnvType.SERVER)
+				.apply(rediscovered, new HashMap<>(), new ArrayList<>()));
+	}
+
+	@Test
+	@DisplayName("Test resolution cache invalidation")
+	public void testInvalidation() throws Exception {
+		List<ModCandidate> mods = Arrays.asList(
+				mod("aa", "1.0.0", ",\"depends\":{\"bb\":\">=1\"}"),
+				mod("bb", "1.0.0", ""));
+
+		create(mods).save(mods);
+
+		// changed version
+		assertEquals(null, apply(Arrays.asList(
+				mod("aa", "1.0.0", ",\"depends\":{\"bb\":\">=1\"}"),
+				mod("bb", "1.1.0", "")), Collections.emptyList()));
+
+		// changed dependency interval, still satisfied by the remembered selection
+		assertEquals(null, apply(Arrays.asList(
+				mod("aa", "1.0.0", ",\"depends\":{\"bb\":\">=0.5\"}"),
+				mod("bb", "1.0.0", "")), Collections.emptyList()));
+
+		// changed dependency kind
+		assertEquals(null, apply(Arrays.asList(
+				mod("aa", "1.0.0", ",\"recommends\":{\"bb\":\">=1\"}"),
+				mod("bb", "1.0.0", "")), Collections.emptyList()));
+
+		// additional candidate
+		assertEquals(null, apply(Arrays.asList(
+				mod("aa", "1.0.0", ",\"depends\":{\"bb\":\">=1\"}"),
+				mod("bb", "1.0.0", ""),
+				mod("cc", "1.0.0", "")), Collections.emptyList()));
+
+		// unchanged
+		assertEquals(2, apply(Arrays.asList(
+				mod("aa", "1.0.0", ",\"depends\":{\"bb\":\">=1\"}"),
+				mod("bb", "1.0.0", "")), Collections.emptyList()).size());
+	}
+
+	@Test
+	@DisplayName("Test resolution cache verification")
+	public void testVerification() throws Exception {
+		// missing dependency
+		ModCandidate cc = nested("cc", "1.0.0", "");
+		ModCandidate aa = mod("aa", "1.0.0", ",\"depends\":{\"cc\":\"*\"}", cc);
+		cc.addParent(aa);
+		List<ModCandidate> mods = Arrays.asList(aa, cc);
+
+		create(mods).save(Collections.singletonList(aa));
+		assertEquals(null, apply(mods, Collections.emptyList()));
+
+		// selected nested mod without its parent
+		create(mods).save(Collections.singletonList(cc));
+		assertEquals(null, apply(mods, Collections.emptyList()));
+
+		// missing root mod
+		mods = Arrays.asList(mod("aa", "1.0.0", ""), mod("bb", "1.0.0", ""));
+
+		create(mods).save(Collections.singletonList(mods.get(0)));
+		assertEquals(null, apply(mods, Collections.emptyList()));
+
+		// broken by a preselected mod
+		List<ModCandidate> preselected = Collections.singletonList(mod("pp", "1.0.0", ",\"breaks\":{\"aa\":\"1.0.0\"}"));
+		mods = Collections.singletonList(mod("aa", "1.0.0", ""));
+
+		create(mods, preselected).save(mods);
+		assertEquals(null, apply(mods, preselected));
+	}
+
+	private ResolutionCache create(List<ModCandidate> mods) {
+		return create(mods, Collections.emptyList());
+	}
+
+	private ResolutionCache create(List<ModCandidate> mods, List<ModCandidate> preselectedMods) {
+		return ResolutionCache.create(cacheDir.resolve("cache.bin"), mods, preselectedMods, EnvType.CLIENT);
+	}
+
+	/**
+	 * @return the mods selected from the cache in addition to the preselected ones, or null if it wasn't used
+	 */
+	private List<ModCandidate> apply(List<ModCandidate> mods, List<ModCandidate> preselectedMods) throws ModResolutionException {
+		Map<String, ModCandidate> selectedMods = new HashMap<>();
+		List<ModCandidate> uniqueSelectedMods = new ArrayList<>();
+
+		for (ModCandidate mod : preselectedMods) {
+			ModResolver.selectMod(mod, selectedMods, uniqueSelectedMods);
+		}
+
+		if (!create(mods, preselectedMods).apply(mods, selectedMods, uniqueSelectedMods)) {
+			// nothing may be selected if the cache isn't used
+			assertEquals(preselectedMods, uniqueSelectedMods);
+			assertEquals(preselectedMods.size(), selectedMods.size());
+			return null;
+		}
+
+		assertTrue(uniqueSelectedMods.containsAll(preselectedMods));
+
+		return uniqueSelectedMods.subList(preselectedMods.size(), uniqueSelectedMods.size());
+	}
+
+	private static ModCandidate mod(String id, String version, String extra, ModCandidate... nestedMods) throws Exception {
+		return ModCandidate.createPlain(Collections.singletonList(Paths.get(id + "-" + version + ".jar")), metadata(id, version, extra), false, new ArrayList<>(Arrays.asList(nestedMods)));
+	}
+
+	private static ModCandidate nested(String id, String version, String extra) throws Exception {
+		return ModCandidate.createNested("META-INF/jars/" + id + "-" + version + ".jar", 1, metadata(id, version, extra), false, new ArrayList<>());
+	}
+
+	private static LoaderModMetadata metadata(String id, String version, String extra) throws Exception {
+		String json = String.format("{\"schemaVersion\":1,\"id\":\"%s\",\"version\":\"%s\"%s}", id, version, extra);
+
+		return ModMetadataParser.readMetadata(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), id, Collections.emptyList(), false);
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.fabricmc.loader.impl.FabricLoaderImpl;
+import net.fabricmc.loader.impl.metadata.LoaderModMetadata;
+import net.fabricmc.loader.impl.metadata.ModMetadataParser;
+import net.fabricmc.loader.impl.util.UrlUtil;
+import net.fabricmc.loader.impl.util.nestedjar.NestedJarFileSystem;
+
+final class SpeculativeLoadTests {
+	@TempDir
+	Path gameDir;
+
+	@AfterEach
+	public void closeFileSystems() {
+		NestedJarFileSystem.closeAll();
+	}
+
+	@Test
+	@DisplayName("Test replacing a mod jar after discarding its load")
+	public void testReplaceAfterDiscard() throws Exception {
+		Path jar = gameDir.resolve("mods").resolve("outer.jar");
+		Files.createDirectories(jar.getParent());
+		Files.write(jar, createMod("old"));
+
+		// speculative load
+		Load load = new Load(jar);
+		assertEquals("old", load.read());
+
+		// the updater found a new version, discard and replace the jar like it does
+		load.discard();
+		assertFalse(load.codeSource.getFileSystem().isOpen());
+
+		Path tmp = jar.resolveSibling("outer.jar.tmp");
+		Files.write(tmp, createMod("new"));
+		Files.move(tmp, jar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		// regular load
+		Load newLoad = new Load(jar);
+		assertEquals("new", newLoad.read());
+		newLoad.discard();
+	}
+
+	/**
+	 * The part of a load that sets up nested jars and a class loader on them, like FabricLoaderImpl.setup and Knot.
+	 */
+	private final class Load {
+		final Path codeSource;
+		final URLClassLoader classLoader;
+
+		Load(Path jar) throws Exception {
+			ModCandidate nested = ModCandidate.createNested("META-INF/jars/nested.jar", 1, metadata("nested"), false, new ArrayList<>());
+			ModCandidate outer = ModCandidate.createPlain(Collections.singletonList(jar), metadata("outer"), false, new ArrayList<>(Collections.singletonList(nested)));
+			nested.addParent(outer);
+
+			List<ModCandidate> mods = Arrays.asList(outer, nested);
+			ModCandidate.setNestedPaths(mods, gameDir.resolve(".fabric").resolve("processedMods"));
+
+			codeSource = nested.getPaths().get(0);
+			assertTrue(NestedJarFileSystem.isRoot(codeSource), "not loaded in place");
+
+			classLoader = new URLClassLoader(new URL[] { UrlUtil.asUrl(codeSource) }, null);
+		}
+
+		String read() throws IOException {
+			URL url = classLoader.getResource("value.txt");
+			assertNotNull(url);
+
+			try (InputStream is = url.openStream()) {
+				ByteArrayOutputStream ret = new ByteArrayOutputStream();
+				byte[] buffer = new byte[256];
+				int len;
+
+				while ((len = is.read(buffer)) >= 0) {
+					ret.write(buffer, 0, len);
+				}
+
+				return new String(ret.toByteArray(), StandardCharsets.UTF_8);
+			}
+		}
+
+		/**
+		 * What Knot.discard does after the class loader.
+		 */
+		void discard() throws IOException {
+			classLoader.close();
+			FabricLoaderImpl.INSTANCE.unload();
+		}
+	}
+
+	/**
+	 * @return a mod jar with the value in a stored nested jar
+	 */
+	private static byte[] createMod(String value) throws IOException {
+		ByteArrayOutputStream nested = new ByteArrayOutputStream();
+
+		try (ZipOutputStream zos = new ZipOutputStream(nested)) {
+			zos.putNextEntry(new ZipEntry("value.txt"));
+			zos.write(value.getBytes(StandardCharsets.UTF_8));
+			zos.closeEntry();
+		}
+
+		byte[] data = nested.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		ZipEntry entry = new ZipEntry("META-INF/jars/nested.jar");
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(data.length);
+		entry.setCompressedSize(data.length);
+		entry.setCrc(crc.getValue());
+
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+
+		try (ZipOutputStream zos = new ZipOutputStream(ret)) {
+			zos.putNextEntry(entry);
+			zos.write(data);
+			zos.closeEntry();
+		}
+
+		return ret.toByteArray();
+	}
+
+	private static LoaderModMetadata metadata(String id) throws Exception {
+		String json = String.format("{\"schemaVersion\":1,\"id\":\"%s\",\"version\":\"1.0.0\"}", id);
+
+		return ModMetadataParser.readMetadata(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), id, Collections.emptyList(), false);
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.nestedjar;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class NestedJarFileSystemTests {
+	@TempDir
+	Path dir;
+
+	@AfterEach
+	public void closeFileSystems() {
+		NestedJarFileSystem.closeAll();
+	}
+
+	@Test
+	@DisplayName("Test reading a stored nested jar in place")
+	public void testRead() throws Exception {
+		byte[] text = "text".getBytes(StandardCharsets.UTF_8);
+		byte[] deflated = new byte[100000];
+		new Random(0).nextBytes(deflated);
+		Arrays.fill(deflated, 50000, 100000, (byte) 1); // compressible
+
+		byte[] nested = zip(false,
+				"META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8),
+				"a/b/text.txt", text,
+				"a/deflated.bin", deflated);
+		Path outer = dir.resolve("outer.jar");
+		Files.write(outer, zip(true, "META-INF/jars/nested.jar", nested));
+
+		Path root = NestedJarFileSystem.open(outer, "META-INF/jars/nested.jar");
+		assertNotNull(root);
+		assertTrue(NestedJarFileSystem.isRoot(root));
+		assertEquals(root, NestedJarFileSystem.open(outer, "META-INF/jars/nested.jar")); // reused
+
+		// entries and directories, including ones without an explicit entry
+		assertArrayEquals(text, Files.readAllBytes(root.resolve("a/b/text.txt")));
+		assertArrayEquals(deflated, Files.readAllBytes(root.resolve("a/deflated.bin")));
+		assertEquals(deflated.length, Files.size(root.resolve("a/deflated.bin")));
+		assertTrue(Files.isDirectory(root.resolve("a/b")));
+		assertFalse(Files.exists(root.resolve("a/missing")));
+		assertThrows(NoSuchFileException.class, () -> root.resolve("a/missing").toRealPath());
+
+		try (Stream<Path> files = Files.list(root.resolve("a"))) {
+			assertEquals(Arrays.asList("/a/b", "/a/deflated.bin"), files.map(Path::toString).sorted().collect(Collectors.toList()));
+		}
+
+		// uris and urls
+		assertEquals(root, Paths.get(root.toUri()));
+		assertEquals(root.resolve("a/b/text.txt"), Paths.get(root.resolve("a/b/text.txt").toUri()));
+
+		try (URLClassLoader cl = new URLClassLoader(new URL[] { root.toUri().toURL() }, null)) {
+			URL url = cl.getResource("a/b/text.txt");
+			assertNotNull(url);
+
+			try (InputStream is = url.openStream()) {
+				assertArrayEquals(text, readAll(is));
+			}
+
+			assertNotNull(cl.getResource("META-INF/MANIFEST.MF"));
+			assertNull(cl.getResource("a/missing"));
+		}
+	}
+
+	@Test
+	@DisplayName("Test nested jars that can't be read in place")
+	public void testUnsupported() throws Exception {
+		byte[] nested = zip(false, "a.txt", new byte[10]);
+
+		// compressed nested jars have to be extracted
+		Path deflatedOuter = dir.resolve("deflated.jar");
+		Files.write(deflatedOuter, zip(false, "nested.jar", nested));
+		assertNull(NestedJarFileSystem.open(deflatedOuter, "nested.jar"));
+		assertThrows(IOException.class, () -> NestedJarFileSystem.open(deflatedOuter, "missing.jar"));
+
+		// jars nested in a nested jar are opened from the nested jar's root
+		Path outer = dir.resolve("outer.jar");
+		Files.write(outer, zip(true, "stored.jar", zip(true, "inner.jar", nested)));
+
+		Path root = NestedJarFileSystem.open(outer, "stored.jar");
+		assertNotNull(root);
+		assertNull(NestedJarFileSystem.open(root.resolve("inner.jar"), "a.txt"));
+
+		Path innerRoot = NestedJarFileSystem.open(root, "inner.jar");
+		assertNotNull(innerRoot);
+		assertArrayEquals(new byte[10], Files.readAllBytes(innerRoot.resolve("a.txt")));
+		assertEquals(innerRoot, Paths.get(innerRoot.toUri()));
+	}
+
+	@Test
+	@DisplayName("Test replacing and closing the outer jar")
+	public void testReplace() throws Exception {
+		Path outer = dir.resolve("outer.jar");
+		Files.write(outer, zip(true, "nested.jar", zip(false, "a.txt", "old".getBytes(StandardCharsets.UTF_8))));
+
+		Path root = NestedJarFileSystem.open(outer, "nested.jar");
+		assertNotNull(root);
+
+		// replaced like the updater does, same size
+		Path tmp = dir.resolve("outer.jar.tmp");
+		Files.write(tmp, zip(true, "nested.jar", zip(false, "a.txt", "new".getBytes(StandardCharsets.UTF_8))));
+		Files.move(tmp, outer, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		Path newRoot = NestedJarFileSystem.open(outer, "nested.jar");
+		assertNotNull(newRoot);
+		assertNotEquals(root, newRoot);
+		assertArrayEquals("new".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(newRoot.resolve("a.txt")));
+
+		NestedJarFileSystem.closeAll();
+		assertFalse(root.getFileSystem().isOpen());
+		assertFalse(newRoot.getFileSystem().isOpen());
+
+		Path reopenedRoot = NestedJarFileSystem.open(outer, "nested.jar");
+		assertTrue(reopenedRoot.getFileSystem().isOpen());
+		assertArrayEquals("new".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(reopenedRoot.resolve("a.txt")));
+	}
+
+	/**
+	 * @param stored whether to store the entries instead of compressing them
+	 * @param entries alternating entry names and contents
+	 */
+	private static byte[] zip(boolean stored, Object... entries) throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+
+		try (ZipOutputStream zos = new ZipOutputStream(ret)) {
+			for (int i = 0; i < entries.length; i += 2) {
+				byte[] data = (byte[]) entries[i + 1];
+				ZipEntry entry = new ZipEntry((String) entries[i]);
+
+				if (stored) {
+					CRC32 crc = new CRC32();
+					crc.update(data);
+
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(data.length);
+					entry.setCompressedSize(data.length);
+					entry.setCrc(crc.getValue());
+				}
+
+				zos.putNextEntry(entry);
+				zos.write(data);
+				zos.closeEntry();
+			}
+		}
+
+		return ret.toByteArray();
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int len;
+
+		while ((len = is.read(buffer)) >= 0) {
+			ret.write(buffer, 0, len);
+		}
+
+		return ret.toByteArray();
+	}
+}
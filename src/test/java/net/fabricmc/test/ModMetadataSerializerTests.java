@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.api.metadata.CustomValue;
+import net.fabricmc.loader.api.metadata.ModDependency;
+import net.fabricmc.loader.api.metadata.Person;
+import net.fabricmc.loader.impl.metadata.EntrypointMetadata;
+import net.fabricmc.loader.impl.metadata.LoaderModMetadata;
+import net.fabricmc.loader.impl.metadata.ModMetadataParser;
+import net.fabricmc.loader.impl.metadata.ModMetadataSerializer;
+import net.fabricmc.loader.impl.metadata.NestedJarEntry;
+import net.fabricmc.loader.impl.metadata.ParseMetadataException;
+
+final class ModMetadataSerializerTests {
+	private static Path specPath;
+
+	@BeforeAll
+	public static void setupPaths() {
+		specPath = new File(System.getProperty("user.dir"))
+				.toPath()
+				.resolve("src")
+				.resolve("test")
+				.resolve("resources")
+				.resolve("testing")
+				.resolve("parsing")
+				.resolve("v1")
+				.resolve("spec");
+	}
+
+	@Test
+	@DisplayName("Test serialized metadata")
+	public void testRoundTrip() throws IOException, ParseMetadataException {
+		try (Stream<Path> files = Files.list(specPath)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				byte[] json = Files.readAllBytes(file);
+				LoaderModMetadata metadata = ModMetadataParser.readMetadata(new ByteArrayInputStream(json), file.toString(), Collections.emptyList(), false);
+				byte[] serialized = ModMetadataSerializer.serialize(metadata, json);
+				LoaderModMetadata read = ModMetadataSerializer.deserialize(serialized, file.toString(), Collections.emptyList(), false);
+
+				assertEquals(describe(metadata), describe(read), file.getFileName().toString());
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Test serialized v0 metadata")
+	public void testJsonFallback() throws IOException, ParseMetadataException {
+		byte[] json = "{\"id\":\"v0-test\",\"version\":\"1.2.3\",\"name\":\"Test\",\"requires\":{\"fabric\":\"*\"}}".getBytes(StandardCharsets.UTF_8);
+		LoaderModMetadata metadata = ModMetadataParser.readMetadata(new ByteArrayInputStream(json), "dummy", Collections.emptyList(), false);
+		LoaderModMetadata read = ModMetadataSerializer.deserialize(ModMetadataSerializer.serialize(metadata, json), "dummy", Collections.emptyList(), false);
+
+		assertEquals(0, read.getSchemaVersion());
+		assertEquals(describe(metadata), describe(read));
+	}
+
+	/**
+	 * @return everything the metadata exposes, in a stable order
+	 */
+	private static String describe(LoaderModMetadata metadata) {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(metadata.getId()).append(' ').append(metadata.getVersion().getFriendlyString())
+				.append("\nprovides ").append(metadata.getProvides())
+				.append("\nenvironment ").append(metadata.getEnvironment())
+				.append("\nname ").append(metadata.getName())
+				.append("\ndescription ").append(metadata.getDescription())
+				.append("\nlicense ").append(metadata.getLicense())
+				.append("\ncontact ").append(new TreeMap<>(metadata.getContact().asMap()))
+				.append("\naccess widener ").append(metadata.getAccessWidener())
+				.append("\nlanguage adapters ").append(new TreeMap<>(metadata.getLanguageAdapterDefinitions()))
+				.append("\nclient mixins ").append(metadata.getMixinConfigs(EnvType.CLIENT))
+				.append("\nserver mixins ").append(metadata.getMixinConfigs(EnvType.SERVER))
+				.append("\ninitializers ").append(metadata.getOldInitializers());
+
+		for (int size : new int[] { 1, 16, 32, 64, 128, 1024 }) {
+			sb.append("\nicon ").append(size).append(' ').append(metadata.getIconPath(size));
+		}
+
+		for (String key : new TreeSet<>(metadata.getEntrypointKeys())) {
+			for (EntrypointMetadata entrypoint : metadata.getEntrypoints(key)) {
+				sb.append("\nentrypoint ").append(key).append(' ').append(entrypoint.getAdapter()).append(' ').append(entrypoint.getValue());
+			}
+		}
+
+		for (NestedJarEntry jar : metadata.getJars()) {
+			sb.append("\njar ").append(jar.getFile());
+		}
+
+		for (ModDependency dep : metadata.getDependencies()) {
+			sb.append("\ndep ").append(dep).append(' ').append(dep.getVersionIntervals());
+		}
+
+		for (Person person : metadata.getAuthors()) {
+			sb.append("\nauthor ").append(person.getName()).append(' ').append(new TreeMap<>(person.getContact().asMap()));
+		}
+
+		for (Person person : metadata.getContributors()) {
+			sb.append("\ncontributor ").append(person.getName()).append(' ').append(new TreeMap<>(person.getContact().asMap()));
+		}
+
+		for (Map.Entry<String, CustomValue> entry : new TreeMap<>(metadata.getCustomValues()).entrySet()) {
+			sb.append("\ncustom ").append(entry.getKey()).append(' ');
+			describe(entry.getValue(), sb);
+		}
+
+		return sb.toString();
+	}
+
+	private static void describe(CustomValue value, StringBuilder sb) {
+		switch (value.getType()) {
+		case OBJECT:
+			sb.append('{');
+
+			for (Map.Entry<String, CustomValue> entry : value.getAsObject()) {
+				sb.append(entry.getKey()).append('=');
+				describe(entry.getValue(), sb);
+				sb.append(',');
+			}
+
+			sb.append('}');
+			break;
+		case ARRAY:
+			sb.append('[');
+
+			for (CustomValue entry : value.getAsArray()) {
+				describe(entry, sb);
+				sb.append(',');
+			}
+
+			sb.append(']');
+			break;
+		case STRING:
+			sb.append('"').append(value.getAsString()).append('"');
+			break;
+		case NUMBER:
+			sb.append(value.getAsNumber());
+			break;
+		case BOOLEAN:
+			sb.append(value.getAsBoolean());
+			break;
+		case NULL:
+			sb.append("null");
+			break;
+		}
+	}
+}